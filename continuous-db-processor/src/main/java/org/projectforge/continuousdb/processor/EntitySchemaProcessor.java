@@ -0,0 +1,219 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2014 Kai Reinhard (k.reinhard@micromata.de)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+package org.projectforge.continuousdb.processor;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * Generates a schema descriptor for every class annotated with javax.persistence.Entity. The descriptor lists the fields and getters
+ * annotated with persistence annotations (the same annotations as checked by JPAHelper.getPersistenceAnnotations), so the schema updater
+ * doesn't have to inspect all members of the entities by reflection on start-up. The format is described by
+ * org.projectforge.continuousdb.EntityDescriptor. <br/>
+ * The processor is found automatically by the compiler if this jar is in the compile class path (e. g. as maven dependency with scope
+ * provided).
+ * @author Kai Reinhard (k.reinhard@micromata.de)
+ */
+@SupportedAnnotationTypes("javax.persistence.Entity")
+public class EntitySchemaProcessor extends AbstractProcessor
+{
+  /**
+   * Must be the same as EntityDescriptor.RESOURCE_PATH.
+   */
+  static final String RESOURCE_PATH = "META-INF/continuousdb/";
+
+  /**
+   * Must be the same as EntityDescriptor.RESOURCE_SUFFIX.
+   */
+  static final String RESOURCE_SUFFIX = ".schema";
+
+  /**
+   * Must be the same as EntityDescriptor.VERSION.
+   */
+  static final String VERSION = "1";
+
+  private static final Set<String> PERSISTENCE_ANNOTATIONS = new HashSet<String>(Arrays.asList("javax.persistence.Basic",
+      "javax.persistence.Column", "javax.persistence.GeneratedValue", "javax.persistence.Id", "javax.persistence.JoinColumn",
+      "javax.persistence.JoinTable", "javax.persistence.Lob", "javax.persistence.ManyToMany", "javax.persistence.ManyToOne",
+      "javax.persistence.OneToMany", "javax.persistence.OrderColumn"));
+
+  @Override
+  public SourceVersion getSupportedSourceVersion()
+  {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(final Set< ? extends TypeElement> annotations, final RoundEnvironment roundEnv)
+  {
+    for (final TypeElement annotation : annotations) {
+      for (final Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+        if (element.getKind() != ElementKind.CLASS) {
+          continue;
+        }
+        writeDescriptor((TypeElement) element);
+      }
+    }
+    // Other processors may handle @Entity as well.
+    return false;
+  }
+
+  private void writeDescriptor(final TypeElement entity)
+  {
+    final List<String> fields = new ArrayList<String>();
+    final List<String> getters = new ArrayList<String>();
+    final List<String> inheritedFields = new ArrayList<String>();
+    final List<String> inheritedGetters = new ArrayList<String>();
+    // Property names of all getters (annotated or not): overridden getters of super classes are ignored.
+    final Set<String> getterProperties = new HashSet<String>();
+    addMembers(entity, fields, getters, getterProperties);
+    TypeElement superclass = getSuperclass(entity);
+    while (superclass != null) {
+      addMembers(superclass, inheritedFields, inheritedGetters, getterProperties);
+      superclass = getSuperclass(superclass);
+    }
+    final String className = processingEnv.getElementUtils().getBinaryName(entity).toString();
+    PrintWriter out = null;
+    try {
+      final FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "",
+          RESOURCE_PATH + className + RESOURCE_SUFFIX, entity);
+      out = new PrintWriter(new OutputStreamWriter(file.openOutputStream(), "UTF-8"));
+      out.println("# Generated by " + getClass().getName() + ", don't edit.");
+      out.println("version=" + VERSION);
+      out.println("entity=" + className);
+      print(out, "field", fields);
+      print(out, "getter", getters);
+      print(out, "inheritedField", inheritedFields);
+      print(out, "inheritedGetter", inheritedGetters);
+    } catch (final IOException ex) {
+      processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Can't write schema descriptor: " + ex.getMessage(), entity);
+    } finally {
+      if (out != null) {
+        out.close();
+      }
+    }
+  }
+
+  private void addMembers(final TypeElement type, final List<String> fields, final List<String> getters, final Set<String> getterProperties)
+  {
+    for (final Element member : type.getEnclosedElements()) {
+      if (member.getModifiers().contains(Modifier.STATIC) == true) {
+        continue;
+      }
+      if (member.getKind() == ElementKind.FIELD) {
+        if (isPersistenceAnnotationPresent(member) == true) {
+          fields.add(member.getSimpleName().toString());
+        }
+      } else if (member.getKind() == ElementKind.METHOD) {
+        final String property = getGetterProperty((ExecutableElement) member);
+        if (property == null || getterProperties.add(property) == false) {
+          // No getter or getter overridden by sub class.
+          continue;
+        }
+        if (isPersistenceAnnotationPresent(member) == true) {
+          getters.add(property);
+        }
+      }
+    }
+  }
+
+  /**
+   * @param method
+   * @return The property name if the given method is a public getter method, otherwise null.
+   */
+  private String getGetterProperty(final ExecutableElement method)
+  {
+    if (method.getModifiers().contains(Modifier.PUBLIC) == false || method.getParameters().isEmpty() == false) {
+      return null;
+    }
+    final TypeKind returnType = method.getReturnType().getKind();
+    final String name = method.getSimpleName().toString();
+    String property = null;
+    if (name.startsWith("get") == true && name.length() > 3 && returnType != TypeKind.VOID) {
+      property = name.substring(3);
+    } else if (name.startsWith("is") == true && name.length() > 2 && returnType == TypeKind.BOOLEAN) {
+      property = name.substring(2);
+    }
+    if (property == null) {
+      return null;
+    }
+    return Character.toLowerCase(property.charAt(0)) + property.substring(1);
+  }
+
+  private boolean isPersistenceAnnotationPresent(final Element element)
+  {
+    for (final AnnotationMirror mirror : element.getAnnotationMirrors()) {
+      final TypeElement annotationType = (TypeElement) mirror.getAnnotationType().asElement();
+      if (PERSISTENCE_ANNOTATIONS.contains(annotationType.getQualifiedName().toString()) == true) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @param type
+   * @return The super class or null if the super class is java.lang.Object.
+   */
+  private TypeElement getSuperclass(final TypeElement type)
+  {
+    final TypeMirror superclass = type.getSuperclass();
+    if (superclass.getKind() != TypeKind.DECLARED) {
+      return null;
+    }
+    final TypeElement element = (TypeElement) processingEnv.getTypeUtils().asElement(superclass);
+    if (Object.class.getName().equals(element.getQualifiedName().toString()) == true) {
+      return null;
+    }
+    return element;
+  }
+
+  private void print(final PrintWriter out, final String key, final List<String> values)
+  {
+    for (final String value : values) {
+      out.println(key + "=" + value);
+    }
+  }
+}
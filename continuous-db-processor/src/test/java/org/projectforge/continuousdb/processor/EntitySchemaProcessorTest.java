@@ -0,0 +1,219 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2014 Kai Reinhard (k.reinhard@micromata.de)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+package org.projectforge.continuousdb.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.processing.Processor;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.junit.Test;
+import org.projectforge.continuousdb.EntityDescriptor;
+import org.projectforge.continuousdb.EntityMetadata;
+import org.projectforge.continuousdb.EntityMetadata.PersistentProperty;
+import org.projectforge.continuousdb.JPAHelper;
+
+public class EntitySchemaProcessorTest
+{
+  private static final String BASE_DO = "package sample;\n" //
+      + "@javax.persistence.MappedSuperclass\n" //
+      + "public class BaseDO {\n" //
+      + "  private Integer id;\n" //
+      + "  @javax.persistence.Id public Integer getId() { return id; }\n" //
+      + "  public void setId(final Integer id) { this.id = id; }\n" //
+      + "}\n";
+
+  private static final String SAMPLE_DO = "package sample;\n" //
+      + "@javax.persistence.Entity\n" //
+      + "@javax.persistence.Table(name = \"t_sample\")\n" //
+      + "public class SampleDO extends BaseDO {\n" //
+      + "  public static final String CONSTANT = \"c\";\n" //
+      + "  @javax.persistence.Column(length = 100) private String title;\n" //
+      + "  private SampleDO parent;\n" //
+      + "  %s private String description;\n" //
+      + "  private boolean deleted;\n" //
+      + "  @javax.persistence.ManyToOne public SampleDO getParent() { return parent; }\n" //
+      + "  public boolean isDeleted() { return deleted; }\n" //
+      + "}\n";
+
+  @Test
+  public void generateDescriptor() throws Exception
+  {
+    final File dir = createTempDir();
+    try {
+      final File baseFile = write(dir, "sample/BaseDO.java", BASE_DO);
+      final File sampleFile = write(dir, "sample/SampleDO.java", String.format(SAMPLE_DO, ""));
+      compile(dir, true, baseFile, sampleFile);
+      final List<String> lines = readLines(new File(dir, "META-INF/continuousdb/sample.SampleDO.schema"));
+      assertEquals("version=" + EntityDescriptor.VERSION, lines.get(1));
+      assertEquals("entity=sample.SampleDO", lines.get(2));
+      assertEquals(Arrays.asList("field=title", "getter=parent", "inheritedGetter=id"), lines.subList(3, lines.size()));
+      final EntityDescriptor descriptor = EntityDescriptor.load(loadClass(dir, "sample.SampleDO"));
+      assertNotNull(descriptor);
+      assertEquals(Arrays.asList("title"), descriptor.getFields(false));
+      assertEquals(Arrays.asList("parent", "id"), descriptor.getGetters(false));
+    } finally {
+      delete(dir);
+    }
+  }
+
+  /**
+   * An annotation added to an existing field.
+   */
+  @Test
+  public void modifiedAnnotation() throws Exception
+  {
+    final File dir = createTempDir();
+    try {
+      final File baseFile = write(dir, "sample/BaseDO.java", BASE_DO);
+      final File sampleFile = write(dir, "sample/SampleDO.java", String.format(SAMPLE_DO, ""));
+      compile(dir, true, baseFile, sampleFile);
+      write(dir, "sample/SampleDO.java", String.format(SAMPLE_DO, "@javax.persistence.Column(length = 4000)"));
+      compile(dir, true, sampleFile);
+      assertEquals(Arrays.asList("title", "description"), EntityDescriptor.load(loadClass(dir, "sample.SampleDO")).getFields(false));
+
+      // Compiled without processor: the descriptors are disabled at default, if enabled the annotations are still read from the class:
+      write(dir, "sample/SampleDO.java", String.format(SAMPLE_DO, "@javax.persistence.Column(length = 2000) @javax.persistence.Lob"));
+      compile(dir, false, sampleFile);
+      final Class< ? > sampleClass = loadClass(dir, "sample.SampleDO");
+      try {
+        EntityMetadata.setUseEntityDescriptors(false);
+        assertEquals(Arrays.asList("title", "description", "parent"), getProperties(sampleClass));
+        assertEquals(2000, JPAHelper.getColumnAnnotation(sampleClass, "description").length());
+        EntityMetadata.setUseEntityDescriptors(true);
+        assertEquals(Arrays.asList("title", "description", "parent"), getProperties(sampleClass));
+        final PersistentProperty description = EntityMetadata.getInstance(sampleClass).getPersistentProperties(true).get(1);
+        assertEquals("Annotations are read from the class.", 2, description.getAnnotations().size());
+      } finally {
+        EntityMetadata.setUseEntityDescriptors(false);
+      }
+    } finally {
+      delete(dir);
+    }
+  }
+
+  private List<String> getProperties(final Class< ? > entityClass)
+  {
+    final List<String> properties = new ArrayList<String>();
+    for (final PersistentProperty property : EntityMetadata.getInstance(entityClass).getPersistentProperties(true)) {
+      properties.add(property.getProperty());
+    }
+    return properties;
+  }
+
+  private File createTempDir() throws IOException
+  {
+    final File dir = File.createTempFile("continuous-db-processor", "");
+    dir.delete();
+    dir.mkdirs();
+    return dir;
+  }
+
+  private void compile(final File dir, final boolean withProcessor, final File... sources) throws IOException
+  {
+    final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    final StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null);
+    try {
+      final List<String> options = new ArrayList<String>(Arrays.asList("-d", dir.getPath(), "-classpath",
+          System.getProperty("java.class.path") + File.pathSeparator + dir.getPath()));
+      if (withProcessor == false) {
+        options.add("-proc:none");
+      }
+      final Iterable< ? extends JavaFileObject> units = fileManager.getJavaFileObjects(sources);
+      final JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, null, options, null, units);
+      if (withProcessor == true) {
+        task.setProcessors(Arrays.<Processor> asList(new EntitySchemaProcessor()));
+      }
+      assertTrue("Compilation failed.", task.call());
+    } finally {
+      fileManager.close();
+    }
+  }
+
+  /**
+   * A new class loader per call, because the classes are recompiled.
+   */
+  private Class< ? > loadClass(final File dir, final String className) throws Exception
+  {
+    final URLClassLoader classLoader = new URLClassLoader(new URL[] { dir.toURI().toURL()}, getClass().getClassLoader());
+    return classLoader.loadClass(className);
+  }
+
+  private File write(final File dir, final String path, final String content) throws IOException
+  {
+    final File file = new File(dir, path);
+    file.getParentFile().mkdirs();
+    final Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+    try {
+      out.write(content);
+    } finally {
+      out.close();
+    }
+    return file;
+  }
+
+  private List<String> readLines(final File file) throws IOException
+  {
+    final List<String> lines = new ArrayList<String>();
+    final BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+    try {
+      String line;
+      while ((line = in.readLine()) != null) {
+        lines.add(line);
+      }
+    } finally {
+      in.close();
+    }
+    return lines;
+  }
+
+  private void delete(final File file)
+  {
+    final File[] children = file.listFiles();
+    if (children != null) {
+      for (final File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+}
@@ -0,0 +1,299 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2014 Kai Reinhard (k.reinhard@micromata.de)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+package org.projectforge.continuousdb;
+
+import java.net.InetAddress;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.projectforge.common.DatabaseDialect;
+
+/**
+ * Database wide lock serializing the update checks and updates of several application nodes using the same database:
+ * <ul>
+ * <li>PostgreSQL: session level advisory lock (pg_try_advisory_lock) held by a pinned connection, released automatically by the database
+ * if the connection dies.</li>
+ * <li>Other databases: lease row in the table {@link DatabaseUpdateDao#UPDATE_LOCK_TABLE}. The lease is renewed by a heartbeat thread, so
+ * the lock of a crashed node expires after the lease time. The lease is based on the time of the database.</li>
+ * </ul>
+ * The lock is reentrant for the owning thread.
+ * @author Kai Reinhard (k.reinhard@micromata.de)
+ * @see UpdaterConfiguration#setClusterLockEnabled(boolean)
+ */
+public class ClusterUpdateLock
+{
+  private static final org.projectforge.common.Logger log = org.projectforge.common.Logger.getLogger(ClusterUpdateLock.class);
+
+  private static final String LOCK_NAME = "continuous-db";
+
+  /**
+   * Key of the PostgreSQL advisory lock.
+   */
+  private static final long ADVISORY_LOCK_KEY = 0x436f6e7444424c6bL;
+
+  private final DatabaseUpdateDao databaseUpdateDao;
+
+  private final UpdaterConfiguration configuration;
+
+  private final String owner;
+
+  private Thread ownerThread;
+
+  private int holdCount;
+
+  private DatabaseSession advisoryLockSession;
+
+  private ScheduledExecutorService heartbeat;
+
+  public ClusterUpdateLock(final DatabaseUpdateDao databaseUpdateDao, final UpdaterConfiguration configuration)
+  {
+    this.databaseUpdateDao = databaseUpdateDao;
+    this.configuration = configuration;
+    String host;
+    try {
+      host = InetAddress.getLocalHost().getHostName();
+    } catch (final Exception ex) {
+      host = "unknown";
+    }
+    this.owner = host + "-" + UUID.randomUUID().toString();
+  }
+
+  /**
+   * @return The id of this node used as owner of the lease row.
+   */
+  public String getOwner()
+  {
+    return owner;
+  }
+
+  /**
+   * Waits until the lock is acquired. The database is accessed outside of the monitor of this lock, the monitor is only used for the
+   * bookkeeping of the owning thread and the hold count. Other threads of this node wait until the current attempt is finished.
+   * @param waitMillis Maximum time to wait.
+   * @throws IllegalStateException if the lock couldn't be acquired within the given time.
+   */
+  public void acquire(final long waitMillis)
+  {
+    final long deadline = System.currentTimeMillis() + waitMillis;
+    synchronized (this) {
+      if (ownerThread == Thread.currentThread()) {
+        ++holdCount;
+        return;
+      }
+    }
+    boolean logged = false;
+    while (true) {
+      synchronized (this) {
+        while (ownerThread != null) {
+          waitUntil(deadline, waitMillis);
+        }
+        // Reserved for the current thread (hold count is still 0) while trying to get the database lock:
+        ownerThread = Thread.currentThread();
+      }
+      boolean acquired = false;
+      try {
+        acquired = tryAcquireDatabaseLock();
+      } finally {
+        synchronized (this) {
+          if (acquired == true) {
+            holdCount = 1;
+          } else {
+            ownerThread = null;
+            notifyAll();
+          }
+        }
+      }
+      if (acquired == true) {
+        break;
+      }
+      if (logged == false) {
+        log.info("Waiting for the cluster update lock held by another node...");
+        logged = true;
+      }
+      synchronized (this) {
+        waitUntil(deadline, waitMillis);
+      }
+    }
+    log.info("Cluster update lock acquired by " + owner + ".");
+  }
+
+  /**
+   * The database lock is released outside of the monitor of this lock, the current thread stays owner until the database lock is released.
+   */
+  public void release()
+  {
+    synchronized (this) {
+      if (ownerThread != Thread.currentThread() || holdCount == 0) {
+        throw new IllegalStateException("Cluster update lock isn't held by the current thread.");
+      }
+      if (--holdCount > 0) {
+        return;
+      }
+    }
+    try {
+      releaseDatabaseLock();
+    } finally {
+      synchronized (this) {
+        ownerThread = null;
+        notifyAll();
+      }
+    }
+    log.info("Cluster update lock released by " + owner + ".");
+  }
+
+  /**
+   * Waits at maximum 1s (releases the monitor while waiting).
+   * @throws IllegalStateException if the deadline is exceeded.
+   */
+  private void waitUntil(final long deadline, final long waitMillis)
+  {
+    final long remaining = deadline - System.currentTimeMillis();
+    if (remaining <= 0) {
+      throw new IllegalStateException("Couldn't acquire the cluster update lock within " + waitMillis + "ms.");
+    }
+    try {
+      wait(Math.min(1000, remaining));
+    } catch (final InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(ex);
+    }
+  }
+
+  public synchronized boolean isHeldByCurrentThread()
+  {
+    return ownerThread == Thread.currentThread() && holdCount > 0;
+  }
+
+  private boolean tryAcquireDatabaseLock()
+  {
+    if (configuration.getDialect() == DatabaseDialect.PostgreSQL) {
+      final DatabaseSession session = databaseUpdateDao.openSession();
+      boolean acquired = false;
+      try {
+        final List<Boolean> result = session.query("select pg_try_advisory_lock(?)", RowMappers.singleColumn(Boolean.class),
+            ADVISORY_LOCK_KEY);
+        acquired = Boolean.TRUE.equals(result.get(0));
+      } finally {
+        if (acquired == true) {
+          advisoryLockSession = session;
+        } else {
+          session.close();
+        }
+      }
+      return acquired;
+    }
+    databaseUpdateDao.createUpdateLockTableIfNotExist(LOCK_NAME);
+    final long leaseMillis = configuration.getClusterLockLeaseMillis();
+    final String leaseEnd = databaseUpdateDao.getDatabaseSupport().getCurrentTimestampPlusMillis(leaseMillis);
+    final String sql = "update " + DatabaseUpdateDao.UPDATE_LOCK_TABLE + " set owner=?, lease_until=" + (leaseEnd != null ? leaseEnd : "?")
+        + " where lock_name=? and (owner is null or lease_until < current_timestamp)";
+    final int updated;
+    if (leaseEnd != null) {
+      updated = databaseUpdateDao.update(sql, owner, LOCK_NAME);
+    } else {
+      updated = databaseUpdateDao.update(sql, owner, getLeaseEnd(leaseMillis), LOCK_NAME);
+    }
+    if (updated == 0) {
+      return false;
+    }
+    startHeartbeat();
+    return true;
+  }
+
+  private void releaseDatabaseLock()
+  {
+    if (advisoryLockSession != null) {
+      try {
+        advisoryLockSession.query("select pg_advisory_unlock(?)", RowMappers.singleColumn(Boolean.class), ADVISORY_LOCK_KEY);
+      } finally {
+        advisoryLockSession.close();
+        advisoryLockSession = null;
+      }
+      return;
+    }
+    if (heartbeat != null) {
+      heartbeat.shutdownNow();
+      heartbeat = null;
+    }
+    databaseUpdateDao.update("update " + DatabaseUpdateDao.UPDATE_LOCK_TABLE + " set owner=null, lease_until=null where lock_name=? and owner=?",
+        LOCK_NAME, owner);
+  }
+
+  private void startHeartbeat()
+  {
+    final long leaseMillis = configuration.getClusterLockLeaseMillis();
+    final String leaseEnd = databaseUpdateDao.getDatabaseSupport().getCurrentTimestampPlusMillis(leaseMillis);
+    final String sql = "update " + DatabaseUpdateDao.UPDATE_LOCK_TABLE + " set lease_until=" + (leaseEnd != null ? leaseEnd : "?")
+        + " where lock_name=? and owner=?";
+    heartbeat = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(final Runnable runnable)
+      {
+        final Thread thread = new Thread(runnable, "ClusterUpdateLock-heartbeat");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    heartbeat.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run()
+      {
+        try {
+          // The sql statements of the heartbeat aren't logged:
+          final int updated;
+          if (leaseEnd != null) {
+            updated = databaseUpdateDao.internalUpdate(sql, LOCK_NAME, owner);
+          } else {
+            updated = databaseUpdateDao.internalUpdate(sql, getLeaseEnd(leaseMillis), LOCK_NAME, owner);
+          }
+          if (updated == 0) {
+            log.error("Lease of the cluster update lock lost (expired?), owner: " + owner);
+          }
+        } catch (final RuntimeException ex) {
+          log.error("Can't renew the lease of the cluster update lock: " + ex.getMessage(), ex);
+        }
+      }
+    }, leaseMillis / 3, leaseMillis / 3, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * The lease is based on the time of the database (the clocks of the nodes may differ). Only used if the database doesn't support
+   * timestamp arithmetic, otherwise the lease is computed by the update statement itself.
+   * @param leaseMillis
+   * @return The current time of the database plus the given lease.
+   */
+  private Timestamp getLeaseEnd(final long leaseMillis)
+  {
+    // Selected from the lock row, because a select without table isn't supported by all databases:
+    final List<DatabaseResultRow> rows = databaseUpdateDao.internalQuery("select current_timestamp from " + DatabaseUpdateDao.UPDATE_LOCK_TABLE
+        + " where lock_name=?", LOCK_NAME);
+    final Timestamp now = (Timestamp) rows.get(0).getEntry(0).getValue();
+    return new Timestamp(now.getTime() + leaseMillis);
+  }
+}
@@ -0,0 +1,448 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2014 Kai Reinhard (k.reinhard@micromata.de)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+package org.projectforge.continuousdb;
+
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Converts the values of a source column into a target column of the same table. The table is walked in chunks ordered by the primary key
+ * (keyset pagination: each chunk starts after the last key of the previous chunk), so the memory usage doesn't depend on the size of the
+ * table. The updates of each chunk are executed as one jdbc batch and committed per chunk, so locks are held only for one chunk. Large
+ * tables may be processed by several threads (see {@link #setParallelism(int)}). The chunks are paced by the
+ * {@link MigrationThrottle} of the configuration.<br/>
+ * Example:
+ * 
+ * <pre>
+ * databaseUpdateDao.renameTableAttribute(&quot;t_address&quot;, &quot;amount&quot;, &quot;old_amount&quot;);
+ * new ColumnMigration(databaseUpdateDao, &quot;t_address&quot;, &quot;pk&quot;, &quot;old_amount&quot;, new TableAttribute(Address2DO.class, &quot;amount&quot;),
+ *     new ColumnConverter() {
+ *       public Object convert(final Object value)
+ *       {
+ *         return value != null ? new BigDecimal((String) value) : null;
+ *       }
+ *     }).setDropSourceColumn(true).run();
+ * </pre>
+ * 
+ * @author Kai Reinhard (k.reinhard@micromata.de)
+ */
+public class ColumnMigration
+{
+  private static final org.projectforge.common.Logger log = org.projectforge.common.Logger.getLogger(ColumnMigration.class);
+
+  /**
+   * More ranges than workers for balancing the load of unevenly distributed keys.
+   */
+  public static final int RANGES_PER_WORKER = 4;
+
+  private final DatabaseUpdateDao databaseUpdateDao;
+
+  private final String table;
+
+  private final String primaryKey;
+
+  private final String sourceColumn;
+
+  private final TableAttribute targetAttribute;
+
+  private final ColumnConverter converter;
+
+  private int chunkSize;
+
+  private int parallelism = 1;
+
+  private int maxRetries = 2;
+
+  private boolean dropSourceColumn;
+
+  private String migrationId;
+
+  private final AtomicLong processedRows = new AtomicLong();
+
+  private List<MigrationRange> ranges;
+
+  /**
+   * @param databaseUpdateDao
+   * @param table
+   * @param primaryKey The name of the primary key column used for walking through the table.
+   * @param sourceColumn
+   * @param targetAttribute The target column. It's created if not exist.
+   * @param converter Must be thread safe if the parallelism is greater than 1.
+   */
+  public ColumnMigration(final DatabaseUpdateDao databaseUpdateDao, final String table, final String primaryKey,
+      final String sourceColumn, final TableAttribute targetAttribute, final ColumnConverter converter)
+  {
+    this.databaseUpdateDao = databaseUpdateDao;
+    this.table = table;
+    this.primaryKey = primaryKey;
+    this.sourceColumn = sourceColumn;
+    this.targetAttribute = targetAttribute;
+    this.converter = converter;
+    this.chunkSize = databaseUpdateDao.getConfiguration().getBatchSize();
+  }
+
+  /**
+   * @param chunkSize The number of rows read, updated and committed at once. Default is the batch size of the configuration.
+   * @return this for chaining.
+   * @see UpdaterConfiguration#setBatchSize(int)
+   */
+  public ColumnMigration setChunkSize(final int chunkSize)
+  {
+    this.chunkSize = chunkSize;
+    return this;
+  }
+
+  public int getChunkSize()
+  {
+    return chunkSize;
+  }
+
+  /**
+   * If the parallelism is greater than 1, the table is split into {@link #RANGES_PER_WORKER} disjoint primary key ranges per worker which
+   * are processed concurrently by a fixed thread pool. Each worker uses its own session (connection) of the data source. This is only
+   * supported for numeric primary keys, otherwise the table is processed by one worker.
+   * @param parallelism The number of worker threads (default is 1).
+   * @return this for chaining.
+   */
+  public ColumnMigration setParallelism(final int parallelism)
+  {
+    this.parallelism = parallelism;
+    return this;
+  }
+
+  public int getParallelism()
+  {
+    return parallelism;
+  }
+
+  /**
+   * @param maxRetries How often a range failed by a transient database error is retried (default is 2). A retry continues after the last
+   *          committed chunk of the range. Other errors (e. g. of the converter) aren't retried.
+   * @return this for chaining.
+   */
+  public ColumnMigration setMaxRetries(final int maxRetries)
+  {
+    this.maxRetries = maxRetries;
+    return this;
+  }
+
+  public int getMaxRetries()
+  {
+    return maxRetries;
+  }
+
+  /**
+   * If a migration id is given, the ranges and the progress of each range are stored in the checkpoint table (in the transaction of each
+   * chunk). A run with the same id resumes after the last committed chunk of each range, ranges already done are skipped.
+   * @param migrationId Unique id of this migration, e. g. "t_address.amount". Default is null (no checkpoints).
+   * @return this for chaining.
+   * @see DatabaseUpdateDao#MIGRATION_CHECKPOINT_TABLE
+   */
+  public ColumnMigration setMigrationId(final String migrationId)
+  {
+    this.migrationId = migrationId;
+    return this;
+  }
+
+  public String getMigrationId()
+  {
+    return migrationId;
+  }
+
+  /**
+   * @param dropSourceColumn If true, the source column is dropped after all rows are converted successfully.
+   * @return this for chaining.
+   */
+  public ColumnMigration setDropSourceColumn(final boolean dropSourceColumn)
+  {
+    this.dropSourceColumn = dropSourceColumn;
+    return this;
+  }
+
+  /**
+   * @return The number of rows converted by the current run (also after a failed run, because each chunk is committed).
+   */
+  public long getProcessedRows()
+  {
+    return processedRows.get();
+  }
+
+  /**
+   * @return The ranges of the last run (with their status) or null if not yet run.
+   */
+  public List<MigrationRange> getRanges()
+  {
+    return ranges;
+  }
+
+  /**
+   * @return {@link UpdateRunningStatus#DONE} if all ranges are converted successfully, otherwise {@link UpdateRunningStatus#FAILED}.
+   */
+  public UpdateRunningStatus run()
+  {
+    if (databaseUpdateDao.doesTableAttributeExist(table, targetAttribute.getName()) == false) {
+      databaseUpdateDao.addTableAttributes(table, targetAttribute);
+    }
+    log.info("Converting column '" + table + "." + sourceColumn + "' into '" + targetAttribute.getName() + "'...");
+    final long start = System.currentTimeMillis();
+    ranges = null;
+    if (migrationId != null) {
+      ranges = databaseUpdateDao.loadMigrationCheckpoints(migrationId);
+      if (ranges.isEmpty() == true) {
+        ranges = null;
+      } else {
+        log.info("Resuming migration '" + migrationId + "' from checkpoint: " + ranges.size() + " ranges.");
+      }
+    }
+    if (ranges == null) {
+      ranges = createRanges();
+      if (migrationId != null) {
+        databaseUpdateDao.saveMigrationCheckpoints(migrationId, ranges);
+      }
+    }
+    final UpdateRunningStatus status;
+    if (ranges.size() == 1) {
+      status = processRange(ranges.get(0));
+    } else {
+      status = processRanges();
+    }
+    if (status != UpdateRunningStatus.DONE) {
+      log.error("Conversion of column '" + table + "." + sourceColumn + "' failed after " + processedRows + " rows.");
+      return status;
+    }
+    log.info("Conversion of " + processedRows + " rows done in " + (System.currentTimeMillis() - start) + "ms.");
+    if (dropSourceColumn == true && databaseUpdateDao.doesTableAttributeExist(table, sourceColumn) == true) {
+      databaseUpdateDao.dropTableAttribute(table, sourceColumn);
+    }
+    return UpdateRunningStatus.DONE;
+  }
+
+  private UpdateRunningStatus processRanges()
+  {
+    final int threads = Math.min(parallelism, ranges.size());
+    log.info("Processing " + ranges.size() + " ranges of table '" + table + "' with " + threads + " threads.");
+    final ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      final List<Future<UpdateRunningStatus>> futures = new ArrayList<Future<UpdateRunningStatus>>();
+      for (final MigrationRange range : ranges) {
+        futures.add(executor.submit(new Callable<UpdateRunningStatus>() {
+          @Override
+          public UpdateRunningStatus call()
+          {
+            return processRange(range);
+          }
+        }));
+      }
+      UpdateRunningStatus status = UpdateRunningStatus.DONE;
+      for (final Future<UpdateRunningStatus> future : futures) {
+        try {
+          if (future.get() != UpdateRunningStatus.DONE) {
+            status = UpdateRunningStatus.FAILED;
+          }
+        } catch (final ExecutionException ex) {
+          log.error("Exception encountered " + ex, ex);
+          status = UpdateRunningStatus.FAILED;
+        } catch (final InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          throw new RuntimeException(ex);
+        }
+      }
+      return status;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Splits the primary key interval [min, max] into equal ranges. The first and the last range are open, so rows inserted meanwhile
+   * outside the interval are processed as well.
+   */
+  private List<MigrationRange> createRanges()
+  {
+    final List<MigrationRange> result = new ArrayList<MigrationRange>();
+    if (parallelism > 1) {
+      final List<Object[]> minMax = databaseUpdateDao.query("select min(" + primaryKey + "), max(" + primaryKey + ") from " + table,
+          RowMappers.objectArray());
+      final Object min = minMax.get(0)[0];
+      final Object max = minMax.get(0)[1];
+      if (min instanceof Number && max instanceof Number) {
+        final long minKey = ((Number) min).longValue();
+        final long maxKey = ((Number) max).longValue();
+        final int number = (int) Math.min((long) parallelism * RANGES_PER_WORKER, maxKey - minKey + 1);
+        final long step = (maxKey - minKey) / number + 1;
+        for (int i = 0; i < number; i++) {
+          final Long lowerKey = i == 0 ? null : minKey - 1 + i * step;
+          final Long upperKey = i == number - 1 ? null : minKey - 1 + (i + 1) * step;
+          result.add(new MigrationRange(i, lowerKey, upperKey));
+        }
+        return result;
+      } else if (min != null) {
+        log.info("Primary key '" + table + "." + primaryKey + "' isn't numeric, so the table is processed by one thread.");
+      }
+    }
+    result.add(new MigrationRange(0, null, null));
+    return result;
+  }
+
+  /**
+   * Processes all chunks of the given range within one session. Transient database errors are retried (continuing after the last committed
+   * chunk).
+   */
+  private UpdateRunningStatus processRange(final MigrationRange range)
+  {
+    if (range.getStatus() == UpdateRunningStatus.DONE) {
+      log.info("Range " + range + " of table '" + table + "' is already done.");
+      return UpdateRunningStatus.DONE;
+    }
+    for (int attempt = 0; attempt <= maxRetries; attempt++) {
+      try {
+        databaseUpdateDao.doInSession(new DatabaseSessionCallback<Object>() {
+          @Override
+          public Object doInSession(final DatabaseSession session)
+          {
+            int rows;
+            do {
+              final Object lowerKey = range.getLastKey() != null ? range.getLastKey() : range.getLowerKey();
+              final List<Object[]> chunk = readChunk(lowerKey, range.getUpperKey());
+              rows = chunk.size();
+              if (rows > 0) {
+                final long chunkStart = System.currentTimeMillis();
+                updateChunk(range, chunk);
+                final long millis = System.currentTimeMillis() - chunkStart;
+                range.setLastKey(chunk.get(rows - 1)[0]);
+                range.addProcessedRows(rows);
+                log.info("Converted " + processedRows.addAndGet(rows) + " rows of table '" + table + "' (range " + range + ", last key: "
+                    + range.getLastKey() + ").");
+                // After the commit of the chunk:
+                databaseUpdateDao.getConfiguration().getMigrationThrottle().afterBatch(rows, millis);
+              }
+            } while (rows == chunkSize);
+            if (migrationId != null) {
+              databaseUpdateDao.updateMigrationCheckpoint(migrationId, range.getIndex(), range.getLastKey(), range.getProcessedRows(), true);
+            }
+            return null;
+          }
+        });
+        range.setStatus(UpdateRunningStatus.DONE);
+        return UpdateRunningStatus.DONE;
+      } catch (final RuntimeException ex) {
+        log.error("Conversion of range " + range + " of table '" + table + "' failed (attempt " + (attempt + 1) + "): " + ex.getMessage(),
+            ex);
+        if (isTransient(ex) == false) {
+          // Errors of the converter etc. would fail again:
+          break;
+        }
+      }
+    }
+    range.setStatus(UpdateRunningStatus.FAILED);
+    return UpdateRunningStatus.FAILED;
+  }
+
+  /**
+   * Most drivers (e. g. of PostgreSQL and HSQLDB) throw plain SQLExceptions, so the SQL state is checked as well: connection errors (class
+   * 08), serialization failures (40001) and dead locks (40P01).
+   * @return true if the cause of the given exception is a database error which may not occur again (dead lock, lost connection etc.).
+   */
+  private static boolean isTransient(final Throwable ex)
+  {
+    for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+      if (cause instanceof SQLException) {
+        // The real cause of a failed batch is the next exception (e. g. of PostgreSQL):
+        for (SQLException sqlEx = (SQLException) cause; sqlEx != null; sqlEx = sqlEx.getNextException()) {
+          if (isTransientSQLException(sqlEx) == true) {
+            return true;
+          }
+        }
+      }
+    }
+    return false;
+  }
+
+  private static boolean isTransientSQLException(final SQLException ex)
+  {
+    if (ex instanceof SQLTransientException || ex instanceof SQLRecoverableException) {
+      return true;
+    }
+    final String state = ex.getSQLState();
+    if (state == null) {
+      return false;
+    }
+    return state.startsWith("08") == true || "40001".equals(state) == true || "40P01".equals(state) == true;
+  }
+
+  /**
+   * @param lowerKey Exclusive or null.
+   * @param upperKey Inclusive or null.
+   * @return The primary key and the source value of the rows of the next chunk.
+   */
+  private List<Object[]> readChunk(final Object lowerKey, final Object upperKey)
+  {
+    final StringBuffer buf = new StringBuffer();
+    final List<Object> args = new ArrayList<Object>(2);
+    buf.append("select ").append(primaryKey).append(", ").append(sourceColumn).append(" from ").append(table);
+    if (lowerKey != null) {
+      buf.append(" where ").append(primaryKey).append(" > ?");
+      args.add(lowerKey);
+    }
+    if (upperKey != null) {
+      buf.append(lowerKey != null ? " and " : " where ").append(primaryKey).append(" <= ?");
+      args.add(upperKey);
+    }
+    buf.append(" order by ").append(primaryKey).append(databaseUpdateDao.getDatabaseSupport().getLimitClause(chunkSize));
+    return databaseUpdateDao.query(buf.toString(), RowMappers.objectArray(), args.toArray());
+  }
+
+  /**
+   * Updates the rows of the chunk and the checkpoint of the range (if any) within one transaction.
+   */
+  private void updateChunk(final MigrationRange range, final List<Object[]> chunk)
+  {
+    final List<Object[]> args = new ArrayList<Object[]>(chunk.size());
+    for (final Object[] row : chunk) {
+      args.add(new Object[] { converter.convert(row[1]), row[0]});
+    }
+    final String sql = "update " + table + " set " + targetAttribute.getName() + "=? where " + primaryKey + "=?";
+    databaseUpdateDao.doInTransaction(new DatabaseSessionCallback<Object>() {
+      @Override
+      public Object doInSession(final DatabaseSession session)
+      {
+        databaseUpdateDao.updateBatch(sql, args);
+        if (migrationId != null) {
+          databaseUpdateDao.updateMigrationCheckpoint(migrationId, range.getIndex(), chunk.get(chunk.size() - 1)[0], range.getProcessedRows()
+              + chunk.size(), false);
+        }
+        return null;
+      }
+    });
+  }
+}
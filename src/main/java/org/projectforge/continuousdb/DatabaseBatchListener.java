@@ -0,0 +1,40 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2014 Kai Reinhard (k.reinhard@micromata.de)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+package org.projectforge.continuousdb;
+
+/**
+ * Gets informed after each executed batch of a batch update (e. g. for reporting the progress of a data migration).
+ * @author Kai Reinhard (k.reinhard@micromata.de)
+ * @see ExtendedDatabaseExecutor#updateBatch(String, Iterable, int, boolean, DatabaseBatchListener)
+ */
+public interface DatabaseBatchListener
+{
+  /**
+   * @param batchNumber Starts with 1.
+   * @param statements Number of statements of this batch.
+   * @param updatedRows Number of rows updated by this batch.
+   * @param millis Execution time of this batch (including the commit if commit per batch is used).
+   */
+  public void afterBatch(int batchNumber, int statements, int updatedRows, long millis);
+}
@@ -0,0 +1,37 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2014 Kai Reinhard (k.reinhard@micromata.de)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+package org.projectforge.continuousdb;
+
+/**
+ * Callback for processing the rows of a query one by one without holding the whole result set in memory.
+ * @author Kai Reinhard (k.reinhard@micromata.de)
+ * @see ExtendedDatabaseExecutor#query(String, DatabaseResultRowHandler, Object...)
+ */
+public interface DatabaseResultRowHandler
+{
+  /**
+   * @param row The current row. Should not be stored by the handler (the row isn't needed after returning from this method).
+   */
+  public void handleRow(DatabaseResultRow row);
+}
@@ -0,0 +1,80 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2014 Kai Reinhard (k.reinhard@micromata.de)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+package org.projectforge.continuousdb;
+
+import java.sql.Savepoint;
+
+/**
+ * A database executor using one pinned connection for all calls until the session is closed. Supports explicit transactions and
+ * savepoints. Sessions aren't thread safe.
+ * @author Kai Reinhard (k.reinhard@micromata.de)
+ * @see ExtendedDatabaseExecutor#openSession()
+ * @see DatabaseUpdateDao#doInTransaction(DatabaseSessionCallback)
+ */
+public interface DatabaseSession extends ExtendedDatabaseExecutor
+{
+  /**
+   * Switches auto commit off. All following statements are executed within one transaction until {@link #commit()} or {@link #rollback()}
+   * is called.
+   */
+  public void beginTransaction();
+
+  /**
+   * Commits the current transaction and switches auto commit on again.
+   */
+  public void commit();
+
+  /**
+   * Rolls the current transaction back and switches auto commit on again.
+   */
+  public void rollback();
+
+  public boolean isTransactionActive();
+
+  /**
+   * @param name
+   * @return The savepoint within the current transaction.
+   */
+  public Savepoint setSavepoint(String name);
+
+  public void rollback(Savepoint savepoint);
+
+  public void releaseSavepoint(Savepoint savepoint);
+
+  /**
+   * @return Number of executions using an already prepared statement of this session.
+   * @see ExtendedDatabaseExecutor#setStatementCacheSize(int)
+   */
+  public long getStatementCacheHits();
+
+  /**
+   * @return Number of statements prepared by this session.
+   */
+  public long getStatementCacheMisses();
+
+  /**
+   * Rolls back any active transaction and returns the connection.
+   */
+  public void close();
+}
@@ -211,6 +211,85 @@ public class DatabaseSupport
     return null;
   }
 
+  /**
+   * The query returns the names of all tables (and views) of the current schema within one catalog round trip (one column per row).
+   * @return The query or null if the dialect isn't supported. The caller should use the jdbc meta data in this case.
+   */
+  public String getQueryForAllTableNames()
+  {
+    if (dialect == DatabaseDialect.PostgreSQL) {
+      return "SELECT table_name FROM information_schema.tables WHERE table_schema = ANY (current_schemas(false));";
+    } else if (dialect == DatabaseDialect.HSQL) {
+      return "SELECT TABLE_NAME FROM INFORMATION_SCHEMA.SYSTEM_TABLES WHERE TABLE_TYPE IN ('TABLE', 'VIEW');";
+    }
+    return null;
+  }
+
+  /**
+   * The query returns the name and the type name of all columns of the given table (lower case table name as parameter).
+   * @return The query or null if the dialect isn't supported. The caller should use the jdbc meta data in this case.
+   */
+  public String getQueryForAllColumns()
+  {
+    if (dialect == DatabaseDialect.PostgreSQL) {
+      return "SELECT column_name, data_type FROM information_schema.columns WHERE LOWER(table_name) = ? AND table_schema = ANY (current_schemas(false));";
+    } else if (dialect == DatabaseDialect.HSQL) {
+      return "SELECT COLUMN_NAME, TYPE_NAME FROM INFORMATION_SCHEMA.SYSTEM_COLUMNS WHERE LOWER(TABLE_NAME) = ?;";
+    }
+    return null;
+  }
+
+  /**
+   * The query returns the names of all indices of the given table (lower case table name as parameter).
+   * @return The query or null if the dialect isn't supported. The caller should use the jdbc meta data in this case.
+   */
+  public String getQueryForAllIndexNames()
+  {
+    if (dialect == DatabaseDialect.PostgreSQL) {
+      return "SELECT indexname FROM pg_indexes WHERE LOWER(tablename) = ? AND schemaname = ANY (current_schemas(false));";
+    } else if (dialect == DatabaseDialect.HSQL) {
+      return "SELECT DISTINCT INDEX_NAME FROM INFORMATION_SCHEMA.SYSTEM_INDEXINFO WHERE LOWER(TABLE_NAME) = ?;";
+    }
+    return null;
+  }
+
+  /**
+   * Selects at most one row of the given table. Used e. g. for checking whether a table is empty or not without counting all rows (full
+   * table scan). HSQLDB 1.8 doesn't accept a LIMIT clause without ORDER BY, therefore TOP is used for Hypersonic.
+   * @param table
+   */
+  public String getQueryForAnyRow(final String table)
+  {
+    if (dialect == DatabaseDialect.HSQL) {
+      return "SELECT TOP 1 1 FROM " + table;
+    }
+    return "SELECT 1 FROM " + table + getLimitClause(1);
+  }
+
+  /**
+   * PostgreSQL as well as HSQLDB (since 1.8, only after an ORDER BY clause) support the LIMIT clause at the end of a select statement.
+   * @param limit
+   * @return " LIMIT &lt;limit&gt;"
+   */
+  public String getLimitClause(final int limit)
+  {
+    return " LIMIT " + limit;
+  }
+
+  /**
+   * Timestamp arithmetic inside the database, used e. g. for computing a lease in one single update statement. HSQLDB 1.8 doesn't support
+   * interval arithmetic, therefore the caller has to select the current timestamp of the database and add the milliseconds itself.
+   * @param millis
+   * @return "current_timestamp + interval '&lt;millis&gt; milliseconds'" or null if not supported by the used database.
+   */
+  public String getCurrentTimestampPlusMillis(final long millis)
+  {
+    if (dialect == DatabaseDialect.PostgreSQL) {
+      return "current_timestamp + interval '" + millis + " milliseconds'";
+    }
+    return null;
+  }
+
   public String getQueryForAllUniqueConstraintNames()
   {
     if (dialect == DatabaseDialect.PostgreSQL) {
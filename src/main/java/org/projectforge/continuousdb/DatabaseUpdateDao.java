@@ -23,12 +23,22 @@
 
 package org.projectforge.continuousdb;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 
 import javax.persistence.Column;
 import javax.persistence.UniqueConstraint;
@@ -47,11 +57,48 @@ public class DatabaseUpdateDao
 {
   private static final org.projectforge.common.Logger log = org.projectforge.common.Logger.getLogger(DatabaseUpdateDao.class);
 
+  /**
+   * Stores the progress of resumable migrations.
+   * @see ColumnMigration#setMigrationId(String)
+   */
+  public static final String MIGRATION_CHECKPOINT_TABLE = "t_database_migration_checkpoint";
+
+  /**
+   * Each successfully executed update entry is recorded in this table.
+   */
+  public static final String UPDATE_LEDGER_TABLE = "t_database_update";
+
+  private static final String UPDATE_LEDGER_EXECUTION_TIME = "execution_time";
+
+  /**
+   * Single row table containing the fingerprints of the entity model and the update versions of the last successful update check.
+   * @see SchemaFingerprint
+   */
+  public static final String SCHEMA_FINGERPRINT_TABLE = "t_database_schema_fingerprint";
+
+  /**
+   * Lease rows of the cluster update lock (not used for PostgreSQL).
+   * @see ClusterUpdateLock
+   */
+  public static final String UPDATE_LOCK_TABLE = "t_database_update_lock";
+
+  /**
+   * Statements starting with these keywords don't modify the schema, see {@link #execute(String, boolean)}.
+   */
+  private static final String[] DATA_MANIPULATION_KEYWORDS = { "select", "insert", "update", "delete", "merge"};
+
   private final UpdaterConfiguration configuration;
 
+  private final SchemaSnapshot schemaSnapshot;
+
+  private volatile Set<String> updateLedger;
+
+  private final ThreadLocal<DatabaseSession> boundSession = new ThreadLocal<DatabaseSession>();
+
   public DatabaseUpdateDao(final UpdaterConfiguration configuration)
   {
     this.configuration = configuration;
+    this.schemaSnapshot = new SchemaSnapshot(this);
   }
 
   public DatabaseDialect getDialect()
@@ -59,21 +106,182 @@ public class DatabaseUpdateDao
     return this.configuration.getDialect();
   }
 
-  private DatabaseSupport getDatabaseSupport()
+  public UpdaterConfiguration getConfiguration()
+  {
+    return configuration;
+  }
+
+  DatabaseSupport getDatabaseSupport()
   {
     return configuration.getDatabaseSupport();
   }
 
+  /**
+   * @return The session bound to the current thread (inside {@link #doInSession(DatabaseSessionCallback)}) if exists, otherwise the
+   *         configured executor.
+   */
   private DatabaseExecutor getDatabaseExecutor()
   {
+    final DatabaseSession session = boundSession.get();
+    if (session != null) {
+      return session;
+    }
     return configuration.getDatabaseExecutor();
   }
 
+  /**
+   * @return A new session of the configured executor (not bound to the current thread). The caller has to close the session.
+   * @throws UnsupportedOperationException if the configured executor doesn't implement {@link ExtendedDatabaseExecutor}.
+   */
+  DatabaseSession openSession()
+  {
+    return toExtendedDatabaseExecutor(configuration.getDatabaseExecutor()).openSession();
+  }
+
+  /**
+   * @return The executor of {@link #getDatabaseExecutor()} if it supports the extended operations (sessions, streaming, batches etc.).
+   * @throws UnsupportedOperationException if the configured executor doesn't implement {@link ExtendedDatabaseExecutor}.
+   */
+  private ExtendedDatabaseExecutor getExtendedDatabaseExecutor()
+  {
+    return toExtendedDatabaseExecutor(getDatabaseExecutor());
+  }
+
+  private ExtendedDatabaseExecutor toExtendedDatabaseExecutor(final DatabaseExecutor executor)
+  {
+    if (executor instanceof ExtendedDatabaseExecutor == false) {
+      throw new UnsupportedOperationException("The configured database executor '"
+          + executor.getClass().getName()
+          + "' doesn't implement "
+          + ExtendedDatabaseExecutor.class.getName()
+          + ".");
+    }
+    return (ExtendedDatabaseExecutor) executor;
+  }
+
+  /**
+   * Used for reading the catalog and the tables of the updater, so plain {@link DatabaseExecutor} implementations are supported as well.
+   * @return The values of the result rows.
+   */
+  private List<Object[]> queryForRows(final String sql, final Object... args)
+  {
+    final DatabaseExecutor jdbc = getDatabaseExecutor();
+    if (jdbc instanceof ExtendedDatabaseExecutor) {
+      return ((ExtendedDatabaseExecutor) jdbc).query(sql, RowMappers.objectArray(), args);
+    }
+    final List<Object[]> rows = new ArrayList<Object[]>();
+    final List<DatabaseResultRow> result = jdbc.query(sql, args);
+    if (result != null) {
+      for (final DatabaseResultRow row : result) {
+        final List<DatabaseResultRowEntry> entries = row.getEntries();
+        final Object[] values = new Object[entries.size()];
+        for (int i = 0; i < values.length; i++) {
+          values[i] = entries.get(i).getValue();
+        }
+        rows.add(values);
+      }
+    }
+    return rows;
+  }
+
+  /**
+   * Opens a session (one pinned connection) and binds it to the current thread for the duration of the callback: all methods of this dao
+   * called by the current thread within the callback use this session. Nested calls use the already bound session.
+   * @param callback
+   * @return The result of the callback.
+   */
+  public <T> T doInSession(final DatabaseSessionCallback<T> callback)
+  {
+    final DatabaseSession current = boundSession.get();
+    if (current != null) {
+      return callback.doInSession(current);
+    }
+    final DatabaseSession session = openSession();
+    boundSession.set(session);
+    try {
+      return callback.doInSession(session);
+    } finally {
+      boundSession.remove();
+      session.close();
+    }
+  }
+
+  /**
+   * Runs the callback within one session and one transaction (see {@link #doInSession(DatabaseSessionCallback)}). The transaction is
+   * committed after the callback returns and rolled back if the callback throws an exception. If a transaction is already active, the
+   * callback joins this transaction. <br/>
+   * Example for running a whole migration step within UpdateEntry.runUpdate():
+   * 
+   * <pre>
+   * return databaseUpdateDao.doInTransaction(new DatabaseSessionCallback&lt;UpdateRunningStatus&gt;() {
+   *   public UpdateRunningStatus doInSession(final DatabaseSession session)
+   *   {
+   *     databaseUpdateDao.update(&quot;update t_address set deleted=? where deleted is null&quot;, false);
+   *     ...
+   *     return UpdateRunningStatus.DONE;
+   *   }
+   * });
+   * </pre>
+   * @param callback
+   * @return The result of the callback.
+   */
+  public <T> T doInTransaction(final DatabaseSessionCallback<T> callback)
+  {
+    return doInSession(new DatabaseSessionCallback<T>() {
+      @Override
+      public T doInSession(final DatabaseSession session)
+      {
+        if (session.isTransactionActive() == true) {
+          return callback.doInSession(session);
+        }
+        session.beginTransaction();
+        boolean committed = false;
+        try {
+          final T result = callback.doInSession(session);
+          session.commit();
+          committed = true;
+          return result;
+        } finally {
+          if (committed == false) {
+            session.rollback();
+            // Schema modifications of the transaction are rolled back (if supported by the database):
+            schemaSnapshot.invalidate();
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * @return true if the current thread runs within a transaction of {@link #doInTransaction(DatabaseSessionCallback)}.
+   */
+  public boolean isTransactionActive()
+  {
+    final DatabaseSession session = boundSession.get();
+    return session != null && session.isTransactionActive() == true;
+  }
+
   protected DataSource getDataSource()
   {
     return configuration.getDatabaseExecutor().getDataSource();
   }
 
+  /**
+   * @return The cached catalog used by all existence checks of this dao.
+   */
+  public SchemaSnapshot getSchemaSnapshot()
+  {
+    return schemaSnapshot;
+  }
+
+  /**
+   * Forces the reload of the catalog. Should be called if the schema is modified without using this dao.
+   */
+  public void invalidateSchemaSnapshot()
+  {
+    schemaSnapshot.invalidate();
+  }
+
   /**
    * Does nothing at default. Override this method for checking the access of the user, e. g. only admin user's should be able to manipulate
    * the database.
@@ -90,26 +298,34 @@ public class DatabaseUpdateDao
     return internalDoesTableExist(table);
   }
 
+  /**
+   * All tables are checked with one single catalog query.
+   * @param entities
+   * @return false if at least one table of the given entities doesn't exist, otherwise true.
+   */
   public boolean doEntitiesExist(final Class< ? >... entities)
   {
     accessCheck(false);
-    for (final Class< ? > entity : entities) {
-      if (internalDoesTableExist(new Table(entity).getName()) == false) {
-        return false;
-      }
+    final String[] tableNames = new String[entities.length];
+    for (int i = 0; i < entities.length; i++) {
+      tableNames[i] = EntityMetadata.getInstance(entities[i]).getTableName();
     }
-    return true;
+    return internalDoTablesExist(tableNames);
   }
 
+  /**
+   * All tables are checked with one single catalog query.
+   * @param tables
+   * @return false if at least one of the given tables doesn't exist, otherwise true.
+   */
   public boolean doExist(final Table... tables)
   {
     accessCheck(false);
-    for (final Table table : tables) {
-      if (internalDoesTableExist(table.getName()) == false) {
-        return false;
-      }
+    final String[] tableNames = new String[tables.length];
+    for (int i = 0; i < tables.length; i++) {
+      tableNames[i] = tables[i].getName();
     }
-    return true;
+    return internalDoTablesExist(tableNames);
   }
 
   /**
@@ -119,30 +335,122 @@ public class DatabaseUpdateDao
    */
   public boolean internalDoesTableExist(final String table)
   {
-    /*
-     * try { final ResultSet resultSet = dataSource.getConnection().getMetaData().getTables(CATALOG, SCHEMA_PATTERN, table, new String[] {
-     * TABLE_TYPE}); return resultSet.next(); } catch (final SQLException ex) { log.error(ex.getMessage(), ex); throw new
-     * InternalErrorException(ex.getMessage()); }
-     */
-    final DatabaseExecutor jdbc = getDatabaseExecutor();
-    try {
-      jdbc.queryForInt("SELECT COUNT(*) FROM " + table);
-    } catch (final Exception ex) {
-      return false;
+    return internalDoTablesExist(table);
+  }
+
+  /**
+   * Without check access. The table names are read by one single catalog query (no table is scanned).
+   * @param tables
+   * @return false if at least one of the given tables doesn't exist, otherwise true.
+   * @see SchemaSnapshot#doesTableExist(String)
+   */
+  public boolean internalDoTablesExist(final String... tables)
+  {
+    for (final String table : tables) {
+      if (schemaSnapshot.doesTableExist(table) == false) {
+        return false;
+      }
     }
     return true;
   }
 
+  /**
+   * Reads the names of all existing tables with one catalog round trip. The dialect specific catalog query is used if available, otherwise
+   * the table names are read from the jdbc meta data.
+   * @return The lower case names of all existing tables.
+   * @see DatabaseSupport#getQueryForAllTableNames()
+   */
+  protected Set<String> loadTableNames()
+  {
+    final Set<String> tables = new HashSet<String>();
+    final String sql = getDatabaseSupport().getQueryForAllTableNames();
+    if (sql != null) {
+      for (final Object[] row : queryForRows(sql)) {
+        if (row[0] != null) {
+          tables.add(String.valueOf(row[0]).toLowerCase());
+        }
+      }
+      return tables;
+    }
+    Connection con = null;
+    ResultSet rs = null;
+    try {
+      con = getDataSource().getConnection();
+      rs = con.getMetaData().getTables(null, null, "%", new String[] { "TABLE", "VIEW"});
+      while (rs.next() == true) {
+        tables.add(rs.getString("TABLE_NAME").toLowerCase());
+      }
+      return tables;
+    } catch (final SQLException ex) {
+      log.error(ex.getMessage(), ex);
+      throw new RuntimeException(ex);
+    } finally {
+      close(rs, con);
+    }
+  }
+
+  /**
+   * The columns of the table are read by one catalog query (no table scan).
+   * @param table
+   * @param attribute
+   * @return true if the table and the column exist.
+   * @see SchemaSnapshot#doesColumnExist(String, String)
+   */
   public boolean doesTableAttributeExist(final String table, final String attribute)
   {
     accessCheck(false);
-    final DatabaseExecutor jdbc = getDatabaseExecutor();
+    return schemaSnapshot.doesColumnExist(table, attribute);
+  }
+
+  /**
+   * Reads all columns of the given table with one catalog round trip. The dialect specific catalog query is used if available, otherwise
+   * the columns are read from the jdbc meta data.
+   * @param table
+   * @return The lower case names of all existing columns mapped to the database type names. The map is empty if the table doesn't exist.
+   * @see DatabaseSupport#getQueryForAllColumns()
+   */
+  protected Map<String, String> loadColumns(final String table)
+  {
+    final Map<String, String> columns = new HashMap<String, String>();
+    final String sql = getDatabaseSupport().getQueryForAllColumns();
+    if (sql != null) {
+      final List<Object[]> rows = queryForRows(sql, table.toLowerCase());
+      for (final Object[] row : rows) {
+        final Object name = row[0];
+        if (name != null) {
+          final Object type = row[1];
+          columns.put(String.valueOf(name).toLowerCase(), type != null ? String.valueOf(type) : null);
+        }
+      }
+      return columns;
+    }
+    Connection con = null;
+    ResultSet rs = null;
     try {
-      jdbc.queryForInt("SELECT COUNT(" + attribute + ") FROM " + table);
-    } catch (final Exception ex) {
-      return false;
+      con = getDataSource().getConnection();
+      // The case of the stored table names depends on the database:
+      for (final String tableName : new String[] { table, table.toUpperCase(), table.toLowerCase()}) {
+        rs = con.getMetaData().getColumns(null, null, tableName, "%");
+        while (rs.next() == true) {
+          if (table.equalsIgnoreCase(rs.getString("TABLE_NAME")) == false) {
+            // '_' is a wildcard in meta data patterns.
+            continue;
+          }
+          columns.put(rs.getString("COLUMN_NAME").toLowerCase(), rs.getString("TYPE_NAME"));
+        }
+        rs.close();
+        rs = null;
+        if (columns.isEmpty() == false) {
+          break;
+        }
+      }
+      return columns;
+    } catch (final SQLException ex) {
+      log.error(ex.getMessage(), ex);
+      throw new RuntimeException(ex);
+    } finally {
+      close(rs, con);
     }
-    return true;
   }
 
   /**
@@ -166,13 +474,14 @@ public class DatabaseUpdateDao
   public boolean doTableAttributesExist(final Table table, final String... properties)
   {
     accessCheck(false);
+    final Map<String, String> columns = schemaSnapshot.getColumns(table.getName());
     for (final String property : properties) {
       final TableAttribute attr = TableAttribute.createTableAttribute(table.getEntityClass(), property);
       if (attr == null) {
         // Transient or getter method not found.
         return false;
       }
-      if (doesTableAttributeExist(table.getName(), attr.getName()) == false) {
+      if (columns.containsKey(attr.getName().toLowerCase()) == false) {
         return false;
       }
     }
@@ -185,11 +494,18 @@ public class DatabaseUpdateDao
     return internalIsTableEmpty(table);
   }
 
+  /**
+   * Selects at most one row of the given table instead of counting all rows.
+   * @param table
+   * @return true if the table has no rows, false if the table has rows or doesn't exist.
+   * @see DatabaseSupport#getQueryForAnyRow(String)
+   */
   public boolean internalIsTableEmpty(final String table)
   {
     final DatabaseExecutor jdbc = getDatabaseExecutor();
     try {
-      return jdbc.queryForInt("SELECT COUNT(*) FROM " + table) == 0;
+      final List<DatabaseResultRow> rows = jdbc.query(getDatabaseSupport().getQueryForAnyRow(table));
+      return rows == null || rows.size() == 0;
     } catch (final Exception ex) {
       return false;
     }
@@ -211,7 +527,10 @@ public class DatabaseUpdateDao
       log.warn("Could not drop table '" + table + "' because the table is not empty.");
       return false;
     }
-    execute("DROP TABLE " + table);
+    if (internalExecute("DROP TABLE " + table, true) == false) {
+      return false;
+    }
+    schemaSnapshot.tableDropped(table);
     return true;
   }
 
@@ -223,7 +542,10 @@ public class DatabaseUpdateDao
   public boolean dropTableAttribute(final String table, final String attribute)
   {
     accessCheck(true);
-    execute("ALTER TABLE " + table + " DROP COLUMN " + attribute);
+    if (internalExecute("ALTER TABLE " + table + " DROP COLUMN " + attribute, true) == false) {
+      return false;
+    }
+    schemaSnapshot.columnsModified(table);
     return true;
   }
 
@@ -236,11 +558,23 @@ public class DatabaseUpdateDao
   public boolean alterTableColumnVarCharLength(final String table, final String attribute, final int length)
   {
     accessCheck(true);
-    execute(getDatabaseSupport().alterTableColumnVarCharLength(table, attribute, length), false);
+    internalExecute(getDatabaseSupport().alterTableColumnVarCharLength(table, attribute, length), false);
+    schemaSnapshot.columnsModified(table);
     return true;
   }
 
   public void buildCreateTableStatement(final StringBuffer buf, final Table table)
+  {
+    buildCreateTableStatement(buf, table, true);
+  }
+
+  /**
+   * @param buf
+   * @param table
+   * @param withForeignKeys If false, no foreign key constraints are created (please use {@link #addForeignKeyConstraints(Table)} after
+   *          creation of all referenced tables).
+   */
+  public void buildCreateTableStatement(final StringBuffer buf, final Table table, final boolean withForeignKeys)
   {
     buf.append("CREATE TABLE " + table.getName() + " (\n");
     boolean first = true;
@@ -263,34 +597,50 @@ public class DatabaseUpdateDao
     }
     // Create foreign keys if exist
     for (final TableAttribute attr : table.getAttributes()) {
-      if (StringUtils.isNotEmpty(attr.getForeignTable()) == true) {
+      if (withForeignKeys == true && StringUtils.isNotEmpty(attr.getForeignTable()) == true) {
         // foreign key (user_fk) references t_pf_user(pk)
         buf.append(",\n  FOREIGN KEY (").append(attr.getName()).append(") REFERENCES ").append(attr.getForeignTable()).append("(")
         .append(attr.getForeignAttribute()).append(")");
       }
     }
+    for (final String[] columnNames : getUniqueColumnNames(table)) {
+      buf.append(",\n  UNIQUE (");
+      String separator = "";
+      for (final String columnName : columnNames) {
+        buf.append(separator).append(columnName);
+        separator = ",";
+      }
+      buf.append(")");
+    }
+    buf.append("\n);\n");
+  }
+
+  /**
+   * The columns of the unique constraints of the table annotation and of the unique attributes (e. g. Column(unique = true)). Duplicates
+   * (e. g. a unique attribute also declared as unique constraint of the table) are returned only once, because some databases (e. g.
+   * HSQLDB) refuse equal constraints.
+   * @param table
+   * @return The column names of every unique constraint.
+   */
+  private List<String[]> getUniqueColumnNames(final Table table)
+  {
+    final List<String[]> result = new ArrayList<String[]>();
+    final Set<String> keys = new HashSet<String>();
     final UniqueConstraint[] uniqueConstraints = table.getUniqueConstraints();
-    if (uniqueConstraints != null && uniqueConstraints.length > 0) {
+    if (uniqueConstraints != null) {
       for (final UniqueConstraint uniqueConstraint : uniqueConstraints) {
         final String[] columnNames = uniqueConstraint.columnNames();
-        if (columnNames.length > 0) {
-          buf.append(",\n  UNIQUE (");
-          String separator = "";
-          for (final String columnName : columnNames) {
-            buf.append(separator).append(columnName);
-            separator = ",";
-          }
-          buf.append(")");
+        if (columnNames.length > 0 && keys.add(StringHelper.listToString(",", columnNames).toLowerCase()) == true) {
+          result.add(columnNames);
         }
       }
     }
     for (final TableAttribute attr : table.getAttributes()) {
-      if (attr.isUnique() == false) {
-        continue;
+      if (attr.isUnique() == true && keys.add(attr.getName().toLowerCase()) == true) {
+        result.add(new String[] { attr.getName()});
       }
-      buf.append(",\n  UNIQUE (").append(attr.getName()).append(")");
     }
-    buf.append("\n);\n");
+    return result;
   }
 
   private void buildAttribute(final StringBuffer buf, final TableAttribute attr)
@@ -321,14 +671,47 @@ public class DatabaseUpdateDao
     // }
   }
 
+  /**
+   * @param table
+   * @param attr
+   * @return The name of the foreign key constraint of the given attribute: &lt;table&gt;_&lt;column&gt;.
+   */
+  public String getForeignKeyConstraintName(final String table, final TableAttribute attr)
+  {
+    return table + "_" + attr.getName();
+  }
+
   public void buildForeignKeyConstraint(final StringBuffer buf, final String table, final TableAttribute attr)
   {
-    buf.append("ALTER TABLE ").append(table).append(" ADD CONSTRAINT ").append(table).append("_").append(attr.getName())
+    buf.append("ALTER TABLE ").append(table).append(" ADD CONSTRAINT ").append(getForeignKeyConstraintName(table, attr))
     .append(" FOREIGN KEY (").append(attr.getName()).append(") REFERENCES ").append(attr.getForeignTable()).append("(")
     .append(attr.getForeignAttribute()).append(");\n");
   }
 
   public boolean createTable(final Table table)
+  {
+    return createTable(table, true);
+  }
+
+  /**
+   * @param table
+   * @param withForeignKeys If false, the foreign key constraints have to be added after creation of all referenced tables via
+   *          {@link #addForeignKeyConstraints(Table)}.
+   * @return false if the table does already exist or the creation failed, otherwise true.
+   */
+  public boolean createTable(final Table table, final boolean withForeignKeys)
+  {
+    return createTable(table, withForeignKeys, true);
+  }
+
+  /**
+   * @param table
+   * @param withForeignKeys
+   * @param ignoreErrors If false, a failing create statement results in an exception.
+   * @return false if the table does already exist or the creation failed, otherwise true.
+   * @see #createTable(Table, boolean)
+   */
+  public boolean createTable(final Table table, final boolean withForeignKeys, final boolean ignoreErrors)
   {
     accessCheck(true);
     if (doExist(table) == true) {
@@ -336,25 +719,134 @@ public class DatabaseUpdateDao
       return false;
     }
     final StringBuffer buf = new StringBuffer();
-    buildCreateTableStatement(buf, table);
-    execute(buf.toString());
+    buildCreateTableStatement(buf, table, withForeignKeys);
+    if (internalExecute(buf.toString(), ignoreErrors) == false) {
+      return false;
+    }
+    schemaSnapshot.tableCreated(table.getName());
     return true;
   }
 
+  /**
+   * Adds the foreign key constraints of all attributes with foreign tables (for tables created without foreign keys).
+   * @param table
+   * @see #createTable(Table, boolean)
+   * @see #buildForeignKeyConstraint(StringBuffer, String, TableAttribute)
+   */
+  public void addForeignKeyConstraints(final Table table)
+  {
+    addForeignKeyConstraints(table, true);
+  }
+
+  /**
+   * @param table
+   * @param ignoreErrors If false, the first failing constraint results in an exception.
+   * @see #addForeignKeyConstraints(Table)
+   */
+  public void addForeignKeyConstraints(final Table table, final boolean ignoreErrors)
+  {
+    accessCheck(true);
+    for (final TableAttribute attr : table.getAttributes()) {
+      if (StringUtils.isNotEmpty(attr.getForeignTable()) == false) {
+        continue;
+      }
+      final StringBuffer buf = new StringBuffer();
+      buildForeignKeyConstraint(buf, table.getName(), attr);
+      internalExecute(buf.toString(), ignoreErrors);
+    }
+    schemaSnapshot.foreignKeysModified(table.getName());
+  }
+
+  /**
+   * Adds the foreign key constraints of the given table which don't already exist, e. g. for retrying after partially failed
+   * {@link #addForeignKeyConstraints(Table, boolean)}.
+   * @param table
+   * @return Number of added constraints.
+   * @throws RuntimeException if any constraint can't be added.
+   */
+  public int addMissingForeignKeyConstraints(final Table table)
+  {
+    accessCheck(true);
+    int counter = 0;
+    for (final TableAttribute attr : table.getAttributes()) {
+      if (StringUtils.isNotEmpty(attr.getForeignTable()) == false) {
+        continue;
+      }
+      final String name = getForeignKeyConstraintName(table.getName(), attr);
+      if (schemaSnapshot.doesForeignKeyExist(table.getName(), name) == true) {
+        continue;
+      }
+      final StringBuffer buf = new StringBuffer();
+      buildForeignKeyConstraint(buf, table.getName(), attr);
+      internalExecute(buf.toString(), false);
+      schemaSnapshot.foreignKeyCreated(table.getName(), name);
+      counter++;
+    }
+    return counter;
+  }
+
+  /**
+   * @param table
+   * @param column
+   * @return The name of the index of the given foreign key column: idx_fk_&lt;table&gt;_&lt;column&gt;.
+   */
+  public String getForeignKeyIndexName(final String table, final String column)
+  {
+    return "idx_fk_" + table + "_" + column;
+  }
+
+  /**
+   * Creates the missing indices of all foreign key columns of the given table. The index names are the same as of
+   * {@link #createMissingIndices()}, but the given table is used instead of the database catalog.
+   * @param table
+   * @return Number of successful created database indices.
+   */
+  public int createForeignKeyIndices(final Table table)
+  {
+    accessCheck(true);
+    int counter = 0;
+    final String tableName = table.getName().toLowerCase();
+    for (final TableAttribute attr : table.getAttributes()) {
+      if (StringUtils.isNotEmpty(attr.getForeignTable()) == false) {
+        continue;
+      }
+      final String column = attr.getName().toLowerCase();
+      if (createIndex(getForeignKeyIndexName(tableName, column), tableName, column) == true) {
+        counter++;
+      }
+    }
+    return counter;
+  }
+
   public boolean createSequence(final String name, final boolean ignoreErrors)
   {
     accessCheck(true);
     final String sql = getDatabaseSupport().createSequence(name);
     if (sql != null) {
-      execute(sql, ignoreErrors);
+      // Sequences aren't part of the schema snapshot:
+      return internalExecute(sql, ignoreErrors);
     }
     return true;
   }
 
   public void buildAddTableAttributesStatement(final StringBuffer buf, final String table, final TableAttribute... attributes)
+  {
+    buildAddTableAttributesStatement(buf, table, schemaSnapshot.getColumns(table), attributes);
+  }
+
+  /**
+   * Builds the statements without any database access.
+   * @param buf
+   * @param table
+   * @param existingColumns The existing columns of the table (lower case names as keys), statements of existing columns are commented out.
+   * @param attributes
+   * @see SchemaSnapshot#getColumns(String)
+   */
+  public void buildAddTableAttributesStatement(final StringBuffer buf, final String table, final Map<String, String> existingColumns,
+      final TableAttribute... attributes)
   {
     for (final TableAttribute attr : attributes) {
-      if (doesTableAttributeExist(table, attr.getName()) == true) {
+      if (existingColumns.containsKey(attr.getName().toLowerCase()) == true) {
         buf.append("-- Does already exist: ");
       }
       buf.append("ALTER TABLE ").append(table).append(" ADD COLUMN ");
@@ -363,7 +855,7 @@ public class DatabaseUpdateDao
     }
     for (final TableAttribute attr : attributes) {
       if (attr.getForeignTable() != null) {
-        if (doesTableAttributeExist(table, attr.getName()) == true) {
+        if (existingColumns.containsKey(attr.getName().toLowerCase()) == true) {
           buf.append("-- Column does already exist: ");
         }
         buildForeignKeyConstraint(buf, table, attr);
@@ -411,7 +903,10 @@ public class DatabaseUpdateDao
   {
     final StringBuffer buf = new StringBuffer();
     buildAddTableAttributesStatement(buf, table, attributes);
-    execute(buf.toString());
+    if (internalExecute(buf.toString(), true) == false) {
+      return false;
+    }
+    schemaSnapshot.columnsModified(table);
     return true;
   }
 
@@ -424,7 +919,10 @@ public class DatabaseUpdateDao
   {
     final StringBuffer buf = new StringBuffer();
     buildAddTableAttributesStatement(buf, table, attributes);
-    execute(buf.toString());
+    if (internalExecute(buf.toString(), true) == false) {
+      return false;
+    }
+    schemaSnapshot.columnsModified(table);
     return true;
   }
 
@@ -444,7 +942,10 @@ public class DatabaseUpdateDao
   public boolean renameTableAttribute(final String table, final String oldName, final String newName)
   {
     final String alterStatement = getDatabaseSupport().renameAttribute(table, oldName, newName);
-    execute(alterStatement);
+    if (internalExecute(alterStatement, true) == false) {
+      return false;
+    }
+    schemaSnapshot.columnsModified(table);
     return true;
   }
 
@@ -453,7 +954,10 @@ public class DatabaseUpdateDao
     accessCheck(true);
     final StringBuffer buf = new StringBuffer();
     buildAddUniqueConstraintStatement(buf, table, constraintName, attributes);
-    execute(buf.toString());
+    if (internalExecute(buf.toString(), true) == false) {
+      return false;
+    }
+    schemaSnapshot.constraintsModified(table);
     return true;
   }
 
@@ -464,30 +968,14 @@ public class DatabaseUpdateDao
     final String[] uniqueConstraintNames = getAllUniqueConstraintNames(table.getName());
     if (uniqueConstraintNames != null) {
       for (final String uniqueConstraintName : uniqueConstraintNames) {
-        execute("ALTER TABLE " + table.getName() + " DROP CONSTRAINT " + uniqueConstraintName);
+        internalExecute("ALTER TABLE " + table.getName() + " DROP CONSTRAINT " + uniqueConstraintName, true);
       }
+      schemaSnapshot.constraintsModified(table.getName());
     } else {
       log.info("No unique constraints found for table '" + table.getName() + "'.");
     }
-    final UniqueConstraint[] uniqueConstraints = table.getUniqueConstraints();
     final List<String> existingConstraintNames = new LinkedList<String>();
-    if (uniqueConstraints != null && uniqueConstraints.length > 0) {
-      for (final UniqueConstraint uniqueConstraint : uniqueConstraints) {
-        final String[] columnNames = uniqueConstraint.columnNames();
-        if (columnNames.length > 0) {
-          final String constraintName = createUniqueConstraintName(table.getName(), columnNames,
-              existingConstraintNames.toArray(new String[0]));
-          addUniqueConstraint(table.getName(), constraintName, columnNames);
-          existingConstraintNames.add(constraintName);
-        }
-      }
-    }
-    for (final TableAttribute attr : table.getAttributes()) {
-      if (attr.isUnique() == false) {
-        continue;
-      }
-      final String[] columnNames = new String[1];
-      columnNames[0] = attr.getName();
+    for (final String[] columnNames : getUniqueColumnNames(table)) {
       final String constraintName = createUniqueConstraintName(table.getName(), columnNames, existingConstraintNames.toArray(new String[0]));
       addUniqueConstraint(table.getName(), constraintName, columnNames);
       existingConstraintNames.add(constraintName);
@@ -532,7 +1020,22 @@ public class DatabaseUpdateDao
     throw new UnsupportedOperationException(message);
   }
 
+  /**
+   * @param table
+   * @return The names of all unique constraints of the given table or null if no unique constraint exists.
+   * @see SchemaSnapshot#getUniqueConstraintNames(String)
+   */
   public String[] getAllUniqueConstraintNames(final String table)
+  {
+    return schemaSnapshot.getUniqueConstraintNames(table);
+  }
+
+  /**
+   * Reads the names of all unique constraints of the given table from the catalog.
+   * @param table
+   * @return The names or null if no unique constraint exists.
+   */
+  protected String[] loadUniqueConstraintNames(final String table)
   {
     final String uniqueConstraintNamesSql = getDatabaseSupport().getQueryForAllUniqueConstraintNames();
     final DatabaseExecutor jdbc = getDatabaseExecutor();
@@ -561,6 +1064,88 @@ public class DatabaseUpdateDao
     return names;
   }
 
+  /**
+   * Reads the names of all indices of the given table with one catalog round trip.
+   * @param table
+   * @return The lower case index names.
+   * @see DatabaseSupport#getQueryForAllIndexNames()
+   */
+  protected Set<String> loadIndexNames(final String table)
+  {
+    final Set<String> indices = new HashSet<String>();
+    final String sql = getDatabaseSupport().getQueryForAllIndexNames();
+    if (sql != null) {
+      for (final Object[] row : queryForRows(sql, table.toLowerCase())) {
+        if (row[0] != null) {
+          indices.add(String.valueOf(row[0]).toLowerCase());
+        }
+      }
+      return indices;
+    }
+    Connection con = null;
+    ResultSet rs = null;
+    try {
+      con = getDataSource().getConnection();
+      // The case of the stored table names depends on the database:
+      for (final String tableName : new String[] { table, table.toUpperCase(), table.toLowerCase()}) {
+        rs = con.getMetaData().getIndexInfo(null, null, tableName, false, true);
+        while (rs.next() == true) {
+          final String name = rs.getString("INDEX_NAME");
+          if (name != null) {
+            indices.add(name.toLowerCase());
+          }
+        }
+        rs.close();
+        rs = null;
+        if (indices.isEmpty() == false) {
+          break;
+        }
+      }
+      return indices;
+    } catch (final SQLException ex) {
+      log.error(ex.getMessage(), ex);
+      throw new RuntimeException(ex);
+    } finally {
+      close(rs, con);
+    }
+  }
+
+  /**
+   * Reads the names of all foreign key constraints of the given table from the catalog.
+   * @param table
+   * @return The lower case constraint names.
+   */
+  protected Set<String> loadForeignKeyNames(final String table)
+  {
+    final Set<String> names = new HashSet<String>();
+    Connection con = null;
+    ResultSet rs = null;
+    try {
+      con = getDataSource().getConnection();
+      // The case of the stored table names depends on the database:
+      for (final String tableName : new String[] { table, table.toUpperCase(), table.toLowerCase()}) {
+        rs = con.getMetaData().getImportedKeys(null, null, tableName);
+        while (rs.next() == true) {
+          final String name = rs.getString("FK_NAME");
+          if (name != null) {
+            names.add(name.toLowerCase());
+          }
+        }
+        rs.close();
+        rs = null;
+        if (names.isEmpty() == false) {
+          break;
+        }
+      }
+      return names;
+    } catch (final SQLException ex) {
+      log.error(ex.getMessage(), ex);
+      throw new RuntimeException(ex);
+    } finally {
+      close(rs, con);
+    }
+  }
+
   /**
    * Creates missing database indices of tables starting with 't_'.
    * @return Number of successful created database indices.
@@ -578,7 +1163,7 @@ public class DatabaseUpdateDao
         final String fkCol = reference.getString("FKCOLUMN_NAME");
         if (fkTable.startsWith("t_") == true) {
           // Table of ProjectForge
-          if (createIndex("idx_fk_" + fkTable + "_" + fkCol, fkTable, fkCol) == true) {
+          if (createIndex(getForeignKeyIndexName(fkTable, fkCol), fkTable, fkCol) == true) {
             counter++;
           }
         }
@@ -590,49 +1175,397 @@ public class DatabaseUpdateDao
   }
 
   /**
-   * You may implement this method to write update entries e. g. in a database table.
+   * Creates the update ledger table if not exist.
+   * @see #UPDATE_LEDGER_TABLE
+   */
+  public synchronized void createUpdateLedgerTableIfNotExist()
+  {
+    if (doesTableExist(UPDATE_LEDGER_TABLE) == true) {
+      return;
+    }
+    final Table table = new Table(UPDATE_LEDGER_TABLE) //
+    .addAttribute(new TableAttribute("update_date", TableAttributeType.TIMESTAMP)) //
+    .addAttribute(new TableAttribute("region_id", TableAttributeType.VARCHAR, 1000)) //
+    .addAttribute(new TableAttribute("version", TableAttributeType.VARCHAR, 15)) //
+    .addAttribute(new TableAttribute("execution_result", TableAttributeType.VARCHAR, 1000)) //
+    .addAttribute(new TableAttribute("executed_by_user_fk", TableAttributeType.INT)) //
+    .addAttribute(new TableAttribute("description", TableAttributeType.VARCHAR, 4000)) //
+    .addAttribute(new TableAttribute(UPDATE_LEDGER_EXECUTION_TIME, TableAttributeType.LONG));
+    createTable(table);
+  }
+
+  /**
+   * Writes the successfully executed update entry to the update ledger (the table is created if not exist). The execution time is only
+   * written if the table has the column execution_time (tables created by older versions don't have it).
    * @param updateEntry
    */
   protected void writeUpdateEntryLog(final UpdateEntry updateEntry)
   {
-    // TODO
-    // final Table table = new Table(DatabaseUpdateDO.class);
-    // if (databaseUpdateDao.doesTableExist(table.getName()) == true) {
-    // databaseUpdateDao.insertInto(table.getName(), new String[] { "update_date", "region_id", "version", "execution_result",
-    // "executed_by_user_fk", "description"},
-    // new Object[] { new Date(), updateEntry.getRegionId(), String.valueOf(updateEntry.getVersion()), updateEntry.getRunningResult(),
-    // PFUserContext.getUserId(), updateEntry.getDescription()});
-    // } else {
-    // log.info("database table '" + table.getName() + "' doesn't (yet) exist. Can't register update (OK).");
-    // }
+    if (updateEntry.getRunningStatus() != UpdateRunningStatus.DONE) {
+      log.info("Update entry isn't written to the update ledger, because it wasn't executed successfully: " + updateEntry);
+      return;
+    }
+    createUpdateLedgerTableIfNotExist();
+    final String version = String.valueOf(updateEntry.getVersion());
+    final List<String> columns = new ArrayList<String>();
+    final List<Object> values = new ArrayList<Object>();
+    columns.add("update_date");
+    values.add(new Timestamp(System.currentTimeMillis()));
+    columns.add("region_id");
+    values.add(updateEntry.getRegionId());
+    columns.add("version");
+    values.add(version);
+    columns.add("execution_result");
+    values.add(StringUtils.abbreviate(updateEntry.getRunningResult(), 1000));
+    columns.add("executed_by_user_fk");
+    values.add(getExecutingUserId());
+    columns.add("description");
+    values.add(StringUtils.abbreviate(updateEntry.getDescription(), 4000));
+    if (schemaSnapshot.doesColumnExist(UPDATE_LEDGER_TABLE, UPDATE_LEDGER_EXECUTION_TIME) == true) {
+      columns.add(UPDATE_LEDGER_EXECUTION_TIME);
+      values.add(updateEntry.getRunningDuration());
+    }
+    insertInto(UPDATE_LEDGER_TABLE, columns.toArray(new String[columns.size()]), values.toArray());
+    final Set<String> ledger = updateLedger;
+    if (ledger != null) {
+      ledger.add(getLedgerKey(updateEntry.getRegionId(), version));
+    }
+  }
+
+  /**
+   * Null at default. Override this method for writing the id of the logged-in user to the update ledger.
+   * @return The value of the column executed_by_user_fk.
+   */
+  protected Integer getExecutingUserId()
+  {
+    return null;
+  }
+
+  /**
+   * Loads all (region id, version) pairs of the update ledger with one single query. The ledger is cached and used by
+   * {@link #isVersionUpdated(String, String)}.
+   */
+  public void loadUpdateLedger()
+  {
+    accessCheck(false);
+    final Set<String> ledger = Collections.synchronizedSet(new HashSet<String>());
+    if (doesTableExist(UPDATE_LEDGER_TABLE) == true) {
+      final List<Object[]> rows = queryForRows("select region_id, version from " + UPDATE_LEDGER_TABLE);
+      for (final Object[] row : rows) {
+        ledger.add(getLedgerKey((String) row[0], (String) row[1]));
+      }
+    }
+    log.info("Update ledger loaded: " + ledger.size() + " entries.");
+    updateLedger = ledger;
+  }
+
+  /**
+   * Creates the lock table and the row of the given lock if not exist. Concurrent creation by several nodes is tolerated.
+   * @param lockName
+   * @see ClusterUpdateLock
+   */
+  public synchronized void createUpdateLockTableIfNotExist(final String lockName)
+  {
+    if (doesTableExist(UPDATE_LOCK_TABLE) == false) {
+      createTable(new Table(UPDATE_LOCK_TABLE) //
+      .addAttribute(new TableAttribute("lock_name", TableAttributeType.VARCHAR, 100).setPrimaryKey(true)) //
+      .addAttribute(new TableAttribute("owner", TableAttributeType.VARCHAR, 255)) //
+      .addAttribute(new TableAttribute("lease_until", TableAttributeType.TIMESTAMP)));
+    }
+    if (getDatabaseExecutor().queryForInt("select count(*) from " + UPDATE_LOCK_TABLE + " where lock_name=?", lockName) == 0) {
+      try {
+        getDatabaseExecutor().update("insert into " + UPDATE_LOCK_TABLE + " (lock_name) values (?)", lockName);
+      } catch (final RuntimeException ex) {
+        // Inserted by another node meanwhile.
+        log.info("Lock row '" + lockName + "' not inserted: " + ex.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Reads the fingerprints with one single query. Only if the query fails, the existence of the table is checked via the catalog: a missing
+   * table means that no fingerprint is stored, any other error of the query results in an exception.
+   * @return The fingerprint of the entity model and of the update versions or null if not stored (e. g. on first start).
+   * @see #writeSchemaFingerprint(String, String)
+   */
+  public String[] readSchemaFingerprint()
+  {
+    accessCheck(false);
+    final List<Object[]> rows;
+    try {
+      rows = queryForRows("select fingerprint, versions from " + SCHEMA_FINGERPRINT_TABLE);
+    } catch (final RuntimeException ex) {
+      // The snapshot may be older than the failure:
+      schemaSnapshot.invalidate();
+      if (doesTableExist(SCHEMA_FINGERPRINT_TABLE) == false) {
+        log.info("No schema fingerprint stored (OK on first start).");
+        return null;
+      }
+      throw ex;
+    }
+    if (rows.isEmpty() == true) {
+      return null;
+    }
+    return new String[] { (String) rows.get(0)[0], (String) rows.get(0)[1]};
+  }
+
+  /**
+   * Replaces the stored fingerprints (the table is created if not exist).
+   * @param fingerprint
+   * @param versions
+   * @see SchemaFingerprint
+   */
+  public void writeSchemaFingerprint(final String fingerprint, final String versions)
+  {
+    accessCheck(true);
+    synchronized (this) {
+      if (doesTableExist(SCHEMA_FINGERPRINT_TABLE) == false) {
+        createTable(new Table(SCHEMA_FINGERPRINT_TABLE) //
+        .addAttribute(new TableAttribute("fingerprint", TableAttributeType.VARCHAR, 64, false)) //
+        .addAttribute(new TableAttribute("versions", TableAttributeType.VARCHAR, 4000, false)) //
+        .addAttribute(new TableAttribute("last_update", TableAttributeType.TIMESTAMP)));
+      }
+    }
+    doInTransaction(new DatabaseSessionCallback<Object>() {
+      @Override
+      public Object doInSession(final DatabaseSession session)
+      {
+        session.update("delete from " + SCHEMA_FINGERPRINT_TABLE);
+        session.update("insert into " + SCHEMA_FINGERPRINT_TABLE + " (fingerprint, versions, last_update) values (?,?,?)", fingerprint,
+            versions, new Timestamp(System.currentTimeMillis()));
+        return null;
+      }
+    });
+  }
+
+  /**
+   * Forces the reload of the update ledger on next access.
+   */
+  public void invalidateUpdateLedger()
+  {
+    updateLedger = null;
+  }
+
+  private String getLedgerKey(final String regionId, final String version)
+  {
+    return regionId + ":" + version;
   }
 
   public void insertInto(final String table, final String[] columns, final Object[] values)
+  {
+    final DatabaseExecutor jdbc = getDatabaseExecutor();
+    final String sql = buildInsertStatement(table, columns, values.length);
+    log.info(sql + "; values = " + StringHelper.listToString(", ", values));
+    jdbc.update(sql, values);
+  }
+
+  /**
+   * Inserts all given rows using jdbc batches.
+   * @param table
+   * @param columns
+   * @param values One value array per row.
+   * @return The number of inserted rows.
+   * @see #updateBatch(String, Iterable)
+   */
+  public int insertIntoBatch(final String table, final String[] columns, final Iterable<Object[]> values)
+  {
+    return updateBatch(buildInsertStatement(table, columns, columns.length), values);
+  }
+
+  private String buildInsertStatement(final String table, final String[] columns, final int numberOfValues)
   {
     final StringBuffer buf = new StringBuffer();
     buf.append("insert into ").append(table).append(" (").append(StringHelper.listToString(",", columns)).append(") values (");
     boolean first = true;
-    for (int i = 0; i < values.length; i++) {
+    for (int i = 0; i < numberOfValues; i++) {
       first = StringHelper.append(buf, first, "?", ",");
     }
     buf.append(")");
-    final DatabaseExecutor jdbc = getDatabaseExecutor();
-    final String sql = buf.toString();
-    log.info(sql + "; values = " + StringHelper.listToString(", ", values));
-    jdbc.update(sql, values);
+    return buf.toString();
+  }
+
+  /**
+   * Creates the checkpoint table of the resumable migrations if not exist.
+   * @see #MIGRATION_CHECKPOINT_TABLE
+   */
+  public synchronized void createMigrationCheckpointTableIfNotExist()
+  {
+    if (doesTableExist(MIGRATION_CHECKPOINT_TABLE) == true) {
+      return;
+    }
+    final Table table = new Table(MIGRATION_CHECKPOINT_TABLE) //
+    .addAttribute(new TableAttribute("migration_id", TableAttributeType.VARCHAR, 255, false)) //
+    .addAttribute(new TableAttribute("range_index", TableAttributeType.INT, false)) //
+    .addAttribute(new TableAttribute("key_type", TableAttributeType.VARCHAR, 255)) //
+    .addAttribute(new TableAttribute("lower_key", TableAttributeType.VARCHAR, 255)) //
+    .addAttribute(new TableAttribute("upper_key", TableAttributeType.VARCHAR, 255)) //
+    .addAttribute(new TableAttribute("last_key", TableAttributeType.VARCHAR, 255)) //
+    .addAttribute(new TableAttribute("processed_rows", TableAttributeType.LONG, false)) //
+    .addAttribute(new TableAttribute("done", TableAttributeType.BOOLEAN, false)) //
+    .addAttribute(new TableAttribute("last_update", TableAttributeType.TIMESTAMP));
+    createTable(table);
+    addUniqueConstraint(MIGRATION_CHECKPOINT_TABLE, MIGRATION_CHECKPOINT_TABLE + "_uq", "migration_id", "range_index");
+  }
+
+  /**
+   * The keys of the ranges are stored as strings together with the class of the keys. The keys are restored as objects of this class, so
+   * they're bound with their original type (e. g. decimal, uuid or timestamp keys). Keys of unsupported classes are restored as strings.
+   * @param migrationId
+   * @return The checkpointed ranges of the given migration ordered by their index or an empty list if no checkpoint exists.
+   */
+  public List<MigrationRange> loadMigrationCheckpoints(final String migrationId)
+  {
+    accessCheck(false);
+    final List<MigrationRange> ranges = new ArrayList<MigrationRange>();
+    if (doesTableExist(MIGRATION_CHECKPOINT_TABLE) == false) {
+      return ranges;
+    }
+    final List<Object[]> rows = queryForRows("select range_index, key_type, lower_key, upper_key, last_key, processed_rows, done from "
+        + MIGRATION_CHECKPOINT_TABLE
+        + " where migration_id=? order by range_index", migrationId);
+    for (final Object[] row : rows) {
+      final String keyType = (String) row[1];
+      final MigrationRange range = new MigrationRange(((Number) row[0]).intValue(), toKey(row[2], keyType), toKey(row[3], keyType));
+      range.setLastKey(toKey(row[4], keyType));
+      range.setProcessedRows(((Number) row[5]).longValue());
+      if (Boolean.TRUE.equals(row[6]) == true) {
+        range.setStatus(UpdateRunningStatus.DONE);
+      }
+      ranges.add(range);
+    }
+    return ranges;
+  }
+
+  private Object toKey(final Object value, final String keyType)
+  {
+    if (value == null) {
+      return null;
+    }
+    final String str = String.valueOf(value);
+    if (Integer.class.getName().equals(keyType) == true) {
+      return Integer.valueOf(str);
+    } else if (Long.class.getName().equals(keyType) == true) {
+      return Long.valueOf(str);
+    } else if (Short.class.getName().equals(keyType) == true) {
+      return Short.valueOf(str);
+    } else if (BigInteger.class.getName().equals(keyType) == true) {
+      return new BigInteger(str);
+    } else if (BigDecimal.class.getName().equals(keyType) == true) {
+      return new BigDecimal(str);
+    } else if (UUID.class.getName().equals(keyType) == true) {
+      return UUID.fromString(str);
+    } else if (Timestamp.class.getName().equals(keyType) == true) {
+      return Timestamp.valueOf(str);
+    } else if (java.sql.Date.class.getName().equals(keyType) == true) {
+      return java.sql.Date.valueOf(str);
+    } else if (keyType != null && String.class.getName().equals(keyType) == false) {
+      log.warn("Unsupported type of migration keys '" + keyType + "', the key '" + str + "' is restored as string.");
+    }
+    return str;
+  }
+
+  /**
+   * Replaces any existing checkpoint of the given migration by the given ranges.
+   * @param migrationId
+   * @param ranges
+   */
+  public void saveMigrationCheckpoints(final String migrationId, final List<MigrationRange> ranges)
+  {
+    accessCheck(true);
+    createMigrationCheckpointTableIfNotExist();
+    final List<Object[]> values = new ArrayList<Object[]>(ranges.size());
+    final Timestamp now = new Timestamp(System.currentTimeMillis());
+    for (final MigrationRange range : ranges) {
+      values.add(new Object[] { migrationId, range.getIndex(), getKeyType(range.getLowerKey(), range.getUpperKey(), range.getLastKey()),
+          keyToString(range.getLowerKey()), keyToString(range.getUpperKey()), keyToString(range.getLastKey()), range.getProcessedRows(),
+          range.getStatus() == UpdateRunningStatus.DONE, now});
+    }
+    doInTransaction(new DatabaseSessionCallback<Object>() {
+      @Override
+      public Object doInSession(final DatabaseSession session)
+      {
+        deleteMigrationCheckpoints(migrationId);
+        insertIntoBatch(MIGRATION_CHECKPOINT_TABLE, new String[] { "migration_id", "range_index", "key_type", "lower_key", "upper_key",
+            "last_key", "processed_rows", "done", "last_update"}, values);
+        return null;
+      }
+    });
   }
 
   /**
+   * Stores the progress of the given range. Should be called within the transaction of the processed chunk (see
+   * {@link #doInTransaction(DatabaseSessionCallback)}), so the checkpoint and the data are committed together.
+   * @param migrationId
+   * @param rangeIndex
+   * @param lastKey The last key of the processed chunk. The type of the keys of the range is updated by the given key, because the ranges of a table processed by one worker have no keys when saved.
+   * @param processedRows The number of all processed rows of the range.
+   * @param done
+   */
+  public void updateMigrationCheckpoint(final String migrationId, final int rangeIndex, final Object lastKey, final long processedRows,
+      final boolean done)
+  {
+    accessCheck(true);
+    final Timestamp now = new Timestamp(System.currentTimeMillis());
+    if (lastKey == null) {
+      getDatabaseExecutor().update(
+          "update " + MIGRATION_CHECKPOINT_TABLE + " set processed_rows=?, done=?, last_update=? where migration_id=? and range_index=?",
+          processedRows, done, now, migrationId, rangeIndex);
+    } else {
+      getDatabaseExecutor().update(
+          "update "
+              + MIGRATION_CHECKPOINT_TABLE
+              + " set last_key=?, key_type=?, processed_rows=?, done=?, last_update=? where migration_id=? and range_index=?",
+          keyToString(lastKey), getKeyType(lastKey), processedRows, done, now, migrationId, rangeIndex);
+    }
+  }
+
+  public void deleteMigrationCheckpoints(final String migrationId)
+  {
+    accessCheck(true);
+    if (doesTableExist(MIGRATION_CHECKPOINT_TABLE) == true) {
+      getDatabaseExecutor().update("delete from " + MIGRATION_CHECKPOINT_TABLE + " where migration_id=?", migrationId);
+    }
+  }
+
+  /**
+   * @return The class name of the first given key which isn't null or null if all keys are null.
+   */
+  private String getKeyType(final Object... keys)
+  {
+    for (final Object key : keys) {
+      if (key != null) {
+        return key.getClass().getName();
+      }
+    }
+    return null;
+  }
+
+  private String keyToString(final Object key)
+  {
+    return key != null ? String.valueOf(key) : null;
+  }
+
+  /**
+   * The update ledger is loaded (with one single query) on first access and cached.
    * @param regionId
    * @param version
    * @return true, if any entry for the given regionId and version is found in the database table t_database_update.
+   * @see #loadUpdateLedger()
    */
   public boolean isVersionUpdated(final String regionId, final String version)
   {
     accessCheck(false);
-    final DatabaseExecutor jdbc = getDatabaseExecutor();
-    final int result = jdbc.queryForInt("select count(*) from t_database_update where region_id=? and version=?", regionId, version);
-    return result > 0;
+    Set<String> ledger = updateLedger;
+    if (ledger == null) {
+      loadUpdateLedger();
+      ledger = updateLedger;
+    }
+    return ledger.contains(getLedgerKey(regionId, version));
+  }
+
+  public void buildCreateIndexStatement(final StringBuffer buf, final String name, final String table, final String attributes)
+  {
+    buf.append("CREATE INDEX ").append(name).append(" ON ").append(table).append("(").append(attributes).append(");\n");
   }
 
   /**
@@ -646,9 +1579,13 @@ public class DatabaseUpdateDao
   {
     accessCheck(true);
     try {
-      final String jdbcString = "CREATE INDEX " + name + " ON " + table + "(" + attributes + ");";
-      execute(jdbcString, false);
-      log.info(jdbcString);
+      if (schemaSnapshot.doesIndexExist(table, name) == true) {
+        return false;
+      }
+      final StringBuffer buf = new StringBuffer();
+      buildCreateIndexStatement(buf, name, table, attributes);
+      internalExecute(buf.toString(), false);
+      schemaSnapshot.indexCreated(table, name);
       return true;
     } catch (final Throwable ex) {
       // Index does already exist (or an error has occurred).
@@ -665,7 +1602,8 @@ public class DatabaseUpdateDao
   {
     accessCheck(true);
     try {
-      execute("DROP INDEX " + name);
+      internalExecute("DROP INDEX " + name, false);
+      schemaSnapshot.indexDropped(name);
       return true;
     } catch (final Throwable ex) {
       // Index does already exist (or an error has occurred).
@@ -683,17 +1621,53 @@ public class DatabaseUpdateDao
   }
 
   /**
-   * Executes the given String
+   * Executes the given String. The schema snapshot is invalidated unless the statement only manipulates data (select, insert, update,
+   * delete or merge), because the statement may modify the schema.
    * @param jdbcString
    * @param ignoreErrors If true (default) then errors will be caught and logged.
-   * @return true if no error occurred (no exception was caught), otherwise false.
+   * @see #invalidateSchemaSnapshot()
    */
   public void execute(final String jdbcString, final boolean ignoreErrors)
+  {
+    accessCheck(true);
+    if (internalExecute(jdbcString, ignoreErrors) == true && isDataManipulation(jdbcString) == false) {
+      schemaSnapshot.invalidate();
+    }
+  }
+
+  private static boolean isDataManipulation(final String sql)
+  {
+    final String statement = sql.trim().toLowerCase();
+    for (final String keyword : DATA_MANIPULATION_KEYWORDS) {
+      if (statement.startsWith(keyword) == true
+          && (statement.length() == keyword.length() || Character.isWhitespace(statement.charAt(keyword.length())) == true)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Executes the given String without invalidating the schema snapshot on success. The caller is responsible for patching the snapshot
+   * (only if true is returned). On any error the snapshot is invalidated, because the state of the schema is unknown.
+   * @return true if no error occurred, otherwise false (only if errors are ignored).
+   */
+  private boolean internalExecute(final String jdbcString, final boolean ignoreErrors)
   {
     accessCheck(true);
     final DatabaseExecutor jdbc = getDatabaseExecutor();
-    jdbc.execute(jdbcString, ignoreErrors);
+    try {
+      jdbc.execute(jdbcString, false);
+    } catch (final RuntimeException ex) {
+      schemaSnapshot.invalidate();
+      if (ignoreErrors == false) {
+        throw ex;
+      }
+      log.error("Exception encountered " + ex, ex);
+      return false;
+    }
     log.info(jdbcString);
+    return true;
   }
 
   public int queryForInt(final String jdbcQuery)
@@ -712,6 +1686,37 @@ public class DatabaseUpdateDao
     return jdbc.query(sql, args);
   }
 
+  /**
+   * @param sql
+   * @param mapper
+   * @param args
+   * @return The rows mapped by the given mapper.
+   * @see ExtendedDatabaseExecutor#query(String, RowMapper, Object...)
+   */
+  public <T> List<T> query(final String sql, final RowMapper<T> mapper, final Object... args)
+  {
+    accessCheck(false);
+    final ExtendedDatabaseExecutor jdbc = getExtendedDatabaseExecutor();
+    log.info(sql);
+    return jdbc.query(sql, mapper, args);
+  }
+
+  /**
+   * Streams the result rows to the given handler (e. g. for migrating data of large tables with constant memory usage).
+   * @param sql
+   * @param handler
+   * @param args
+   * @return The number of handled rows.
+   * @see ExtendedDatabaseExecutor#query(String, DatabaseResultRowHandler, Object...)
+   */
+  public int query(final String sql, final DatabaseResultRowHandler handler, final Object... args)
+  {
+    accessCheck(false);
+    final ExtendedDatabaseExecutor jdbc = getExtendedDatabaseExecutor();
+    log.info(sql);
+    return jdbc.query(sql, handler, args);
+  }
+
   public int update(final String sql, final Object... args)
   {
     accessCheck(false);
@@ -720,6 +1725,87 @@ public class DatabaseUpdateDao
     return jdbc.update(sql, args);
   }
 
+  /**
+   * Same as {@link #query(String, Object...)} but without logging the sql statement (e. g. for periodically executed statements).
+   */
+  List<DatabaseResultRow> internalQuery(final String sql, final Object... args)
+  {
+    accessCheck(false);
+    return getDatabaseExecutor().query(sql, args);
+  }
+
+  /**
+   * Same as {@link #update(String, Object...)} but without logging the sql statement (e. g. for periodically executed statements).
+   */
+  int internalUpdate(final String sql, final Object... args)
+  {
+    accessCheck(false);
+    return getDatabaseExecutor().update(sql, args);
+  }
+
+  private void close(final ResultSet rs, final Connection con)
+  {
+    if (rs != null) {
+      try {
+        rs.close();
+      } catch (final SQLException ex) {
+        log.error("Exception encountered " + ex, ex);
+      }
+    }
+    if (con != null) {
+      try {
+        con.close();
+      } catch (final SQLException ex) {
+        log.error("Exception encountered " + ex, ex);
+      }
+    }
+  }
+
+  /**
+   * Executes the given statement for all given argument lists using jdbc batches on one single connection. The batch size and whether each
+   * batch is committed or not is defined by the {@link UpdaterConfiguration}.
+   * @param sql
+   * @param args One argument list per statement execution.
+   * @return The number of updated rows.
+   * @see UpdaterConfiguration#setBatchSize(int)
+   * @see UpdaterConfiguration#setCommitPerBatch(boolean)
+   */
+  public int updateBatch(final String sql, final Iterable<Object[]> args)
+  {
+    return updateBatch(sql, args, null);
+  }
+
+  /**
+   * @param sql
+   * @param args One argument list per statement execution.
+   * @param listener Gets informed after each batch (may be null). The timing of each batch is logged anyway.
+   * @return The number of updated rows.
+   * @see UpdaterConfiguration#getMigrationThrottle()
+   * @see #updateBatch(String, Iterable)
+   */
+  public int updateBatch(final String sql, final Iterable<Object[]> args, final DatabaseBatchListener listener)
+  {
+    accessCheck(true);
+    final ExtendedDatabaseExecutor jdbc = getExtendedDatabaseExecutor();
+    log.info(sql + " (batch)");
+    // Throttle only between committed batches, otherwise the locks of the transaction would be held while sleeping:
+    final boolean throttle = configuration.isCommitPerBatch() == true && isTransactionActive() == false;
+    final DatabaseBatchListener batchListener = new DatabaseBatchListener() {
+      @Override
+      public void afterBatch(final int batchNumber, final int statements, final int updatedRows, final long millis)
+      {
+        log.info("Batch #" + batchNumber + ": " + statements + " statements, " + updatedRows + " updated rows in " + millis + "ms.");
+        if (listener != null) {
+          listener.afterBatch(batchNumber, statements, updatedRows, millis);
+        }
+        if (throttle == true) {
+          configuration.getMigrationThrottle().afterBatch(statements, millis);
+        }
+      }
+    };
+    return jdbc.updateBatch(sql, args, configuration.getBatchSize(), configuration.isCommitPerBatch(), batchListener);
+  }
+
   /**
    * Will be called on shutdown.
    * @see DatabaseSupport#getShutdownDatabaseStatement()
@@ -0,0 +1,196 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2014 Kai Reinhard (k.reinhard@micromata.de)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+package org.projectforge.continuousdb;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Schema descriptor of an entity generated at compile time by the annotation processor of the module continuous-db-processor. The descriptor
+ * lists the fields and getter properties annotated with persistence annotations, so {@link Table#autoAddAttributes()} doesn't have to scan
+ * all members of the entity class and its super classes by reflection. <br/>
+ * The descriptor is a text resource named {@link #RESOURCE_PATH}&lt;binary class name&gt;{@link #RESOURCE_SUFFIX} with one key=value entry
+ * per line:
+ * 
+ * <pre>
+ * version=1
+ * entity=org.projectforge.continuousdb.demo.entities.TaskDO
+ * field=title
+ * getter=parentTask
+ * inheritedGetter=id
+ * </pre>
+ * 
+ * The entries of one kind are in declaration order, inherited members follow the members of the entity class in the order of the class
+ * hierarchy. <br/>
+ * The descriptors are only used if enabled by {@link EntityMetadata#setUseEntityDescriptors(boolean)}: the descriptor isn't verified
+ * against the loaded class, because this would need the reflective scan of all members the descriptor should save.
+ * @author Kai Reinhard (k.reinhard@micromata.de)
+ */
+public class EntityDescriptor
+{
+  private static final org.projectforge.common.Logger log = org.projectforge.common.Logger.getLogger(EntityDescriptor.class);
+
+  public static final String RESOURCE_PATH = "META-INF/continuousdb/";
+
+  public static final String RESOURCE_SUFFIX = ".schema";
+
+  /**
+   * Version of the descriptor format. Descriptors of other versions are ignored.
+   */
+  public static final String VERSION = "1";
+
+  private String entity;
+
+  private final List<String> fields = new ArrayList<String>();
+
+  private final List<String> getters = new ArrayList<String>();
+
+  private final List<String> inheritedFields = new ArrayList<String>();
+
+  private final List<String> inheritedGetters = new ArrayList<String>();
+
+  /**
+   * @param entityClass
+   * @return The descriptor of the given class or null if not available (annotation processor not used or unsupported version).
+   */
+  public static EntityDescriptor load(final Class< ? > entityClass)
+  {
+    final ClassLoader classLoader = entityClass.getClassLoader();
+    if (classLoader == null) {
+      return null;
+    }
+    final InputStream is = classLoader.getResourceAsStream(RESOURCE_PATH + entityClass.getName() + RESOURCE_SUFFIX);
+    if (is == null) {
+      return null;
+    }
+    try {
+      final EntityDescriptor descriptor = read(new InputStreamReader(is, "UTF-8"));
+      if (descriptor != null && entityClass.getName().equals(descriptor.entity) == false) {
+        log.warn("Schema descriptor of '" + entityClass.getName() + "' describes other entity '" + descriptor.entity + "', ignoring it.");
+        return null;
+      }
+      return descriptor;
+    } catch (final IOException ex) {
+      log.warn("Can't read schema descriptor of '" + entityClass.getName() + "': " + ex.getMessage());
+      return null;
+    } finally {
+      try {
+        is.close();
+      } catch (final IOException ex) {
+        // OK, nothing to do.
+      }
+    }
+  }
+
+  /**
+   * @param reader
+   * @return The descriptor or null if the version isn't supported.
+   * @throws IOException
+   */
+  static EntityDescriptor read(final Reader reader) throws IOException
+  {
+    final BufferedReader in = new BufferedReader(reader);
+    final EntityDescriptor descriptor = new EntityDescriptor();
+    String version = null;
+    String line;
+    while ((line = in.readLine()) != null) {
+      line = line.trim();
+      if (line.length() == 0 || line.startsWith("#") == true) {
+        continue;
+      }
+      final int pos = line.indexOf('=');
+      if (pos <= 0) {
+        log.warn("Ignoring invalid line of schema descriptor: " + line);
+        continue;
+      }
+      final String key = line.substring(0, pos).trim();
+      final String value = line.substring(pos + 1).trim();
+      if ("version".equals(key) == true) {
+        version = value;
+      } else if ("entity".equals(key) == true) {
+        descriptor.entity = value;
+      } else if ("field".equals(key) == true) {
+        descriptor.fields.add(value);
+      } else if ("getter".equals(key) == true) {
+        descriptor.getters.add(value);
+      } else if ("inheritedField".equals(key) == true) {
+        descriptor.inheritedFields.add(value);
+      } else if ("inheritedGetter".equals(key) == true) {
+        descriptor.inheritedGetters.add(value);
+      } else {
+        log.warn("Ignoring unknown key of schema descriptor: " + line);
+      }
+    }
+    if (VERSION.equals(version) == false) {
+      log.warn("Unsupported version of schema descriptor '" + descriptor.entity + "': " + version);
+      return null;
+    }
+    return descriptor;
+  }
+
+  private EntityDescriptor()
+  {
+  }
+
+  /**
+   * @return The class name of the entity.
+   */
+  public String getEntity()
+  {
+    return entity;
+  }
+
+  /**
+   * @param declaredOnly If true, only the fields declared by the entity class itself are returned.
+   * @return The names of the fields annotated with persistence annotations.
+   */
+  public List<String> getFields(final boolean declaredOnly)
+  {
+    return join(fields, declaredOnly == true ? null : inheritedFields);
+  }
+
+  /**
+   * @param declaredOnly If true, only the getters declared by the entity class itself are returned.
+   * @return The property names of the getter methods annotated with persistence annotations.
+   */
+  public List<String> getGetters(final boolean declaredOnly)
+  {
+    return join(getters, declaredOnly == true ? null : inheritedGetters);
+  }
+
+  private List<String> join(final List<String> declared, final List<String> inherited)
+  {
+    if (inherited == null || inherited.isEmpty() == true) {
+      return Collections.unmodifiableList(declared);
+    }
+    final List<String> result = new ArrayList<String>(declared);
+    result.addAll(inherited);
+    return Collections.unmodifiableList(result);
+  }
+}
@@ -0,0 +1,397 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2014 Kai Reinhard (k.reinhard@micromata.de)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+package org.projectforge.continuousdb;
+
+import java.lang.annotation.Annotation;
+import java.lang.ref.SoftReference;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.persistence.Id;
+
+import org.projectforge.common.BeanHelper;
+
+/**
+ * Reflection metadata of one entity class: getters, setters, fields, the JPA annotations of the properties, the id property, the persistent
+ * properties and the resolved {@link TableAttribute}s. Every piece is resolved once on first access and is cached per class, so building the
+ * {@link Table}s of large entity models doesn't repeat the reflective work for every table and every foreign key. <br/>
+ * The persistent properties are taken from the compile time generated {@link EntityDescriptor} if enabled by
+ * {@link #setUseEntityDescriptors(boolean)} and available. <br/>
+ * The cache is thread safe. Concurrent first accesses may resolve the same piece twice, the results are equal. The cache is cleared by
+ * {@link TableAttribute#register(TableAttributeHook)} because registered hooks influence the resolved attributes. <br/>
+ * The entity classes are weakly referenced by the cache, so the class loader of a redeployed web application isn't pinned by the cache.
+ * @author Kai Reinhard (k.reinhard@micromata.de)
+ */
+public class EntityMetadata
+{
+  private static final org.projectforge.common.Logger log = org.projectforge.common.Logger.getLogger(EntityMetadata.class);
+
+  /**
+   * Marks cached null values (a ConcurrentHashMap doesn't support null values).
+   */
+  private static final Object NULL = new Object();
+
+  /**
+   * The keys are weak references. The metadata references its class (and its methods and fields), therefore the values are soft
+   * references, otherwise the keys would be strongly reachable through the values and never collected.
+   */
+  private static final Map<Class< ? >, SoftReference<EntityMetadata>> cache = Collections
+      .synchronizedMap(new WeakHashMap<Class< ? >, SoftReference<EntityMetadata>>());
+
+  private static volatile boolean useEntityDescriptors;
+
+  private final Class< ? > entityClass;
+
+  private final ConcurrentMap<String, Object> getters = new ConcurrentHashMap<String, Object>();
+
+  private final ConcurrentMap<String, Object> setters = new ConcurrentHashMap<String, Object>();
+
+  private final ConcurrentMap<String, Object> fields = new ConcurrentHashMap<String, Object>();
+
+  private final ConcurrentMap<String, Object> annotations = new ConcurrentHashMap<String, Object>();
+
+  private final ConcurrentMap<String, TableAttribute> attributes = new ConcurrentHashMap<String, TableAttribute>();
+
+  private volatile Object idProperty;
+
+  private volatile Object tableName;
+
+  private volatile List<PersistentProperty> persistentProperties;
+
+  private volatile List<PersistentProperty> declaredPersistentProperties;
+
+  /**
+   * @param entityClass
+   * @return The cached metadata of the given class (created on first access).
+   */
+  public static EntityMetadata getInstance(final Class< ? > entityClass)
+  {
+    synchronized (cache) {
+      final SoftReference<EntityMetadata> ref = cache.get(entityClass);
+      EntityMetadata metadata = ref != null ? ref.get() : null;
+      if (metadata == null) {
+        metadata = new EntityMetadata(entityClass);
+        cache.put(entityClass, new SoftReference<EntityMetadata>(metadata));
+      }
+      return metadata;
+    }
+  }
+
+  /**
+   * Enables the compile time generated {@link EntityDescriptor}s (disabled at default). Please enable the descriptors only if all entity
+   * classes are always compiled with the annotation processor: descriptors out-dated by modifications compiled without the processor
+   * aren't detected. Clears the cache.
+   * @param useEntityDescriptors
+   */
+  public static void setUseEntityDescriptors(final boolean useEntityDescriptors)
+  {
+    EntityMetadata.useEntityDescriptors = useEntityDescriptors;
+    clearCache();
+  }
+
+  /**
+   * Removes the metadata of all classes (not needed for reloaded entity classes, they're weakly referenced).
+   */
+  public static void clearCache()
+  {
+    cache.clear();
+  }
+
+  private EntityMetadata(final Class< ? > entityClass)
+  {
+    this.entityClass = entityClass;
+  }
+
+  public Class< ? > getEntityClass()
+  {
+    return entityClass;
+  }
+
+  /**
+   * @param property
+   * @param onlyPublicGetter
+   * @return The getter method or null if not found.
+   * @see BeanHelper#determineGetter(Class, String, boolean)
+   */
+  public Method getGetter(final String property, final boolean onlyPublicGetter)
+  {
+    final String key = onlyPublicGetter == true ? property : property + "*";
+    Object getter = getters.get(key);
+    if (getter == null) {
+      getter = nullToMarker(BeanHelper.determineGetter(entityClass, property, onlyPublicGetter));
+      getters.put(key, getter);
+    }
+    return (Method) markerToNull(getter);
+  }
+
+  /**
+   * @param property
+   * @return The setter method or null if not found.
+   */
+  public Method getSetter(final String property)
+  {
+    Object setter = setters.get(property);
+    if (setter == null) {
+      setter = nullToMarker(BeanHelper.determineSetter(entityClass, property));
+      setters.put(property, setter);
+    }
+    return (Method) markerToNull(setter);
+  }
+
+  /**
+   * @param property
+   * @return The field declared by the entity class or any super class or null if not found.
+   */
+  public Field getField(final String property)
+  {
+    Object field = fields.get(property);
+    if (field == null) {
+      field = nullToMarker(JPAHelper.getField(entityClass, property));
+      fields.put(property, field);
+    }
+    return (Field) markerToNull(field);
+  }
+
+  /**
+   * Tries to find the annotation at the getter, setter or field (in this order) of the given property.
+   * @param property
+   * @param annotationClass
+   * @param onlyPublicGetter
+   * @return The annotation or null if not present.
+   */
+  public <A extends Annotation> A getAnnotation(final String property, final Class<A> annotationClass, final boolean onlyPublicGetter)
+  {
+    final String key = property + (onlyPublicGetter == true ? "@" : "*@") + annotationClass.getName();
+    Object annotation = annotations.get(key);
+    if (annotation == null) {
+      A result = getAnnotation(getGetter(property, onlyPublicGetter), annotationClass);
+      if (result == null) {
+        result = getAnnotation(getSetter(property), annotationClass);
+        if (result == null) {
+          final Field field = getField(property);
+          if (field != null) {
+            result = field.getAnnotation(annotationClass);
+          }
+        }
+      }
+      annotation = nullToMarker(result);
+      annotations.put(key, annotation);
+    }
+    return annotationClass.cast(markerToNull(annotation));
+  }
+
+  /**
+   * @return The name of the first field annotated with {@link Id} (also checking the getters and setters) or null if not found.
+   */
+  public String getIdProperty()
+  {
+    Object result = idProperty;
+    if (result == null) {
+      result = NULL;
+      for (final Field field : JPAHelper.getAllDeclaredFields(entityClass)) {
+        if (getAnnotation(field.getName(), Id.class, true) != null) {
+          result = field.getName();
+          break;
+        }
+      }
+      idProperty = result;
+    }
+    return (String) markerToNull(result);
+  }
+
+  /**
+   * @return The name of the table of this entity or null if the class isn't an entity.
+   * @see Table#Table(Class)
+   */
+  public String getTableName()
+  {
+    Object result = tableName;
+    if (result == null) {
+      result = nullToMarker(new Table(entityClass).getName());
+      tableName = result;
+    }
+    return (String) markerToNull(result);
+  }
+
+  /**
+   * The resolved attribute is shared: please use {@link TableAttribute#TableAttribute(Class, String)} for getting an own copy.
+   * @param property
+   * @return The attribute resolved from the getter method and the JPA annotations of the property.
+   */
+  TableAttribute getAttribute(final String property)
+  {
+    TableAttribute attr = attributes.get(property);
+    if (attr == null) {
+      attr = new TableAttribute(this, property);
+      attributes.put(property, attr);
+    }
+    return attr;
+  }
+
+  /**
+   * The fields and getter methods annotated with persistence annotations.
+   * @param declaredOnly If true, only the fields and getters of the entity class itself are returned (not of the super classes).
+   * @return Unmodifiable list.
+   * @see JPAHelper#getPersistenceAnnotations(java.lang.reflect.AccessibleObject)
+   */
+  public List<PersistentProperty> getPersistentProperties(final boolean declaredOnly)
+  {
+    List<PersistentProperty> result = declaredOnly == true ? declaredPersistentProperties : persistentProperties;
+    if (result != null) {
+      return result;
+    }
+    result = getPersistentPropertiesFromDescriptor(declaredOnly);
+    if (result == null) {
+      result = getPersistentPropertiesByReflection(declaredOnly);
+    }
+    if (declaredOnly == true) {
+      declaredPersistentProperties = result;
+    } else {
+      persistentProperties = result;
+    }
+    return result;
+  }
+
+  /**
+   * Only the members listed by the descriptor are inspected.
+   * @return null if the descriptors aren't enabled, no descriptor is available or the descriptor doesn't match the class.
+   * @see EntityDescriptor
+   */
+  private List<PersistentProperty> getPersistentPropertiesFromDescriptor(final boolean declaredOnly)
+  {
+    if (useEntityDescriptors == false) {
+      return null;
+    }
+    final EntityDescriptor descriptor = EntityDescriptor.load(entityClass);
+    if (descriptor == null) {
+      return null;
+    }
+    final List<PersistentProperty> list = new ArrayList<PersistentProperty>();
+    for (final String property : descriptor.getFields(declaredOnly)) {
+      final Field field = getField(property);
+      final List<Annotation> persistenceAnnotations = field != null ? JPAHelper.getPersistenceAnnotations(field) : null;
+      if (persistenceAnnotations == null) {
+        log.warn("Schema descriptor of '" + entityClass.getName() + "' is out-dated (field '" + property + "'), using reflection.");
+        return null;
+      }
+      list.add(new PersistentProperty(property, persistenceAnnotations));
+    }
+    for (final String property : descriptor.getGetters(declaredOnly)) {
+      final Method getter = getGetter(property, false);
+      final List<Annotation> persistenceAnnotations = getter != null ? JPAHelper.getPersistenceAnnotations(getter) : null;
+      if (persistenceAnnotations == null) {
+        log.warn("Schema descriptor of '" + entityClass.getName() + "' is out-dated (getter '" + property + "'), using reflection.");
+        return null;
+      }
+      list.add(new PersistentProperty(property, persistenceAnnotations));
+    }
+    return Collections.unmodifiableList(list);
+  }
+
+  private List<PersistentProperty> getPersistentPropertiesByReflection(final boolean declaredOnly)
+  {
+    final Field[] fieldArray;
+    final List<Method> getterList;
+    if (declaredOnly == true) {
+      fieldArray = entityClass.getDeclaredFields();
+      getterList = BeanHelper.getAllGetterMethods(entityClass, false);
+    } else {
+      fieldArray = BeanHelper.getAllDeclaredFields(entityClass);
+      getterList = BeanHelper.getAllGetterMethods(entityClass);
+    }
+    final List<PersistentProperty> list = new ArrayList<PersistentProperty>();
+    for (final Field field : fieldArray) {
+      final List<Annotation> persistenceAnnotations = JPAHelper.getPersistenceAnnotations(field);
+      if (persistenceAnnotations != null) {
+        list.add(new PersistentProperty(field.getName(), persistenceAnnotations));
+      }
+    }
+    for (final Method method : getterList) {
+      final List<Annotation> persistenceAnnotations = JPAHelper.getPersistenceAnnotations(method);
+      if (persistenceAnnotations == null) {
+        continue;
+      }
+      final String property = BeanHelper.getProperty(method);
+      if (property != null) {
+        list.add(new PersistentProperty(property, persistenceAnnotations));
+      } else {
+        log.error("Can't determine property of getter method: '" + method.getName());
+      }
+    }
+    return Collections.unmodifiableList(list);
+  }
+
+  private static <A extends Annotation> A getAnnotation(final Method method, final Class<A> annotationClass)
+  {
+    if (method == null) {
+      return null;
+    }
+    return method.getAnnotation(annotationClass);
+  }
+
+  private static Object nullToMarker(final Object value)
+  {
+    return value != null ? value : NULL;
+  }
+
+  private static Object markerToNull(final Object value)
+  {
+    return value == NULL ? null : value;
+  }
+
+  /**
+   * A field or getter method annotated with persistence annotations.
+   */
+  public static class PersistentProperty
+  {
+    private final String property;
+
+    private final List<Annotation> annotations;
+
+    PersistentProperty(final String property, final List<Annotation> annotations)
+    {
+      this.property = property;
+      this.annotations = Collections.unmodifiableList(annotations);
+    }
+
+    public String getProperty()
+    {
+      return property;
+    }
+
+    /**
+     * @return Unmodifiable list of the persistence annotations.
+     */
+    public List<Annotation> getAnnotations()
+    {
+      return annotations;
+    }
+  }
+}
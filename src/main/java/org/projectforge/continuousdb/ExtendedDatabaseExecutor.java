@@ -0,0 +1,87 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2014 Kai Reinhard (k.reinhard@micromata.de)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+package org.projectforge.continuousdb;
+
+import java.util.List;
+
+/**
+ * Extends the {@link DatabaseExecutor} by sessions, streaming and mapped queries and jdbc batches. Implementations of the plain
+ * {@link DatabaseExecutor} are still supported by the {@link DatabaseUpdateDao}, the operations of this interface are only available if the
+ * configured executor implements it.
+ * @author Kai Reinhard (k.reinhard@micromata.de)
+ * 
+ */
+public interface ExtendedDatabaseExecutor extends DatabaseExecutor
+{
+  /**
+   * @return A new session pinning one connection of the data source. The caller has to close the session.
+   */
+  public DatabaseSession openSession();
+
+  /**
+   * Maps the result rows directly to objects of the caller's type. The meta data of the result set is resolved only once.
+   * @param sql
+   * @param mapper
+   * @param args
+   * @return The mapped rows.
+   * @see RowMappers
+   */
+  public <T> List<T> query(String sql, RowMapper<T> mapper, Object... args);
+
+  /**
+   * Streams the result rows to the given handler. The connection is kept open until the last row is handled and the rows are fetched in
+   * chunks of the fetch size, so the used memory doesn't depend on the number of rows.
+   * @param sql
+   * @param handler
+   * @param args
+   * @return The number of handled rows.
+   * @see #setFetchSize(int)
+   */
+  public int query(String sql, DatabaseResultRowHandler handler, Object... args);
+
+  /**
+   * @param fetchSize The number of rows fetched per database round trip by streaming queries.
+   */
+  public void setFetchSize(int fetchSize);
+
+  public int getFetchSize();
+
+  /**
+   * @param statementCacheSize The maximum number of prepared statements cached per session (0 disables caching).
+   * @see #openSession()
+   */
+  public void setStatementCacheSize(int statementCacheSize);
+
+  public int getStatementCacheSize();
+
+  /**
+   * Executes the given statement for all given argument lists using jdbc batches and one single connection.
+   * @param sql
+   * @param args One argument list per statement execution.
+   * @param batchSize Number of statements per batch.
+   * @param commitPerBatch If true, each batch is committed, otherwise all batches are executed within one transaction.
+   * @param listener Optional listener (may be null).
+   * @return The number of updated rows.
+   */
+  public int updateBatch(String sql, Iterable<Object[]> args, int batchSize, boolean commitPerBatch, DatabaseBatchListener listener);
+}
@@ -26,7 +26,6 @@ package org.projectforge.continuousdb;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.AccessibleObject;
 import java.lang.reflect.Field;
-import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
@@ -44,8 +43,6 @@ import javax.persistence.OneToMany;
 import javax.persistence.OrderColumn;
 import javax.persistence.Transient;
 
-import org.projectforge.common.BeanHelper;
-
 /**
  * For manipulating the database (patching data etc.)
  * @author Kai Reinhard (k.reinhard@micromata.de)
@@ -53,16 +50,14 @@ import org.projectforge.common.BeanHelper;
  */
 public class JPAHelper
 {
+  /**
+   * @param clazz
+   * @return The name of the id property (field annotated with Id or with annotated getter or setter).
+   * @see EntityMetadata#getIdProperty()
+   */
   public static final String getIdProperty(final Class< ? > clazz)
   {
-    final List<Field> fields = getAllDeclaredFields(clazz);
-    for (final Field field : fields) {
-      final Id id = getIdAnnotation(clazz, field.getName());
-      if (id != null) {
-        return field.getName();
-      }
-    }
-    return null;
+    return EntityMetadata.getInstance(clazz).getIdProperty();
   }
 
   /**
@@ -73,17 +68,7 @@ public class JPAHelper
    */
   public static Column getColumnAnnotation(final Class< ? > clazz, final String property)
   {
-    Column column = getColumnAnnotation(BeanHelper.determineGetter(clazz, property, false));
-    if (column == null) {
-      column = getColumnAnnotation(BeanHelper.determineSetter(clazz, property));
-      if (column == null) {
-        final Field field = getField(clazz, property);
-        if (field != null) {
-          return field.getAnnotation(Column.class);
-        }
-      }
-    }
-    return column;
+    return EntityMetadata.getInstance(clazz).getAnnotation(property, Column.class, false);
   }
 
   /**
@@ -94,17 +79,7 @@ public class JPAHelper
    */
   public static Id getIdAnnotation(final Class< ? > clazz, final String property)
   {
-    Id id = getIdAnnotation(BeanHelper.determineGetter(clazz, property));
-    if (id == null) {
-      id = getIdAnnotation(BeanHelper.determineSetter(clazz, property));
-      if (id == null) {
-        final Field field = getField(clazz, property);
-        if (field != null) {
-          return field.getAnnotation(Id.class);
-        }
-      }
-    }
-    return id;
+    return EntityMetadata.getInstance(clazz).getAnnotation(property, Id.class, true);
   }
 
   /**
@@ -115,17 +90,7 @@ public class JPAHelper
    */
   public static JoinColumn getJoinColumnAnnotation(final Class< ? > clazz, final String property)
   {
-    JoinColumn joinColumn = getJoinColumnAnnotation(BeanHelper.determineGetter(clazz, property));
-    if (joinColumn == null) {
-      joinColumn = getJoinColumnAnnotation(BeanHelper.determineSetter(clazz, property));
-      if (joinColumn == null) {
-        final Field field = getField(clazz, property);
-        if (field != null) {
-          return field.getAnnotation(JoinColumn.class);
-        }
-      }
-    }
-    return joinColumn;
+    return EntityMetadata.getInstance(clazz).getAnnotation(property, JoinColumn.class, true);
   }
 
   /**
@@ -187,31 +152,7 @@ public class JPAHelper
     return list;
       }
 
-  private static Column getColumnAnnotation(final Method method)
-  {
-    if (method == null) {
-      return null;
-    }
-    return method.getAnnotation(Column.class);
-  }
-
-  private static JoinColumn getJoinColumnAnnotation(final Method method)
-  {
-    if (method == null) {
-      return null;
-    }
-    return method.getAnnotation(JoinColumn.class);
-  }
-
-  private static Id getIdAnnotation(final Method method)
-  {
-    if (method == null) {
-      return null;
-    }
-    return method.getAnnotation(Id.class);
-  }
-
-  private static Field getField(final Class< ? > clazz, final String fieldName)
+  static Field getField(final Class< ? > clazz, final String fieldName)
   {
     Field field;
     try {
@@ -230,7 +171,7 @@ public class JPAHelper
     return null;
   }
 
-  private static List<Field> getAllDeclaredFields(final Class< ? > clazz)
+  static List<Field> getAllDeclaredFields(final Class< ? > clazz)
   {
     return getAllDeclaredFields(new ArrayList<Field>(), clazz);
   }
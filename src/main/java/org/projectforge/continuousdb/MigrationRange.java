@@ -0,0 +1,133 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2014 Kai Reinhard (k.reinhard@micromata.de)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+package org.projectforge.continuousdb;
+
+/**
+ * A disjoint primary key range of a table processed by one worker of a {@link ColumnMigration}.
+ * @author Kai Reinhard (k.reinhard@micromata.de)
+ */
+public class MigrationRange
+{
+  private final int index;
+
+  private final Object lowerKey;
+
+  private final Object upperKey;
+
+  private Object lastKey;
+
+  private long processedRows;
+
+  private UpdateRunningStatus status = UpdateRunningStatus.UNKNOWN;
+
+  /**
+   * @param index The index of this range (starting with 0).
+   * @param lowerKey Exclusive lower bound or null for no lower bound.
+   * @param upperKey Inclusive upper bound or null for no upper bound.
+   */
+  public MigrationRange(final int index, final Object lowerKey, final Object upperKey)
+  {
+    this.index = index;
+    this.lowerKey = lowerKey;
+    this.upperKey = upperKey;
+  }
+
+  public int getIndex()
+  {
+    return index;
+  }
+
+  /**
+   * @return The exclusive lower bound or null.
+   */
+  public Object getLowerKey()
+  {
+    return lowerKey;
+  }
+
+  /**
+   * @return The inclusive upper bound or null.
+   */
+  public Object getUpperKey()
+  {
+    return upperKey;
+  }
+
+  /**
+   * @return The last key of the last committed chunk of this range or null if no chunk is processed yet.
+   */
+  public Object getLastKey()
+  {
+    return lastKey;
+  }
+
+  /**
+   * @param lastKey
+   * @return this for chaining.
+   */
+  public MigrationRange setLastKey(final Object lastKey)
+  {
+    this.lastKey = lastKey;
+    return this;
+  }
+
+  /**
+   * @return The number of processed rows of this range (including the rows of previous runs if resumed from a checkpoint).
+   */
+  public long getProcessedRows()
+  {
+    return processedRows;
+  }
+
+  void setProcessedRows(final long processedRows)
+  {
+    this.processedRows = processedRows;
+  }
+
+  void addProcessedRows(final int rows)
+  {
+    this.processedRows += rows;
+  }
+
+  public UpdateRunningStatus getStatus()
+  {
+    return status;
+  }
+
+  /**
+   * @param status
+   * @return this for chaining.
+   */
+  public MigrationRange setStatus(final UpdateRunningStatus status)
+  {
+    this.status = status;
+    return this;
+  }
+
+  @Override
+  public String toString()
+  {
+    return "#" + index + " (" + lowerKey + ", " + upperKey + "]";
+  }
+}
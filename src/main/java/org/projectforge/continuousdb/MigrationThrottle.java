@@ -0,0 +1,180 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2014 Kai Reinhard (k.reinhard@micromata.de)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+package org.projectforge.continuousdb;
+
+/**
+ * Paces batch updates and migrations for running them online (while the application serves traffic) without saturating the database.
+ * The throttle is shared by all threads of all migrations of one configuration:
+ * <ul>
+ * <li>Rate limit: at most maxRowsPerSecond rows are written (over all threads).</li>
+ * <li>Adaptive backoff: if a batch takes longer than maxBatchMillis, a pause after each batch is doubled (up to maxBackoffMillis) and
+ * decreased again while the batches are fast enough.</li>
+ * <li>Pause/resume: {@link #pause()} blocks all migrations before their next batch until {@link #resume()} is called.</li>
+ * </ul>
+ * The throttle is inactive at default (no limits).
+ * @author Kai Reinhard (k.reinhard@micromata.de)
+ * @see UpdaterConfiguration#getMigrationThrottle()
+ * @see SystemUpdater#pauseMigrations()
+ */
+public class MigrationThrottle
+{
+  private static final org.projectforge.common.Logger log = org.projectforge.common.Logger.getLogger(MigrationThrottle.class);
+
+  private static final long MIN_BACKOFF_MILLIS = 10;
+
+  private int maxRowsPerSecond;
+
+  private long maxBatchMillis;
+
+  private long maxBackoffMillis = 10000;
+
+  private long backoffMillis;
+
+  private long nextPermittedMillis;
+
+  private boolean paused;
+
+  /**
+   * @param maxRowsPerSecond Maximum number of written rows per second over all threads (0 for no limit, default).
+   * @return this for chaining.
+   */
+  public synchronized MigrationThrottle setMaxRowsPerSecond(final int maxRowsPerSecond)
+  {
+    this.maxRowsPerSecond = maxRowsPerSecond;
+    return this;
+  }
+
+  public synchronized int getMaxRowsPerSecond()
+  {
+    return maxRowsPerSecond;
+  }
+
+  /**
+   * @param maxBatchMillis If a batch takes longer, the backoff pause after each batch is increased (0 for no adaptive backoff, default).
+   * @return this for chaining.
+   */
+  public synchronized MigrationThrottle setMaxBatchMillis(final long maxBatchMillis)
+  {
+    this.maxBatchMillis = maxBatchMillis;
+    return this;
+  }
+
+  public synchronized long getMaxBatchMillis()
+  {
+    return maxBatchMillis;
+  }
+
+  /**
+   * @param maxBackoffMillis The upper limit of the backoff pause (default is 10,000ms).
+   * @return this for chaining.
+   */
+  public synchronized MigrationThrottle setMaxBackoffMillis(final long maxBackoffMillis)
+  {
+    this.maxBackoffMillis = maxBackoffMillis;
+    return this;
+  }
+
+  public synchronized long getMaxBackoffMillis()
+  {
+    return maxBackoffMillis;
+  }
+
+  /**
+   * @return The current backoff pause after each batch.
+   */
+  public synchronized long getBackoffMillis()
+  {
+    return backoffMillis;
+  }
+
+  public synchronized void pause()
+  {
+    if (paused == false) {
+      log.info("Migrations paused.");
+    }
+    paused = true;
+  }
+
+  public synchronized void resume()
+  {
+    if (paused == true) {
+      log.info("Migrations resumed.");
+    }
+    paused = false;
+    notifyAll();
+  }
+
+  public synchronized boolean isPaused()
+  {
+    return paused;
+  }
+
+  /**
+   * Should be called after each committed batch (or chunk). Adapts the backoff to the given latency and blocks the calling thread as long
+   * as required by the rate limit, the backoff and the pause state.
+   * @param rows The number of rows written by the batch.
+   * @param millis The duration of the batch.
+   */
+  public void afterBatch(final int rows, final long millis)
+  {
+    final long sleepMillis;
+    synchronized (this) {
+      if (maxBatchMillis > 0) {
+        if (millis > maxBatchMillis) {
+          backoffMillis = Math.min(Math.max(backoffMillis * 2, MIN_BACKOFF_MILLIS), maxBackoffMillis);
+          log.info("Batch took " + millis + "ms (more than " + maxBatchMillis + "ms), backoff increased to " + backoffMillis + "ms.");
+        } else if (backoffMillis > 0) {
+          backoffMillis = backoffMillis / 2 < MIN_BACKOFF_MILLIS ? 0 : backoffMillis / 2;
+        }
+      }
+      final long now = System.currentTimeMillis();
+      long permitted = now;
+      if (maxRowsPerSecond > 0) {
+        // Reserve the time slot for the written rows, so concurrent threads are paced together:
+        permitted = Math.max(now, nextPermittedMillis);
+        nextPermittedMillis = permitted + rows * 1000L / maxRowsPerSecond;
+      }
+      sleepMillis = permitted - now + backoffMillis;
+    }
+    try {
+      if (sleepMillis > 0) {
+        Thread.sleep(sleepMillis);
+      }
+      waitWhilePaused();
+    } catch (final InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(ex);
+    }
+  }
+
+  /**
+   * Blocks the calling thread until the migrations are resumed.
+   */
+  public synchronized void waitWhilePaused() throws InterruptedException
+  {
+    while (paused == true) {
+      wait();
+    }
+  }
+}
@@ -0,0 +1,50 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2014 Kai Reinhard (k.reinhard@micromata.de)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+package org.projectforge.continuousdb;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * Maps the rows of a result set directly to objects of the caller's type. Mappers are stateful (they may resolve column indexes in
+ * {@link #init(ResultSetMetaData)}) and shouldn't be shared by concurrent queries.
+ * @author Kai Reinhard (k.reinhard@micromata.de)
+ * @see ExtendedDatabaseExecutor#query(String, RowMapper, Object...)
+ * @see RowMappers
+ */
+public interface RowMapper<T>
+{
+  /**
+   * Called once per result set before the first row is mapped.
+   * @param metaData
+   */
+  public void init(ResultSetMetaData metaData) throws SQLException;
+
+  /**
+   * @param rs The result set positioned on the current row.
+   * @param rowNum Starts with 0.
+   */
+  public T mapRow(ResultSet rs, int rowNum) throws SQLException;
+}
@@ -0,0 +1,205 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2014 Kai Reinhard (k.reinhard@micromata.de)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+package org.projectforge.continuousdb;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.projectforge.continuousdb.jdbc.DatabaseResultCompactRowImpl;
+import org.projectforge.continuousdb.jdbc.DatabaseResultHeader;
+
+/**
+ * Some often used {@link RowMapper}s. All methods return new instances, because mappers keep the resolved meta data of their result set.
+ * @author Kai Reinhard (k.reinhard@micromata.de)
+ * 
+ */
+public class RowMappers
+{
+  /**
+   * Maps the rows to {@link DatabaseResultRow}s sharing one {@link DatabaseResultHeader}.
+   */
+  public static RowMapper<DatabaseResultRow> databaseResultRow()
+  {
+    return new RowMapper<DatabaseResultRow>() {
+      private DatabaseResultHeader header;
+
+      @Override
+      public void init(final ResultSetMetaData metaData) throws SQLException
+      {
+        header = DatabaseResultHeader.create(metaData);
+      }
+
+      @Override
+      public DatabaseResultRow mapRow(final ResultSet rs, final int rowNum) throws SQLException
+      {
+        return new DatabaseResultCompactRowImpl(header, getValues(rs, header.getColumnCount()));
+      }
+    };
+  }
+
+  /**
+   * Maps each row to an array of its column values.
+   */
+  public static RowMapper<Object[]> objectArray()
+  {
+    return new RowMapper<Object[]>() {
+      private int columnCount;
+
+      @Override
+      public void init(final ResultSetMetaData metaData) throws SQLException
+      {
+        columnCount = metaData.getColumnCount();
+      }
+
+      @Override
+      public Object[] mapRow(final ResultSet rs, final int rowNum) throws SQLException
+      {
+        return getValues(rs, columnCount);
+      }
+    };
+  }
+
+  /**
+   * Maps the first column of each row. Numbers are converted to the given type (Integer, Long, Short, Double, Float, BigDecimal or their
+   * primitive types), any other type is read as String or object.
+   * @param type
+   */
+  public static <T> RowMapper<T> singleColumn(final Class<T> type)
+  {
+    return new RowMapper<T>() {
+      @Override
+      public void init(final ResultSetMetaData metaData) throws SQLException
+      {
+        // Nothing to resolve.
+      }
+
+      @SuppressWarnings("unchecked")
+      @Override
+      public T mapRow(final ResultSet rs, final int rowNum) throws SQLException
+      {
+        final Object value = type == String.class ? rs.getString(1) : rs.getObject(1);
+        return (T) convert(value, type);
+      }
+    };
+  }
+
+  /**
+   * Maps the columns to the setters of a new bean instance per row. A column matches a property if the names are equal ignoring the case
+   * and underscores, e.g. column last_name matches setLastName. Columns without setter are ignored. The setters are resolved only once
+   * per result set.
+   * @param beanClass Needs a public default constructor.
+   */
+  public static <T> RowMapper<T> bean(final Class<T> beanClass)
+  {
+    return new RowMapper<T>() {
+      private Method[] setters;
+
+      @Override
+      public void init(final ResultSetMetaData metaData) throws SQLException
+      {
+        final Map<String, Method> map = new HashMap<String, Method>();
+        for (final Method method : beanClass.getMethods()) {
+          if (method.getName().startsWith("set") == true
+              && method.getParameterTypes().length == 1
+              && Modifier.isStatic(method.getModifiers()) == false) {
+            map.put(normalize(method.getName().substring(3)), method);
+          }
+        }
+        setters = new Method[metaData.getColumnCount()];
+        for (int i = 0; i < setters.length; i++) {
+          setters[i] = map.get(normalize(metaData.getColumnName(i + 1)));
+        }
+      }
+
+      @Override
+      public T mapRow(final ResultSet rs, final int rowNum) throws SQLException
+      {
+        try {
+          final T bean = beanClass.newInstance();
+          for (int i = 0; i < setters.length; i++) {
+            final Method setter = setters[i];
+            if (setter == null) {
+              continue;
+            }
+            final Class< ? > type = setter.getParameterTypes()[0];
+            final Object value = convert(rs.getObject(i + 1), type);
+            if (value == null && type.isPrimitive() == true) {
+              continue;
+            }
+            setter.invoke(bean, value);
+          }
+          return bean;
+        } catch (final SQLException ex) {
+          throw ex;
+        } catch (final Exception ex) {
+          throw new RuntimeException(ex);
+        }
+      }
+    };
+  }
+
+  private static Object[] getValues(final ResultSet rs, final int columnCount) throws SQLException
+  {
+    final Object[] values = new Object[columnCount];
+    for (int i = 0; i < columnCount; i++) {
+      values[i] = rs.getObject(i + 1);
+    }
+    return values;
+  }
+
+  private static String normalize(final String name)
+  {
+    return name.replace("_", "").toLowerCase();
+  }
+
+  static Object convert(final Object value, final Class< ? > type)
+  {
+    if (value instanceof Number == false || type.isInstance(value) == true) {
+      return value;
+    }
+    final Number number = (Number) value;
+    if (type == Integer.class || type == Integer.TYPE) {
+      return number.intValue();
+    } else if (type == Long.class || type == Long.TYPE) {
+      return number.longValue();
+    } else if (type == Short.class || type == Short.TYPE) {
+      return number.shortValue();
+    } else if (type == Double.class || type == Double.TYPE) {
+      return number.doubleValue();
+    } else if (type == Float.class || type == Float.TYPE) {
+      return number.floatValue();
+    } else if (type == BigDecimal.class) {
+      return new BigDecimal(number.toString());
+    } else if (type == String.class) {
+      return number.toString();
+    }
+    return value;
+  }
+}
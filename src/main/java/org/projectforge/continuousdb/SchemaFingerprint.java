@@ -0,0 +1,167 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2014 Kai Reinhard (k.reinhard@micromata.de)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+package org.projectforge.continuousdb;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.persistence.UniqueConstraint;
+
+/**
+ * Fingerprints of the entity model and of the applied update versions. If both are equal to the fingerprints stored in the database after
+ * the last successful check, the pre-checks on application start can be skipped.
+ * @author Kai Reinhard (k.reinhard@micromata.de)
+ * @see SystemUpdater#registerEntities(Class...)
+ * @see DatabaseUpdateDao#SCHEMA_FINGERPRINT_TABLE
+ */
+public class SchemaFingerprint
+{
+  /**
+   * @param tables
+   * @return The SHA-1 hash (hex) of the descriptors of all given tables and their attributes (independent of their order).
+   */
+  public static String compute(final Collection<Table> tables)
+  {
+    final List<String> descriptors = new ArrayList<String>(tables.size());
+    for (final Table table : tables) {
+      descriptors.add(getDescriptor(table));
+    }
+    Collections.sort(descriptors);
+    final StringBuffer buf = new StringBuffer();
+    for (final String descriptor : descriptors) {
+      buf.append(descriptor).append("\n");
+    }
+    return hash(buf.toString());
+  }
+
+  /**
+   * @param updateEntries
+   * @return The newest version of each region, e. g. "core:5.3;plugin:1.0", sorted by region.
+   */
+  public static String computeVersions(final Collection<UpdateEntry> updateEntries)
+  {
+    final TreeMap<String, UpdateEntry> newest = new TreeMap<String, UpdateEntry>();
+    for (final UpdateEntry entry : updateEntries) {
+      final UpdateEntry other = newest.get(entry.getRegionId());
+      if (other == null || entry.compareTo(other) < 0) {
+        // compareTo sorts in descending order.
+        newest.put(entry.getRegionId(), entry);
+      }
+    }
+    final StringBuffer buf = new StringBuffer();
+    boolean first = true;
+    for (final UpdateEntry entry : newest.values()) {
+      if (first == true) {
+        first = false;
+      } else {
+        buf.append(";");
+      }
+      buf.append(entry.getRegionId()).append(":").append(entry.getVersion());
+    }
+    return buf.toString();
+  }
+
+  static String getDescriptor(final Table table)
+  {
+    final StringBuffer buf = new StringBuffer();
+    buf.append(table.getName().toLowerCase()).append("(");
+    final List<TableAttribute> attributes = new ArrayList<TableAttribute>(table.getAttributes());
+    Collections.sort(attributes, new Comparator<TableAttribute>() {
+      @Override
+      public int compare(final TableAttribute o1, final TableAttribute o2)
+      {
+        return o1.getName().compareToIgnoreCase(o2.getName());
+      }
+    });
+    final Set<String> seen = new HashSet<String>();
+    for (final TableAttribute attr : attributes) {
+      if (seen.add(attr.getName().toLowerCase()) == false) {
+        continue;
+      }
+      buf.append(attr.getName().toLowerCase()).append(" ").append(attr.getType());
+      if (attr.getType() == TableAttributeType.VARCHAR || attr.getType() == TableAttributeType.CHAR) {
+        buf.append("(").append(attr.getLength()).append(")");
+      } else if (attr.getType() == TableAttributeType.DECIMAL) {
+        buf.append("(").append(attr.getPrecision()).append(",").append(attr.getScale()).append(")");
+      }
+      if (attr.isNullable() == false) {
+        buf.append(" not null");
+      }
+      if (attr.isPrimaryKey() == true) {
+        buf.append(" pk");
+      }
+      if (attr.isUnique() == true) {
+        buf.append(" unique");
+      }
+      if (attr.getForeignTable() != null) {
+        buf.append(" -> ").append(attr.getForeignTable().toLowerCase()).append(".").append(attr.getForeignAttribute());
+      }
+      if (attr.getDefaultValue() != null) {
+        buf.append(" default ").append(attr.getDefaultValue());
+      }
+      buf.append(",");
+    }
+    buf.append(")");
+    final UniqueConstraint[] uniqueConstraints = table.getUniqueConstraints();
+    if (uniqueConstraints != null) {
+      final List<String> constraints = new ArrayList<String>();
+      for (final UniqueConstraint constraint : uniqueConstraints) {
+        final StringBuffer sb = new StringBuffer();
+        for (final String column : constraint.columnNames()) {
+          sb.append(column.toLowerCase()).append(",");
+        }
+        constraints.add(sb.toString());
+      }
+      Collections.sort(constraints);
+      buf.append(" unique").append(constraints);
+    }
+    return buf.toString();
+  }
+
+  private static String hash(final String str)
+  {
+    try {
+      final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      final byte[] bytes = digest.digest(str.getBytes("UTF-8"));
+      final StringBuffer buf = new StringBuffer();
+      for (final byte b : bytes) {
+        buf.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+      }
+      return buf.toString();
+    } catch (final NoSuchAlgorithmException ex) {
+      throw new RuntimeException(ex);
+    } catch (final UnsupportedEncodingException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+}
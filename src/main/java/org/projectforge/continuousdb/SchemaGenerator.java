@@ -23,8 +23,25 @@
 
 package org.projectforge.continuousdb;
 
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.persistence.JoinColumn;
 import javax.persistence.JoinTable;
@@ -33,6 +50,7 @@ import javax.persistence.OneToMany;
 import javax.persistence.OrderColumn;
 
 import org.apache.commons.collections.CollectionUtils;
+import org.apache.commons.lang.StringUtils;
 
 /**
  * 
@@ -47,6 +65,21 @@ public class SchemaGenerator
 
   private final List<Table> tables = new LinkedList<Table>();
 
+  private final Map<Class< ? >, Table> tablesByEntity = new HashMap<Class< ? >, Table>();
+
+  /**
+   * Key is the lower case name.
+   */
+  private final Map<String, Table> tablesByName = new HashMap<String, Table>();
+
+  private boolean deferForeignKeys;
+
+  private boolean createForeignKeyIndices;
+
+  private int parallelism = 1;
+
+  private boolean prepared;
+
   public SchemaGenerator(final DatabaseUpdateDao dao)
   {
     this.dao = dao;
@@ -60,29 +93,408 @@ public class SchemaGenerator
   {
     if (tables != null) {
       for (final Table table : tables) {
-        this.tables.add(table);
+        addTable(table);
       }
     }
     return this;
   }
 
+  /**
+   * If true, all tables are created without foreign key constraints first, the foreign key constraints are added afterwards. This is
+   * needed for cyclic foreign keys between tables. Default is false (foreign keys are part of the create table statements).
+   * @param deferForeignKeys
+   * @return this for chaining.
+   */
+  public SchemaGenerator setDeferForeignKeys(final boolean deferForeignKeys)
+  {
+    this.deferForeignKeys = deferForeignKeys;
+    return this;
+  }
+
+  /**
+   * If true, {@link #createSchema()} and {@link #exportSchema(Writer, boolean)} create an index for every foreign key column of the new
+   * tables (named by {@link DatabaseUpdateDao#getForeignKeyIndexName(String, String)}). Default is false.
+   * @param createForeignKeyIndices
+   * @return this for chaining.
+   */
+  public SchemaGenerator setCreateForeignKeyIndices(final boolean createForeignKeyIndices)
+  {
+    this.createForeignKeyIndices = createForeignKeyIndices;
+    return this;
+  }
+
+  /**
+   * Number of threads (and database connections) used by {@link #createSchema()}. If greater than 1, the missing tables are created
+   * concurrently without foreign keys, and the foreign key constraints (and the indices of the foreign key columns if enabled) are created
+   * concurrently afterwards (foreign keys are always deferred). This mode is intended for the set-up of empty databases. Default is 1. <br/>
+   * The created schema is the same as of the sequential mode with deferred foreign keys. As in the sequential mode failures are logged and
+   * don't stop the creation of the other tables. Foreign keys are only added to successfully created tables and foreign keys failed
+   * concurrently (e. g. due to lock conflicts) are retried one by one.
+   * @param parallelism
+   * @return this for chaining.
+   */
+  public SchemaGenerator setParallelism(final int parallelism)
+  {
+    this.parallelism = parallelism;
+    return this;
+  }
+
+  /**
+   * Creates all missing tables. The tables are created in the order of their foreign keys (referenced tables first), independent of the
+   * order the tables were added.
+   * @return this for chaining.
+   * @throws IllegalStateException if the foreign keys of the missing tables are cyclic and foreign keys aren't deferred.
+   * @see #setDeferForeignKeys(boolean)
+   * @see #setParallelism(int)
+   */
   public SchemaGenerator createSchema()
   {
+    prepare();
+    final Collection<Table> missing = getMissingTables();
+    if (parallelism > 1 && missing.size() > 1) {
+      createSchemaInParallel(missing);
+      return this;
+    }
+    final List<Table> createdTables = new ArrayList<Table>();
+    for (final Table table : sortByForeignKeys(missing, deferForeignKeys == false)) {
+      if (dao.createTable(table, deferForeignKeys == false) == true) {
+        createdTables.add(table);
+      }
+    }
+    for (final Table table : createdTables) {
+      if (deferForeignKeys == true) {
+        dao.addForeignKeyConstraints(table);
+      }
+      if (createForeignKeyIndices == true) {
+        dao.createForeignKeyIndices(table);
+      }
+    }
+    return this;
+  }
+
+  private void createSchemaInParallel(final Collection<Table> missingTables)
+  {
+    log.info("Creating " + missingTables.size() + " tables with " + parallelism + " threads.");
+    // Without foreign keys the tables are independent of each other:
+    final Map<Table, Throwable> failures = runInParallel(missingTables, new TableTask() {
+      @Override
+      public void run(final Table table)
+      {
+        dao.createTable(table, false, false);
+      }
+    });
+    final List<Table> createdTables = new ArrayList<Table>(missingTables);
+    createdTables.removeAll(failures.keySet());
+    final Map<Table, Throwable> foreignKeyFailures = runInParallel(createdTables, new TableTask() {
+      @Override
+      public void run(final Table table)
+      {
+        dao.addForeignKeyConstraints(table, false);
+        if (createForeignKeyIndices == true) {
+          dao.createForeignKeyIndices(table);
+        }
+      }
+    });
+    // Concurrent foreign key constraints may fail due to lock conflicts (e. g. dead locks of cyclic references), so retry them one by one:
+    for (final Table table : foreignKeyFailures.keySet()) {
+      log.info("Retrying foreign keys of table '" + table.getName() + "'.");
+      try {
+        dao.addMissingForeignKeyConstraints(table);
+        if (createForeignKeyIndices == true) {
+          dao.createForeignKeyIndices(table);
+        }
+      } catch (final RuntimeException ex) {
+        log.error("Error while adding foreign keys of table '" + table.getName() + "': " + ex.getMessage(), ex);
+        failures.put(table, ex);
+      }
+    }
+    if (failures.isEmpty() == false) {
+      final StringBuffer buf = new StringBuffer();
+      for (final Table table : failures.keySet()) {
+        buf.append(buf.length() > 0 ? ", " : "").append(table.getName());
+      }
+      log.error("Error while creating the schema, failed tables: " + buf);
+    }
+  }
+
+  /**
+   * Runs the task for all tables on a thread pool, every task within its own database session.
+   * @return The tables for which the task has thrown an exception with their exceptions.
+   */
+  private Map<Table, Throwable> runInParallel(final Collection<Table> tables, final TableTask task)
+  {
+    final Map<Table, Throwable> failures = new LinkedHashMap<Table, Throwable>();
+    if (tables.isEmpty() == true) {
+      return failures;
+    }
+    final ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, tables.size()));
+    try {
+      final Map<Table, Future<Object>> futures = new LinkedHashMap<Table, Future<Object>>();
+      for (final Table table : tables) {
+        futures.put(table, executor.submit(new Callable<Object>() {
+          @Override
+          public Object call()
+          {
+            return dao.doInSession(new DatabaseSessionCallback<Object>() {
+              @Override
+              public Object doInSession(final DatabaseSession session)
+              {
+                task.run(table);
+                return null;
+              }
+            });
+          }
+        }));
+      }
+      for (final Map.Entry<Table, Future<Object>> entry : futures.entrySet()) {
+        try {
+          entry.getValue().get();
+        } catch (final ExecutionException ex) {
+          log.warn("Error while processing table '" + entry.getKey().getName() + "': " + ex.getCause());
+          failures.put(entry.getKey(), ex.getCause());
+        } catch (final InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          throw new RuntimeException(ex);
+        }
+      }
+      return failures;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private interface TableTask
+  {
+    void run(Table table);
+  }
+
+  /**
+   * Writes the DDL script of the schema to the given writer instead of executing it, e. g. for applying it by database tools. The
+   * statements are ordered: create table statements (without foreign keys, in the order of the foreign keys), add column statements for
+   * existing tables, foreign key constraints and indices of the foreign key columns (if enabled by
+   * {@link #setCreateForeignKeyIndices(boolean)}).
+   * @param writer The writer isn't closed.
+   * @param emptyDatabase If true, the script creates the whole schema without any database access (e. g. for new databases). Otherwise
+   *          the script contains only the differences to the existing schema (read via {@link DatabaseUpdateDao#getSchemaSnapshot()}).
+   * @return this for chaining.
+   */
+  public SchemaGenerator exportSchema(final Writer writer, final boolean emptyDatabase)
+  {
+    prepare();
+    final SchemaSnapshot snapshot = emptyDatabase == true ? null : dao.getSchemaSnapshot();
+    final List<Table> newTables = new ArrayList<Table>();
+    final Map<Table, List<TableAttribute>> newAttributes = new LinkedHashMap<Table, List<TableAttribute>>();
+    for (final Table table : getTablesToCreate()) {
+      if (snapshot == null || snapshot.doesTableExist(table.getName()) == false) {
+        newTables.add(table);
+        continue;
+      }
+      final Map<String, String> columns = snapshot.getColumns(table.getName());
+      final List<TableAttribute> missingAttributes = new ArrayList<TableAttribute>();
+      for (final TableAttribute attr : table.getAttributes()) {
+        if (attr.getType().isIn(TableAttributeType.LIST, TableAttributeType.SET) == true) {
+          continue;
+        }
+        if (columns.containsKey(attr.getName().toLowerCase()) == false) {
+          missingAttributes.add(attr);
+        }
+      }
+      if (missingAttributes.isEmpty() == false) {
+        newAttributes.put(table, missingAttributes);
+      }
+    }
+    final StringBuffer buf = new StringBuffer();
+    buf.append("-- Schema script (").append(dao.getDialect()).append("): ").append(newTables.size()).append(" tables to create, ")
+    .append(newAttributes.size()).append(" tables to alter.\n\n");
+    write(writer, buf);
+    for (final Table table : sortByForeignKeys(newTables, false)) {
+      dao.buildCreateTableStatement(buf, table, false);
+      buf.append("\n");
+      write(writer, buf);
+    }
+    final Map<String, String> noColumns = Collections.emptyMap();
+    for (final Map.Entry<Table, List<TableAttribute>> entry : newAttributes.entrySet()) {
+      // Contains the foreign keys of the new columns:
+      dao.buildAddTableAttributesStatement(buf, entry.getKey().getName(), noColumns, entry.getValue().toArray(new TableAttribute[0]));
+      buf.append("\n");
+      write(writer, buf);
+    }
+    for (final Table table : newTables) {
+      for (final TableAttribute attr : table.getAttributes()) {
+        if (StringUtils.isNotEmpty(attr.getForeignTable()) == true) {
+          dao.buildForeignKeyConstraint(buf, table.getName(), attr);
+        }
+      }
+      write(writer, buf);
+    }
+    buf.append("\n");
+    if (createForeignKeyIndices == true) {
+      for (final Table table : newTables) {
+        buildForeignKeyIndexStatements(buf, snapshot, table, table.getAttributes());
+        write(writer, buf);
+      }
+      for (final Map.Entry<Table, List<TableAttribute>> entry : newAttributes.entrySet()) {
+        buildForeignKeyIndexStatements(buf, snapshot, entry.getKey(), entry.getValue());
+        write(writer, buf);
+      }
+    }
+    try {
+      writer.flush();
+    } catch (final IOException ex) {
+      throw new RuntimeException(ex);
+    }
+    return this;
+  }
+
+  /**
+   * @param snapshot If given, existing indices are skipped.
+   */
+  private void buildForeignKeyIndexStatements(final StringBuffer buf, final SchemaSnapshot snapshot, final Table table,
+      final List<TableAttribute> attributes)
+  {
+    final String tableName = table.getName().toLowerCase();
+    for (final TableAttribute attr : attributes) {
+      if (StringUtils.isNotEmpty(attr.getForeignTable()) == false) {
+        continue;
+      }
+      final String column = attr.getName().toLowerCase();
+      final String indexName = dao.getForeignKeyIndexName(tableName, column);
+      if (snapshot != null && snapshot.doesIndexExist(tableName, indexName) == true) {
+        continue;
+      }
+      dao.buildCreateIndexStatement(buf, indexName, tableName, column);
+    }
+  }
+
+  /**
+   * Writes and clears the buffer.
+   */
+  private void write(final Writer writer, final StringBuffer buf)
+  {
+    try {
+      writer.write(buf.toString());
+    } catch (final IOException ex) {
+      throw new RuntimeException(ex);
+    }
+    buf.setLength(0);
+  }
+
+  /**
+   * Prepares the tables only once (join tables, one-to-many columns and attributes of super tables), so {@link #createSchema()} and
+   * {@link #exportSchema(Writer, boolean)} may be called both. Please add all tables before.
+   */
+  private void prepare()
+  {
+    if (prepared == true) {
+      return;
+    }
     prepareOneToMany();
     prepareManyToMany();
     prepareSuperTables();
+    prepared = true;
+  }
+
+  /**
+   * @return The tables (or their super tables) to create in the order of adding.
+   */
+  private Collection<Table> getTablesToCreate()
+  {
+    final Set<Table> result = new LinkedHashSet<Table>();
     for (final Table table : tables) {
       final Table superTable = table.getSuperTable();
-      if (superTable != null) {
-        if (dao.doExist(superTable) == true) {
+      result.add(superTable != null ? superTable : table);
+    }
+    return result;
+  }
+
+  /**
+   * @return The tables (or their super tables) not yet existing in the database in the order of adding.
+   */
+  private Collection<Table> getMissingTables()
+  {
+    final List<Table> missingTables = new ArrayList<Table>();
+    for (final Table table : getTablesToCreate()) {
+      if (dao.doExist(table) == false) {
+        missingTables.add(table);
+      }
+    }
+    return missingTables;
+  }
+
+  /**
+   * Sorts the given tables topologically: every table is placed after the tables referenced by its foreign keys. Self references and
+   * references to tables not contained in the given collection are ignored. Otherwise the order of the given tables is preserved.
+   * @param tables
+   * @param failOnCycle If true, cyclic foreign keys result in an exception, otherwise the tables of the cycles are appended in the given
+   *          order.
+   * @return The sorted tables.
+   * @throws IllegalStateException if failOnCycle is true and cyclic foreign keys are detected.
+   */
+  static List<Table> sortByForeignKeys(final Collection<Table> tables, final boolean failOnCycle)
+  {
+    final List<Table> list = new ArrayList<Table>(tables);
+    final Map<String, Integer> indexByName = new HashMap<String, Integer>();
+    for (int i = 0; i < list.size(); i++) {
+      final String name = list.get(i).getName();
+      if (name != null && indexByName.containsKey(name.toLowerCase()) == false) {
+        indexByName.put(name.toLowerCase(), i);
+      }
+    }
+    final int[] dependencies = new int[list.size()];
+    final List<List<Integer>> dependents = new ArrayList<List<Integer>>();
+    for (int i = 0; i < list.size(); i++) {
+      dependents.add(new ArrayList<Integer>());
+    }
+    for (int i = 0; i < list.size(); i++) {
+      final Set<Integer> referenced = new HashSet<Integer>();
+      for (final TableAttribute attr : list.get(i).getAttributes()) {
+        final String foreignTable = attr.getForeignTable();
+        if (foreignTable == null) {
           continue;
         }
-        dao.createTable(superTable);
-      } else if (dao.doExist(table) == false) {
-        dao.createTable(table);
+        final Integer index = indexByName.get(foreignTable.toLowerCase());
+        if (index == null || index == i || referenced.add(index) == false) {
+          // Existing table, self reference or already handled.
+          continue;
+        }
+        ++dependencies[i];
+        dependents.get(index).add(i);
       }
     }
-    return this;
+    // Kahn's algorithm, the lowest index is taken first for preserving the given order as far as possible.
+    final PriorityQueue<Integer> ready = new PriorityQueue<Integer>();
+    for (int i = 0; i < list.size(); i++) {
+      if (dependencies[i] == 0) {
+        ready.add(i);
+      }
+    }
+    final List<Table> result = new ArrayList<Table>(list.size());
+    while (ready.isEmpty() == false) {
+      final int index = ready.poll();
+      result.add(list.get(index));
+      for (final Integer dependent : dependents.get(index)) {
+        if (--dependencies[dependent] == 0) {
+          ready.add(dependent);
+        }
+      }
+    }
+    if (result.size() < list.size()) {
+      final List<Table> cycle = new ArrayList<Table>();
+      final List<String> names = new ArrayList<String>();
+      for (int i = 0; i < list.size(); i++) {
+        if (dependencies[i] > 0) {
+          cycle.add(list.get(i));
+          names.add(list.get(i).getName());
+        }
+      }
+      if (failOnCycle == true) {
+        throw new IllegalStateException("Cyclic foreign keys detected between the tables " + names
+            + ". Please use SchemaGenerator.setDeferForeignKeys(true).");
+      }
+      log.info("Cyclic foreign keys detected between the tables " + names + ", foreign keys are deferred.");
+      result.addAll(cycle);
+    }
+    return result;
   }
 
   void prepareSuperTables()
@@ -268,24 +680,22 @@ public class SchemaGenerator
         if (exisitingSuperTable != null) {
           table.setSuperTable(exisitingSuperTable);
         } else {
-          tables.add(superTable);
           superTable.autoAddAttributes();
+          addTable(superTable);
         }
       }
       table.autoAddAttributes();
-      tables.add(table);
+      addTable(table);
     }
     return this;
   }
 
   public Table getTable(final Class< ? > entityClass)
   {
-    for (final Table table : tables) {
-      if (table.getEntityClass().equals(entityClass) == true) {
-        return table;
-      }
+    if (entityClass == null) {
+      return null;
     }
-    return null;
+    return tablesByEntity.get(entityClass);
   }
 
   /**
@@ -297,12 +707,23 @@ public class SchemaGenerator
     if (name == null) {
       return null;
     }
-    final String lowercase = name.toLowerCase();
-    for (final Table table : tables) {
-      if (lowercase.equals(table.getName().toLowerCase()) == true) {
-        return table;
-      }
+    return tablesByName.get(name.toLowerCase());
+  }
+
+  /**
+   * Adds the table and indexes it by entity class and name. The first added table wins (as of a list scan).
+   * @param table
+   */
+  private void addTable(final Table table)
+  {
+    tables.add(table);
+    final Class< ? > entityClass = table.getEntityClass();
+    if (entityClass != null && tablesByEntity.containsKey(entityClass) == false) {
+      tablesByEntity.put(entityClass, table);
+    }
+    final String name = table.getName();
+    if (name != null && tablesByName.containsKey(name.toLowerCase()) == false) {
+      tablesByName.put(name.toLowerCase(), table);
     }
-    return null;
   }
 }
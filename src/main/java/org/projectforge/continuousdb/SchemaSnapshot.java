@@ -0,0 +1,290 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2014 Kai Reinhard (k.reinhard@micromata.de)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+package org.projectforge.continuousdb;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Cache of the database catalog (tables, columns with their types, unique and foreign key constraints and indices) used by
+ * {@link DatabaseUpdateDao}. The catalog is read lazily: the table names by one query and the columns, constraints and indices by one
+ * query per table. All schema
+ * modifications done through the {@link DatabaseUpdateDao} patch or invalidate the affected entries. Please call {@link #invalidate()} (or
+ * {@link DatabaseUpdateDao#invalidateSchemaSnapshot()}) if the schema is modified by other means. <br/>
+ * All table, column and index names are handled case insensitive. The snapshot is thread safe; the catalog queries are executed without
+ * holding the lock, so concurrent callers (e. g. parallel pre-checks) don't wait for each other.
+ * @author Kai Reinhard (k.reinhard@micromata.de)
+ */
+public class SchemaSnapshot
+{
+  private final DatabaseUpdateDao dao;
+
+  private Set<String> tables;
+
+  private final Map<String, Map<String, String>> columns = new HashMap<String, Map<String, String>>();
+
+  private final Map<String, String[]> uniqueConstraintNames = new HashMap<String, String[]>();
+
+  private final Map<String, Set<String>> indexNames = new HashMap<String, Set<String>>();
+
+  private final Map<String, Set<String>> foreignKeyNames = new HashMap<String, Set<String>>();
+
+  /**
+   * Incremented by each modification, so results loaded concurrently to a modification aren't cached.
+   */
+  private long modifications;
+
+  SchemaSnapshot(final DatabaseUpdateDao dao)
+  {
+    this.dao = dao;
+  }
+
+  public boolean doesTableExist(final String table)
+  {
+    if (table == null) {
+      return false;
+    }
+    final String key = table.toLowerCase();
+    final long version;
+    synchronized (this) {
+      if (tables != null) {
+        return tables.contains(key);
+      }
+      version = modifications;
+    }
+    final Set<String> result = dao.loadTableNames();
+    synchronized (this) {
+      if (tables == null && version == modifications) {
+        tables = result;
+      }
+      return result.contains(key);
+    }
+  }
+
+  /**
+   * @param table
+   * @return The lower case column names mapped to the database type names. The map is empty if the table doesn't exist.
+   */
+  public Map<String, String> getColumns(final String table)
+  {
+    final String key = table.toLowerCase();
+    final long version;
+    synchronized (this) {
+      final Map<String, String> result = columns.get(key);
+      if (result != null) {
+        return result;
+      }
+      version = modifications;
+    }
+    final Map<String, String> result = Collections.unmodifiableMap(dao.loadColumns(table));
+    synchronized (this) {
+      if (version == modifications) {
+        columns.put(key, result);
+      }
+    }
+    return result;
+  }
+
+  public boolean doesColumnExist(final String table, final String column)
+  {
+    return getColumns(table).containsKey(column.toLowerCase());
+  }
+
+  /**
+   * @param table
+   * @param column
+   * @return The database type name of the given column or null if the column doesn't exist.
+   */
+  public String getColumnType(final String table, final String column)
+  {
+    return getColumns(table).get(column.toLowerCase());
+  }
+
+  /**
+   * @param table
+   * @return The names of the unique constraints or null if no unique constraint exists.
+   */
+  public String[] getUniqueConstraintNames(final String table)
+  {
+    final String key = table.toLowerCase();
+    final long version;
+    synchronized (this) {
+      if (uniqueConstraintNames.containsKey(key) == true) {
+        return uniqueConstraintNames.get(key);
+      }
+      version = modifications;
+    }
+    final String[] result = dao.loadUniqueConstraintNames(table);
+    synchronized (this) {
+      if (version == modifications) {
+        uniqueConstraintNames.put(key, result);
+      }
+    }
+    return result;
+  }
+
+  public boolean doesIndexExist(final String table, final String index)
+  {
+    final String key = table.toLowerCase();
+    final long version;
+    synchronized (this) {
+      final Set<String> result = indexNames.get(key);
+      if (result != null) {
+        return result.contains(index.toLowerCase());
+      }
+      version = modifications;
+    }
+    final Set<String> result = dao.loadIndexNames(table);
+    synchronized (this) {
+      if (version == modifications) {
+        indexNames.put(key, result);
+      }
+      return result.contains(index.toLowerCase());
+    }
+  }
+
+  public boolean doesForeignKeyExist(final String table, final String constraint)
+  {
+    final String key = table.toLowerCase();
+    final long version;
+    synchronized (this) {
+      final Set<String> result = foreignKeyNames.get(key);
+      if (result != null) {
+        return result.contains(constraint.toLowerCase());
+      }
+      version = modifications;
+    }
+    final Set<String> result = dao.loadForeignKeyNames(table);
+    synchronized (this) {
+      if (version == modifications) {
+        foreignKeyNames.put(key, result);
+      }
+      return result.contains(constraint.toLowerCase());
+    }
+  }
+
+  /**
+   * The table is registered as existing, the columns, constraints and indices of this table will be reloaded on demand.
+   * @param table
+   */
+  public synchronized void tableCreated(final String table)
+  {
+    ++modifications;
+    final String key = table.toLowerCase();
+    if (tables != null) {
+      tables.add(key);
+    }
+    evict(key);
+  }
+
+  public synchronized void tableDropped(final String table)
+  {
+    ++modifications;
+    final String key = table.toLowerCase();
+    if (tables != null) {
+      tables.remove(key);
+    }
+    evict(key);
+  }
+
+  /**
+   * The columns of the given table will be reloaded on demand.
+   * @param table
+   */
+  public synchronized void columnsModified(final String table)
+  {
+    ++modifications;
+    columns.remove(table.toLowerCase());
+  }
+
+  /**
+   * The unique constraints of the given table will be reloaded on demand.
+   * @param table
+   */
+  public synchronized void constraintsModified(final String table)
+  {
+    ++modifications;
+    uniqueConstraintNames.remove(table.toLowerCase());
+  }
+
+  public synchronized void indexCreated(final String table, final String index)
+  {
+    ++modifications;
+    final Set<String> result = indexNames.get(table.toLowerCase());
+    if (result != null) {
+      result.add(index.toLowerCase());
+    }
+  }
+
+  public synchronized void foreignKeyCreated(final String table, final String constraint)
+  {
+    ++modifications;
+    final Set<String> result = foreignKeyNames.get(table.toLowerCase());
+    if (result != null) {
+      result.add(constraint.toLowerCase());
+    }
+  }
+
+  /**
+   * The foreign key constraints of the given table will be reloaded on demand.
+   * @param table
+   */
+  public synchronized void foreignKeysModified(final String table)
+  {
+    ++modifications;
+    foreignKeyNames.remove(table.toLowerCase());
+  }
+
+  public synchronized void indexDropped(final String index)
+  {
+    ++modifications;
+    final String key = index.toLowerCase();
+    for (final Set<String> result : indexNames.values()) {
+      result.remove(key);
+    }
+  }
+
+  /**
+   * Forces the reload of the whole catalog on demand.
+   */
+  public synchronized void invalidate()
+  {
+    ++modifications;
+    tables = null;
+    columns.clear();
+    uniqueConstraintNames.clear();
+    indexNames.clear();
+    foreignKeyNames.clear();
+  }
+
+  private void evict(final String key)
+  {
+    columns.remove(key);
+    uniqueConstraintNames.remove(key);
+    indexNames.remove(key);
+    foreignKeyNames.remove(key);
+  }
+}
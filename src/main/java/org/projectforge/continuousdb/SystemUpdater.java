@@ -23,11 +23,23 @@
 
 package org.projectforge.continuousdb;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * Checks whether the database is up-to-date or not.
@@ -41,6 +53,14 @@ public class SystemUpdater
 
   private SortedSet<UpdateEntry> updateEntries;
 
+  private boolean fullPreCheckAfterUpdate;
+
+  private final List<Class< ? >> entities = new ArrayList<Class< ? >>();
+
+  private String schemaFingerprint;
+
+  private ClusterUpdateLock clusterLock;
+
   public SystemUpdater(final UpdaterConfiguration configuration)
   {
     this.configuration = configuration;
@@ -58,6 +78,36 @@ public class SystemUpdater
     }
   }
 
+  /**
+   * Registers the entities of the application for the schema fingerprint. If any entity is registered, {@link #isUpdated()} skips all
+   * pre-checks as long as neither the entity model nor the update versions have changed since the last successful check. Please note: the
+   * fingerprint is written by {@link #isUpdated()}, so the startup check needs write access to the database then.
+   * @param entities
+   * @see SchemaFingerprint
+   */
+  public synchronized void registerEntities(final Class< ? >... entities)
+  {
+    for (final Class< ? > entity : entities) {
+      this.entities.add(entity);
+    }
+    schemaFingerprint = null;
+  }
+
+  /**
+   * @return The fingerprint of the registered entities or null if no entity is registered.
+   */
+  public synchronized String getSchemaFingerprint()
+  {
+    if (schemaFingerprint == null && entities.isEmpty() == false) {
+      final List<Table> tables = new ArrayList<Table>(entities.size());
+      for (final Class< ? > entity : entities) {
+        tables.add(new Table(entity).autoAddAttributes());
+      }
+      schemaFingerprint = SchemaFingerprint.compute(tables);
+    }
+    return schemaFingerprint;
+  }
+
   /**
    * Only for test case (avoids reading of the update-scripts.xml).
    * @param updateEntries
@@ -79,20 +129,59 @@ public class SystemUpdater
   }
 
   /**
-   * Runs the pre-check test of the first update entry in the list.
+   * Runs the pre-check test of the newest update entry of each region. If entities are registered and the stored schema fingerprint
+   * matches, no pre-check is run at all (one single query). Otherwise the update ledger is loaded once with one single query: the
+   * pre-checks of entries already recorded in the ledger aren't run.
+   * If entities are registered and all entries are already updated, the fingerprint is written afterwards (the table is created on first
+   * use), so this check needs write access to the database (see {@link DatabaseUpdateDao#writeSchemaFingerprint(String, String)}). If the
+   * fingerprint can't be written, the result of the check isn't affected, but the next check runs the pre-checks again.
+   * If the cluster lock is enabled, the check waits for updates running on other nodes.
    * @return true if ALREADY_UPDATED, otherwise false.
+   * @see DatabaseUpdateDao#isVersionUpdated(String, String)
    */
   public boolean isUpdated()
+  {
+    lockCluster();
+    try {
+      return internalIsUpdated();
+    } finally {
+      unlockCluster();
+    }
+  }
+
+  private boolean internalIsUpdated()
   {
     log.info("Checking for database updates...");
+    final String fingerprint = getSchemaFingerprint();
+    final String versions = SchemaFingerprint.computeVersions(getUpdateEntries());
+    if (fingerprint != null) {
+      final String[] stored = getDatabaseUpdateDao().readSchemaFingerprint();
+      if (stored != null && fingerprint.equals(stored[0]) == true && versions.equals(stored[1]) == true) {
+        log.info("Schema fingerprint unchanged, no database updates required (OK).");
+        return true;
+      }
+    }
+    getDatabaseUpdateDao().invalidateSchemaSnapshot();
+    final boolean ledgerAvailable = loadUpdateLedger();
     final Set<String> checkedRegions = new HashSet<String>();
+    final List<UpdateEntry> newestEntries = new ArrayList<UpdateEntry>();
+    final List<UpdateEntry> preCheckEntries = new ArrayList<UpdateEntry>();
     for (final UpdateEntry updateEntry : getUpdateEntries()) {
       if (checkedRegions.contains(updateEntry.getRegionId()) == true) {
         // Check only the newest update entry.
         continue;
       }
       checkedRegions.add(updateEntry.getRegionId());
-      updateEntry.setPreCheckStatus(updateEntry.runPreCheck());
+      newestEntries.add(updateEntry);
+      if (ledgerAvailable == true
+          && getDatabaseUpdateDao().isVersionUpdated(updateEntry.getRegionId(), String.valueOf(updateEntry.getVersion())) == true) {
+        updateEntry.setPreCheckStatus(UpdatePreCheckStatus.ALREADY_UPDATED);
+      } else {
+        preCheckEntries.add(updateEntry);
+      }
+    }
+    runPreChecks(preCheckEntries);
+    for (final UpdateEntry updateEntry : newestEntries) {
       if (updateEntry.getPreCheckStatus() != UpdatePreCheckStatus.ALREADY_UPDATED) {
         log.warn("*** Please note: The database perhaps has to be updated first before running the ProjectForge web app. Please login as administrator. Status '"
             + updateEntry.getPreCheckStatus()
@@ -110,16 +199,121 @@ public class SystemUpdater
       }
     }
     log.info("No database updates found (OK).");
+    if (fingerprint != null) {
+      try {
+        getDatabaseUpdateDao().writeSchemaFingerprint(fingerprint, versions);
+      } catch (final RuntimeException ex) {
+        log.warn("Can't write schema fingerprint: " + ex.getMessage());
+      }
+    }
     return true;
   }
 
+  /**
+   * @return true if the update ledger is loaded successfully.
+   */
+  private boolean loadUpdateLedger()
+  {
+    try {
+      getDatabaseUpdateDao().loadUpdateLedger();
+      return true;
+    } catch (final RuntimeException ex) {
+      log.warn("Can't load the update ledger, running the pre-checks instead: " + ex.getMessage());
+      return false;
+    }
+  }
+
   /**
    * Runs all the pre checks of all update entries.
    */
   public void runAllPreChecks()
   {
-    for (final UpdateEntry updateEntry : getUpdateEntries()) {
-      updateEntry.setPreCheckStatus(updateEntry.runPreCheck());
+    getDatabaseUpdateDao().invalidateSchemaSnapshot();
+    runPreChecks(getUpdateEntries());
+  }
+
+  /**
+   * Runs the pre-checks of the given entries sequentially or, if configured, concurrently on a bounded thread pool. A pre-check exceeding
+   * the timeout or throwing an exception gets the status {@link UpdatePreCheckStatus#UNKNOWN} resp. {@link UpdatePreCheckStatus#FAILED}.
+   * The pre-check status of each entry is set before this method returns.
+   * @param entries
+   * @see UpdaterConfiguration#setPreCheckParallelism(int)
+   */
+  private void runPreChecks(final Collection<UpdateEntry> entries)
+  {
+    final int parallelism = Math.min(configuration.getPreCheckParallelism(), entries.size());
+    if (parallelism <= 1) {
+      for (final UpdateEntry updateEntry : entries) {
+        updateEntry.setPreCheckStatus(updateEntry.runPreCheck());
+      }
+      return;
+    }
+    final ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+    try {
+      final long timeout = configuration.getPreCheckTimeoutMillis();
+      // Every pre-check has its own deadline: timeout after its start (queued pre-checks wait for a free thread).
+      final AtomicLongArray startTimes = new AtomicLongArray(entries.size());
+      // Deadline of pre-checks never started (e. g. all threads are blocked by pre-checks ignoring the interruption):
+      final long latestDeadline = System.currentTimeMillis() + timeout * ((entries.size() + parallelism - 1) / parallelism);
+      final List<Future<UpdatePreCheckStatus>> futures = new ArrayList<Future<UpdatePreCheckStatus>>(entries.size());
+      for (final UpdateEntry updateEntry : entries) {
+        final int index = futures.size();
+        futures.add(executor.submit(new Callable<UpdatePreCheckStatus>() {
+          @Override
+          public UpdatePreCheckStatus call()
+          {
+            startTimes.set(index, System.currentTimeMillis());
+            return updateEntry.runPreCheck();
+          }
+        }));
+      }
+      int i = 0;
+      for (final UpdateEntry updateEntry : entries) {
+        final int index = i++;
+        final Future<UpdatePreCheckStatus> future = futures.get(index);
+        UpdatePreCheckStatus status;
+        try {
+          status = waitForPreCheck(future, startTimes, index, timeout, latestDeadline);
+        } catch (final TimeoutException ex) {
+          log.error("Pre-check timed out after " + timeout + "ms: " + updateEntry);
+          future.cancel(true);
+          status = UpdatePreCheckStatus.UNKNOWN;
+        } catch (final ExecutionException ex) {
+          log.error("Exception encountered while running pre-check of " + updateEntry + ": " + ex.getCause(), ex.getCause());
+          status = UpdatePreCheckStatus.FAILED;
+        } catch (final InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          throw new RuntimeException(ex);
+        }
+        updateEntry.setPreCheckStatus(status);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * @return The result of the pre-check.
+   * @throws TimeoutException if the pre-check isn't done within the timeout after its start.
+   */
+  private UpdatePreCheckStatus waitForPreCheck(final Future<UpdatePreCheckStatus> future, final AtomicLongArray startTimes, final int index,
+      final long timeout, final long latestDeadline) throws InterruptedException, ExecutionException, TimeoutException
+  {
+    while (true) {
+      final long start = startTimes.get(index);
+      final long remaining = (start > 0 ? start + timeout : latestDeadline) - System.currentTimeMillis();
+      if (remaining <= 0) {
+        if (future.isDone() == true) {
+          return future.get();
+        }
+        throw new TimeoutException();
+      }
+      try {
+        // Not yet started pre-checks are polled for getting their start time:
+        return future.get(start > 0 ? remaining : Math.min(remaining, 100), TimeUnit.MILLISECONDS);
+      } catch (final TimeoutException ex) {
+        // Deadline is checked again.
+      }
     }
   }
 
@@ -137,15 +331,186 @@ public class SystemUpdater
   }
 
   /**
-   * Runs the update method of the given update entry.
+   * If true, the pre-checks of all update entries are run after each update. Otherwise (default) only the pre-checks of the updated entry
+   * and of the entries affected by the update are run.
+   * @param fullPreCheckAfterUpdate
+   * @return this for chaining.
+   * @see UpdateEntry#isAffectedBy(UpdateEntry)
+   */
+  public SystemUpdater setFullPreCheckAfterUpdate(final boolean fullPreCheckAfterUpdate)
+  {
+    this.fullPreCheckAfterUpdate = fullPreCheckAfterUpdate;
+    return this;
+  }
+
+  public boolean isFullPreCheckAfterUpdate()
+  {
+    return fullPreCheckAfterUpdate;
+  }
+
+  /**
+   * Runs the update method of the given update entry. Afterwards the pre-check of the entry and of all entries affected by the update
+   * (declared read or written tables) are run again (or all pre-checks if {@link #isFullPreCheckAfterUpdate()}). Entries without declared
+   * tables affect and are affected by every update.
    * @param updateScript
    */
   public void update(final UpdateEntry updateEntry)
   {
+    lockCluster();
+    try {
+      runUpdate(updateEntry);
+      if (fullPreCheckAfterUpdate == true) {
+        runAllPreChecks();
+      } else {
+        runAffectedPreChecks(updateEntry);
+      }
+    } finally {
+      unlockCluster();
+    }
+  }
+
+  /**
+   * Runs the pre-checks of all entries not recorded in the update ledger once and applies all entries ready for update in chronological
+   * order (oldest first). After each update only the pre-checks of the affected entries are run again (see {@link #update(UpdateEntry)}).
+   * Stops after the first failed update.<br/>
+   * If the update parallelism of the configuration is greater than 1, independent entries are applied concurrently by the
+   * {@link UpdateScheduler} and the pre-checks of the applied and affected entries are run after all updates.
+   * If the cluster lock is enabled, only one node applies the updates. The other nodes wait and find the applied entries afterwards in the
+   * update ledger (their pre-checks aren't run).
+   * @return {@link UpdateRunningStatus#DONE} if all pending entries are applied, {@link UpdateRunningStatus#FAILED} if an update failed.
+   * @see UpdaterConfiguration#setUpdateParallelism(int)
+   * @see UpdaterConfiguration#setClusterLockEnabled(boolean)
+   */
+  public UpdateRunningStatus applyPending()
+  {
+    lockCluster();
+    try {
+      return internalApplyPending();
+    } finally {
+      unlockCluster();
+    }
+  }
+
+  private UpdateRunningStatus internalApplyPending()
+  {
+    getDatabaseUpdateDao().invalidateSchemaSnapshot();
+    final boolean ledgerAvailable = loadUpdateLedger();
+    final List<UpdateEntry> preCheckEntries = new ArrayList<UpdateEntry>();
+    for (final UpdateEntry updateEntry : getUpdateEntries()) {
+      if (ledgerAvailable == true
+          && getDatabaseUpdateDao().isVersionUpdated(updateEntry.getRegionId(), String.valueOf(updateEntry.getVersion())) == true) {
+        updateEntry.setPreCheckStatus(UpdatePreCheckStatus.ALREADY_UPDATED);
+      } else {
+        preCheckEntries.add(updateEntry);
+      }
+    }
+    runPreChecks(preCheckEntries);
+    final List<UpdateEntry> pending = new ArrayList<UpdateEntry>();
+    for (final UpdateEntry updateEntry : getUpdateEntries()) {
+      if (updateEntry.getPreCheckStatus() == UpdatePreCheckStatus.READY_FOR_UPDATE) {
+        pending.add(updateEntry);
+      }
+    }
+    // The entries are sorted in descending order:
+    Collections.reverse(pending);
+    log.info(pending.size() + " pending update entries found.");
+    if (configuration.getUpdateParallelism() > 1 && pending.size() > 1) {
+      final UpdateRunningStatus status = new UpdateScheduler(this, pending).run(configuration.getUpdateParallelism());
+      final Set<UpdateEntry> affectedEntries = new LinkedHashSet<UpdateEntry>();
+      for (final UpdateEntry updatedEntry : pending) {
+        if (updatedEntry.getRunningStatus() != UpdateRunningStatus.FAILED) {
+          affectedEntries.add(updatedEntry);
+          for (final UpdateEntry updateEntry : getUpdateEntries()) {
+            if (updateEntry.isAffectedBy(updatedEntry) == true) {
+              affectedEntries.add(updateEntry);
+            }
+          }
+        }
+      }
+      runPreChecks(affectedEntries);
+      return status;
+    }
+    // Same order of dependencies (prerequisites and conflicts) as of the parallel mode:
+    for (final UpdateEntry updateEntry : new UpdateScheduler(this, pending).getOrderedEntries()) {
+      if (updateEntry.getPreCheckStatus() != UpdatePreCheckStatus.READY_FOR_UPDATE) {
+        // Pre-check was run again after a previous update.
+        log.info("Update entry isn't ready for update anymore (" + updateEntry.getPreCheckStatus() + "): " + updateEntry);
+        continue;
+      }
+      update(updateEntry);
+      if (updateEntry.getRunningStatus() == UpdateRunningStatus.FAILED) {
+        log.error("Update failed, further updates aren't applied: " + updateEntry);
+        return UpdateRunningStatus.FAILED;
+      }
+      afterUpdate(updateEntry);
+    }
+    return UpdateRunningStatus.DONE;
+  }
+
+  private synchronized ClusterUpdateLock getClusterLock()
+  {
+    if (clusterLock == null) {
+      clusterLock = new ClusterUpdateLock(getDatabaseUpdateDao(), configuration);
+    }
+    return clusterLock;
+  }
+
+  private void lockCluster()
+  {
+    if (configuration.isClusterLockEnabled() == true) {
+      getClusterLock().acquire(configuration.getClusterLockWaitMillis());
+    }
+  }
+
+  private void unlockCluster()
+  {
+    if (configuration.isClusterLockEnabled() == true) {
+      getClusterLock().release();
+    }
+  }
+
+  /**
+   * Runs the update of the given entry (without any pre-checks) and writes the update ledger.
+   */
+  void runUpdate(final UpdateEntry updateEntry)
+  {
+    final long start = System.currentTimeMillis();
     updateEntry.setRunningStatus(updateEntry.runUpdate());
+    updateEntry.setRunningDuration(System.currentTimeMillis() - start);
+    // The update may have modified the schema without using the dao:
+    getDatabaseUpdateDao().invalidateSchemaSnapshot();
     getDatabaseUpdateDao().writeUpdateEntryLog(updateEntry);
-    updateEntry.setPreCheckStatus(updateEntry.runPreCheck());
-    runAllPreChecks();
+  }
+
+  private void runAffectedPreChecks(final UpdateEntry updatedEntry)
+  {
+    final List<UpdateEntry> entries = new ArrayList<UpdateEntry>();
+    entries.add(updatedEntry);
+    for (final UpdateEntry updateEntry : getUpdateEntries()) {
+      if (updateEntry != updatedEntry && updateEntry.isAffectedBy(updatedEntry) == true) {
+        entries.add(updateEntry);
+      }
+    }
+    runPreChecks(entries);
+  }
+
+  /**
+   * Pauses all running batch updates and column migrations before their next batch (e. g. during traffic peaks).
+   * @see MigrationThrottle#pause()
+   */
+  public void pauseMigrations()
+  {
+    configuration.getMigrationThrottle().pause();
+  }
+
+  public void resumeMigrations()
+  {
+    configuration.getMigrationThrottle().resume();
+  }
+
+  public boolean isMigrationPaused()
+  {
+    return configuration.getMigrationThrottle().isPaused();
   }
 
   public void afterUpdate(final UpdateEntry updateEntry)
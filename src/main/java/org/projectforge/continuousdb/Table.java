@@ -25,11 +25,11 @@ package org.projectforge.continuousdb;
 
 import java.io.Serializable;
 import java.lang.annotation.Annotation;
-import java.lang.reflect.AccessibleObject;
-import java.lang.reflect.Field;
-import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import javax.persistence.DiscriminatorColumn;
 import javax.persistence.DiscriminatorType;
@@ -38,7 +38,6 @@ import javax.persistence.Entity;
 import javax.persistence.UniqueConstraint;
 
 import org.apache.commons.lang.StringUtils;
-import org.projectforge.common.BeanHelper;
 
 /**
  * Represents one attribute of a table (e. g. for creation).
@@ -61,6 +60,26 @@ public class Table implements Serializable
 
   private final List<TableAttribute> attributes = new ArrayList<TableAttribute>();
 
+  /**
+   * Index of the attributes by property, rebuilt on demand (see {@link #getAttributes()}).
+   */
+  private transient Map<String, TableAttribute> attributesByProperty;
+
+  /**
+   * Index of the attributes by lower case name, rebuilt on demand (see {@link #getAttributes()}).
+   */
+  private transient Map<String, TableAttribute> attributesByName;
+
+  /**
+   * Primary key found by the last indexing or scan. Checked on every access, because attributes may be flagged as primary key after adding.
+   */
+  private transient TableAttribute primaryKey;
+
+  /**
+   * Number of attributes covered by the indexes.
+   */
+  private transient int indexedAttributes = -1;
+
   private Table superTable;
 
   public Table(final Class< ? > entityClass)
@@ -104,9 +123,19 @@ public class Table implements Serializable
 
   public TableAttribute getAttributeByProperty(final String property)
   {
-    for (final TableAttribute attr : attributes) {
-      if (property.equals(attr.getProperty()) == true) {
-        return attr;
+    if (property == null) {
+      return null;
+    }
+    ensureAttributeIndexes();
+    final TableAttribute attr = attributesByProperty.get(property);
+    if (attr != null && property.equals(attr.getProperty()) == true) {
+      return attr;
+    }
+    // Not indexed or attribute was modified after adding:
+    for (final TableAttribute attribute : attributes) {
+      if (property.equals(attribute.getProperty()) == true) {
+        indexAttributes();
+        return attribute;
       }
     }
     return null;
@@ -117,10 +146,17 @@ public class Table implements Serializable
     if (name == null) {
       return null;
     }
+    ensureAttributeIndexes();
     final String lowerCase = name.toLowerCase();
-    for (final TableAttribute attr : attributes) {
-      if (lowerCase.equals(attr.getName().toLowerCase()) == true) {
-        return attr;
+    final TableAttribute attr = attributesByName.get(lowerCase);
+    if (attr != null && name.equalsIgnoreCase(attr.getName()) == true) {
+      return attr;
+    }
+    // Not indexed or attribute was modified after adding:
+    for (final TableAttribute attribute : attributes) {
+      if (name.equalsIgnoreCase(attribute.getName()) == true) {
+        indexAttributes();
+        return attribute;
       }
     }
     return null;
@@ -174,14 +210,25 @@ public class Table implements Serializable
    */
   public TableAttribute getPrimaryKey()
   {
+    ensureAttributeIndexes();
+    if (primaryKey != null && primaryKey.isPrimaryKey() == true) {
+      return primaryKey;
+    }
+    // Not indexed or attribute was modified after adding:
+    primaryKey = null;
     for (final TableAttribute attr : attributes) {
       if (attr.isPrimaryKey() == true) {
-        return attr;
+        primaryKey = attr;
+        break;
       }
     }
-    return null;
+    return primaryKey;
   }
 
+  /**
+   * The attributes are indexed by property and name, attributes may be added directly to the returned list.
+   * @return The attributes.
+   */
   public List<TableAttribute> getAttributes()
   {
     return attributes;
@@ -196,9 +243,47 @@ public class Table implements Serializable
       throw new IllegalArgumentException("Can't add table attribute twice: '" + entityClass + "." + attr.getProperty() + "");
     }
     attributes.add(attr);
+    indexAttribute(attr);
+    ++indexedAttributes;
     return this;
   }
 
+  private void ensureAttributeIndexes()
+  {
+    if (attributesByName == null || indexedAttributes != attributes.size()) {
+      indexAttributes();
+    }
+  }
+
+  private void indexAttributes()
+  {
+    attributesByProperty = new HashMap<String, TableAttribute>();
+    attributesByName = new HashMap<String, TableAttribute>();
+    primaryKey = null;
+    for (final TableAttribute attr : attributes) {
+      indexAttribute(attr);
+    }
+    indexedAttributes = attributes.size();
+  }
+
+  /**
+   * The first attribute wins (as of the previous list scan).
+   */
+  private void indexAttribute(final TableAttribute attr)
+  {
+    final String property = attr.getProperty();
+    if (property != null && attributesByProperty.containsKey(property) == false) {
+      attributesByProperty.put(property, attr);
+    }
+    final String name = attr.getName();
+    if (name != null && attributesByName.containsKey(name.toLowerCase()) == false) {
+      attributesByName.put(name.toLowerCase(), attr);
+    }
+    if (primaryKey == null && attr.isPrimaryKey() == true) {
+      primaryKey = attr;
+    }
+  }
+
   /**
    * Adds all the given properties by auto-detecting the given properties. Please note: There is no full auto-detection of all properties:
    * it should be avoided that unwanted properties are created (by a developer mistake).
@@ -241,41 +326,15 @@ public class Table implements Serializable
     if (entityClass == null) {
       throw new IllegalStateException("Entity class isn't set. Can't add attributes from property names. Please set entity class first.");
     }
-    final Field[] fields;
-    final List<Method> getter;
-    if (this.superTable != null) {
-      // Get only fields of the current entity, all fields of the super class are handled by the super table.
-      fields = entityClass.getDeclaredFields();
-      getter = BeanHelper.getAllGetterMethods(entityClass, false);
-    } else {
-      fields = BeanHelper.getAllDeclaredFields(entityClass);
-      getter = BeanHelper.getAllGetterMethods(entityClass);
-    }
-    for (final Field field : fields) {
-      final List<Annotation> annotations = handlePersistencyAnnotations(field);
-      if (annotations == null) {
-        continue;
-      }
-      final String fieldName = field.getName();
+    // Get only fields and getters of the current entity if a super table exists, all properties of the super class are handled by the super
+    // table.
+    final List<EntityMetadata.PersistentProperty> properties = EntityMetadata.getInstance(entityClass).getPersistentProperties(
+        this.superTable != null);
+    for (final EntityMetadata.PersistentProperty property : properties) {
       if (log.isDebugEnabled() == true) {
-        log.debug(name + "." + fieldName);
-      }
-      addTableAttribute(fieldName, annotations);
-    }
-    for (final Method method : getter) {
-      final List<Annotation> annotations = handlePersistencyAnnotations(method);
-      if (annotations == null) {
-        continue;
-      }
-      if (log.isDebugEnabled() == true) {
-        log.debug(name + "." + method.getName());
-      }
-      final String property = BeanHelper.getProperty(method);
-      if (property != null) {
-        addTableAttribute(property, annotations);
-      } else {
-        log.error("Can't determine property of getter method: '" + method.getName());
+        log.debug(name + "." + property.getProperty());
       }
+      addTableAttribute(property.getProperty(), property.getAnnotations());
     }
     if (this.discriminatorColumn != null) {
       TableAttributeType type;
@@ -303,12 +362,7 @@ public class Table implements Serializable
       // Transient or getter method not found.
       return;
     }
-    attr.setAnnotations(annotations);
+    attr.setAnnotations(new LinkedList<Annotation>(annotations));
     addAttribute(attr);
   }
-
-  private List<Annotation> handlePersistencyAnnotations(final AccessibleObject object)
-  {
-    return JPAHelper.getPersistenceAnnotations(object);
-  }
 }
@@ -31,6 +31,7 @@ import java.lang.reflect.Type;
 import java.math.BigDecimal;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import javax.persistence.Column;
 import javax.persistence.Entity;
@@ -52,7 +53,7 @@ public class TableAttribute implements Serializable
 
   private static final org.projectforge.common.Logger log = org.projectforge.common.Logger.getLogger(TableAttribute.class);
 
-  private static List<TableAttributeHook> hooks = new LinkedList<TableAttributeHook>();
+  private static List<TableAttributeHook> hooks = new CopyOnWriteArrayList<TableAttributeHook>();
 
   private boolean nullable = true;
 
@@ -92,9 +93,14 @@ public class TableAttribute implements Serializable
 
   private List<Annotation> annotations;
 
+  /**
+   * Registers a hook and clears the {@link EntityMetadata} cache (the attributes resolved before may differ with the new hook).
+   * @param hook
+   */
   public static void register(final TableAttributeHook hook)
   {
     hooks.add(hook);
+    EntityMetadata.clearCache();
   }
 
   /**
@@ -105,7 +111,7 @@ public class TableAttribute implements Serializable
    */
   public static TableAttribute createTableAttribute(final Class< ? > clazz, final String property)
   {
-    final Method getterMethod = BeanHelper.determineGetter(clazz, property, false);
+    final Method getterMethod = EntityMetadata.getInstance(clazz).getGetter(property, false);
     if (getterMethod == null) {
       throw new IllegalStateException("Can't determine getter: " + clazz + "." + property);
     }
@@ -119,13 +125,24 @@ public class TableAttribute implements Serializable
 
   /**
    * Creates a property and gets the information from the entity class. The JPA annotations Column, JoinColumn, Entity, Table and ID are
-   * supported.
+   * supported. The reflective work is done only once per property, see {@link EntityMetadata}.
    * @param clazz
    * @param property
    */
   public TableAttribute(final Class< ? > clazz, final String property)
   {
-    final Method getterMethod = BeanHelper.determineGetter(clazz, property, false);
+    copyFrom(EntityMetadata.getInstance(clazz).getAttribute(property));
+  }
+
+  /**
+   * Resolves the attribute from the getter method and the JPA annotations. Used by {@link EntityMetadata} only.
+   * @param metadata
+   * @param property
+   */
+  TableAttribute(final EntityMetadata metadata, final String property)
+  {
+    final Class< ? > clazz = metadata.getEntityClass();
+    final Method getterMethod = metadata.getGetter(property, false);
     if (getterMethod == null) {
       throw new IllegalStateException("Can't determine getter: " + clazz + "." + property);
     }
@@ -180,7 +197,7 @@ public class TableAttribute implements Serializable
         if (table != null) {
           this.foreignTable = table.name();
         } else {
-          this.foreignTable = new Table(this.propertyType).getName();
+          this.foreignTable = EntityMetadata.getInstance(this.propertyType).getTableName();
         }
         // if (entity != null && table != null && StringUtils.isNotEmpty(table.name()) == true) {
         final String idProperty = JPAHelper.getIdProperty(this.propertyType);
@@ -257,6 +274,29 @@ public class TableAttribute implements Serializable
     }
   }
 
+  private void copyFrom(final TableAttribute src)
+  {
+    this.nullable = src.nullable;
+    this.type = src.type;
+    this.entityClass = src.entityClass;
+    this.property = src.property;
+    this.propertyType = src.propertyType;
+    this.genericType = src.genericType;
+    this.generated = src.generated;
+    this.name = src.name;
+    this.length = src.length;
+    this.precision = src.precision;
+    this.scale = src.scale;
+    this.primaryKey = src.primaryKey;
+    this.unique = src.unique;
+    this.foreignTable = src.foreignTable;
+    this.foreignAttribute = src.foreignAttribute;
+    this.defaultValue = src.defaultValue;
+    if (src.annotations != null) {
+      this.annotations = new LinkedList<Annotation>(src.annotations);
+    }
+  }
+
   public TableAttribute(final String name, final TableAttributeType type)
   {
     this.name = name;
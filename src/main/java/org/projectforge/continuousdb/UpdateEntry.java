@@ -24,6 +24,8 @@
 package org.projectforge.continuousdb;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.projectforge.Version;
 
@@ -39,6 +41,14 @@ public abstract class UpdateEntry implements Serializable, Comparable<UpdateEntr
 
   protected transient UpdateRunningStatus runningStatus;
 
+  protected transient long runningDuration;
+
+  private String[] readTables;
+
+  private String[] writtenTables;
+
+  private List<UpdateEntry> prerequisites;
+
   public abstract Version getVersion();
 
   public abstract void setVersion(final Version version);
@@ -78,6 +88,151 @@ public abstract class UpdateEntry implements Serializable, Comparable<UpdateEntr
     this.runningStatus = runningStatus;
   }
 
+  /**
+   * @return The duration of the last {@link #runUpdate()} call in milliseconds.
+   */
+  public long getRunningDuration()
+  {
+    return runningDuration;
+  }
+
+  public void setRunningDuration(final long runningDuration)
+  {
+    this.runningDuration = runningDuration;
+  }
+
+  /**
+   * @return The tables read by the pre-check or the update of this entry (in lower case) or null if not declared.
+   */
+  public String[] getReadTables()
+  {
+    return readTables;
+  }
+
+  /**
+   * Declares the tables read by the pre-check or the update of this entry. After an update of another entry modifying one of these tables,
+   * the pre-check of this entry is run again.
+   * @param tables
+   * @return this for chaining.
+   * @see SystemUpdater#applyPending()
+   */
+  public UpdateEntry setReadTables(final String... tables)
+  {
+    this.readTables = toLowerCase(tables);
+    return this;
+  }
+
+  /**
+   * @return The tables created or modified by the update of this entry (in lower case) or null if not declared.
+   */
+  public String[] getWrittenTables()
+  {
+    return writtenTables;
+  }
+
+  /**
+   * Declares the tables created or modified (schema or data) by the update of this entry.
+   * @param tables
+   * @return this for chaining.
+   * @see #setReadTables(String...)
+   */
+  public UpdateEntry setWrittenTables(final String... tables)
+  {
+    this.writtenTables = toLowerCase(tables);
+    return this;
+  }
+
+  /**
+   * @return The entries which have to be applied before this entry (additionally to the entries of the same region or touching the same
+   *         tables) or null if not declared.
+   */
+  public List<UpdateEntry> getPrerequisites()
+  {
+    return prerequisites;
+  }
+
+  /**
+   * @param entries Entries which have to be applied before this entry.
+   * @return this for chaining.
+   * @see UpdateScheduler
+   */
+  public UpdateEntry addPrerequisites(final UpdateEntry... entries)
+  {
+    if (prerequisites == null) {
+      prerequisites = new ArrayList<UpdateEntry>();
+    }
+    for (final UpdateEntry entry : entries) {
+      prerequisites.add(entry);
+    }
+    return this;
+  }
+
+  /**
+   * Two conflicting entries mustn't be applied concurrently. Entries conflict if they belong to the same region, if any table written by
+   * one of them is read or written by the other one or if one of them doesn't declare its tables at all.
+   * @param other
+   */
+  public boolean conflictsWith(final UpdateEntry other)
+  {
+    if (getRegionId().equals(other.getRegionId()) == true) {
+      return true;
+    }
+    return isAffectedBy(other) == true || other.isAffectedBy(this) == true;
+  }
+
+  /**
+   * @param other
+   * @return true if this entry declares to read or write any of the tables written by the other entry. Also true if one of both entries
+   *         doesn't declare its tables at all (unknown tables).
+   */
+  public boolean isAffectedBy(final UpdateEntry other)
+  {
+    if (isDeclaringTables() == false || other.isDeclaringTables() == false) {
+      // Unknown tables:
+      return true;
+    }
+    final String[] otherTables = other.getWrittenTables();
+    if (otherTables == null) {
+      return false;
+    }
+    for (final String table : otherTables) {
+      if (contains(readTables, table) == true || contains(writtenTables, table) == true) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean isDeclaringTables()
+  {
+    return readTables != null || writtenTables != null;
+  }
+
+  private static boolean contains(final String[] tables, final String table)
+  {
+    if (tables == null) {
+      return false;
+    }
+    for (final String t : tables) {
+      if (t.equals(table) == true) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String[] toLowerCase(final String[] tables)
+  {
+    if (tables == null) {
+      return null;
+    }
+    final String[] result = new String[tables.length];
+    for (int i = 0; i < tables.length; i++) {
+      result[i] = tables[i].toLowerCase();
+    }
+    return result;
+  }
+
   public abstract String getDescription();
 
   public abstract void setDescription(final String description);
@@ -0,0 +1,294 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2014 Kai Reinhard (k.reinhard@micromata.de)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+package org.projectforge.continuousdb;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Applies update entries concurrently respecting their dependencies. The entries are the nodes of a directed acyclic graph, an entry is
+ * started after all its predecessors are done:
+ * <ul>
+ * <li>declared prerequisites (see {@link UpdateEntry#addPrerequisites(UpdateEntry...)}) and</li>
+ * <li>all chronologically older entries conflicting with the entry (same region, same tables, see
+ * {@link UpdateEntry#conflictsWith(UpdateEntry)}), unless the older entry depends on the entry (directly or transitively, declared
+ * prerequisites replace the chronological order).</li>
+ * </ul>
+ * So independent regions (e. g. core and plugins) are updated in parallel. If an update fails, all its (transitive) successors are
+ * skipped, independent entries are still applied.
+ * @author Kai Reinhard (k.reinhard@micromata.de)
+ * @see SystemUpdater#applyPending()
+ */
+public class UpdateScheduler
+{
+  private static final org.projectforge.common.Logger log = org.projectforge.common.Logger.getLogger(UpdateScheduler.class);
+
+  private final SystemUpdater systemUpdater;
+
+  private final List<UpdateEntry> entries;
+
+  private final Map<UpdateEntry, List<UpdateEntry>> successors = new HashMap<UpdateEntry, List<UpdateEntry>>();
+
+  private final Map<UpdateEntry, Integer> numberOfPredecessors = new HashMap<UpdateEntry, Integer>();
+
+  private final List<UpdateEntry> orderedEntries = new ArrayList<UpdateEntry>();
+
+  /**
+   * @param systemUpdater
+   * @param entries The entries to apply in chronological order (oldest first).
+   * @throws IllegalStateException if the prerequisites are cyclic.
+   */
+  public UpdateScheduler(final SystemUpdater systemUpdater, final List<UpdateEntry> entries)
+  {
+    this.systemUpdater = systemUpdater;
+    this.entries = entries;
+    final Map<UpdateEntry, Set<UpdateEntry>> predecessors = new HashMap<UpdateEntry, Set<UpdateEntry>>();
+    final Map<UpdateEntry, Integer> indexes = new HashMap<UpdateEntry, Integer>();
+    for (int i = 0; i < entries.size(); i++) {
+      final UpdateEntry entry = entries.get(i);
+      successors.put(entry, new ArrayList<UpdateEntry>());
+      predecessors.put(entry, new HashSet<UpdateEntry>());
+      indexes.put(entry, i);
+    }
+    // Declared prerequisites first, a prerequisite younger than its entry reverses the chronological order:
+    boolean reversedOrder = false;
+    for (final UpdateEntry entry : entries) {
+      if (entry.getPrerequisites() == null) {
+        continue;
+      }
+      for (final UpdateEntry prerequisite : entry.getPrerequisites()) {
+        if (successors.containsKey(prerequisite) == false) {
+          // Prerequisites not to apply (already updated) are ignored.
+          continue;
+        }
+        if (predecessors.get(entry).add(prerequisite) == true) {
+          successors.get(prerequisite).add(entry);
+        }
+        if (indexes.get(prerequisite) > indexes.get(entry)) {
+          reversedOrder = true;
+        }
+      }
+    }
+    // Chronological order of conflicting entries, unless contradicting a (transitive) prerequisite:
+    for (int i = 0; i < entries.size(); i++) {
+      final UpdateEntry entry = entries.get(i);
+      for (int j = 0; j < i; j++) {
+        final UpdateEntry older = entries.get(j);
+        if (entry.conflictsWith(older) == false || predecessors.get(entry).contains(older) == true) {
+          continue;
+        }
+        if (reversedOrder == true && isReachable(entry, older) == true) {
+          // The older entry depends on this entry.
+          continue;
+        }
+        predecessors.get(entry).add(older);
+        successors.get(older).add(entry);
+      }
+    }
+    for (final UpdateEntry entry : entries) {
+      numberOfPredecessors.put(entry, predecessors.get(entry).size());
+    }
+    sortEntries();
+  }
+
+  /**
+   * @return true if the target is a (transitive) successor of the given entry.
+   */
+  private boolean isReachable(final UpdateEntry from, final UpdateEntry target)
+  {
+    final Set<UpdateEntry> visited = new HashSet<UpdateEntry>();
+    final LinkedList<UpdateEntry> queue = new LinkedList<UpdateEntry>();
+    queue.add(from);
+    while (queue.isEmpty() == false) {
+      final UpdateEntry entry = queue.removeFirst();
+      for (final UpdateEntry successor : successors.get(entry)) {
+        if (successor == target) {
+          return true;
+        }
+        if (visited.add(successor) == true) {
+          queue.add(successor);
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return All entries in an order respecting the dependencies (the chronological order is kept as far as possible), e. g. for applying
+   *         the entries sequentially.
+   */
+  public List<UpdateEntry> getOrderedEntries()
+  {
+    return orderedEntries;
+  }
+
+  /**
+   * @param entry
+   * @return The entries which can't be started before the given entry is done.
+   */
+  public List<UpdateEntry> getSuccessors(final UpdateEntry entry)
+  {
+    return successors.get(entry);
+  }
+
+  /**
+   * Applies all entries.
+   * @param parallelism The maximum number of concurrently applied entries.
+   * @return {@link UpdateRunningStatus#DONE} if all entries are applied successfully, otherwise {@link UpdateRunningStatus#FAILED}.
+   */
+  public UpdateRunningStatus run(final int parallelism)
+  {
+    final Map<UpdateEntry, Integer> remainingPredecessors = new HashMap<UpdateEntry, Integer>(numberOfPredecessors);
+    final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, parallelism));
+    final CompletionService<UpdateEntry> completionService = new ExecutorCompletionService<UpdateEntry>(executor);
+    UpdateRunningStatus status = UpdateRunningStatus.DONE;
+    try {
+      int running = 0;
+      for (final UpdateEntry entry : entries) {
+        if (remainingPredecessors.get(entry) == 0) {
+          submit(completionService, entry);
+          ++running;
+        }
+      }
+      while (running > 0) {
+        final UpdateEntry entry = completionService.take().get();
+        --running;
+        if (entry.getRunningStatus() == UpdateRunningStatus.FAILED) {
+          status = UpdateRunningStatus.FAILED;
+          skipSuccessors(entry, remainingPredecessors);
+          continue;
+        }
+        for (final UpdateEntry successor : successors.get(entry)) {
+          final Integer number = remainingPredecessors.get(successor);
+          if (number == null) {
+            // Skipped.
+            continue;
+          }
+          remainingPredecessors.put(successor, number - 1);
+          if (number == 1) {
+            submit(completionService, successor);
+            ++running;
+          }
+        }
+      }
+    } catch (final InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(ex);
+    } catch (final ExecutionException ex) {
+      throw new RuntimeException(ex);
+    } finally {
+      executor.shutdownNow();
+    }
+    return status;
+  }
+
+  private void submit(final CompletionService<UpdateEntry> completionService, final UpdateEntry entry)
+  {
+    completionService.submit(new Callable<UpdateEntry>() {
+      @Override
+      public UpdateEntry call()
+      {
+        try {
+          systemUpdater.runUpdate(entry);
+        } catch (final RuntimeException ex) {
+          log.error("Exception encountered while updating " + entry + ": " + ex, ex);
+          entry.setRunningStatus(UpdateRunningStatus.FAILED);
+        }
+        if (entry.getRunningStatus() != UpdateRunningStatus.FAILED) {
+          entry.afterUpdate();
+        }
+        return entry;
+      }
+    });
+  }
+
+  private void skipSuccessors(final UpdateEntry failedEntry, final Map<UpdateEntry, Integer> remainingPredecessors)
+  {
+    final LinkedList<UpdateEntry> queue = new LinkedList<UpdateEntry>(successors.get(failedEntry));
+    while (queue.isEmpty() == false) {
+      final UpdateEntry entry = queue.removeFirst();
+      if (remainingPredecessors.remove(entry) != null) {
+        log.error("Update isn't applied, because " + failedEntry + " failed: " + entry);
+        queue.addAll(successors.get(entry));
+      }
+    }
+  }
+
+  /**
+   * Topological sort (Kahn), the oldest ready entry first: if not all entries are reached, the graph contains a cycle.
+   */
+  private void sortEntries()
+  {
+    final Map<UpdateEntry, Integer> remaining = new HashMap<UpdateEntry, Integer>(numberOfPredecessors);
+    final Map<UpdateEntry, Integer> indexes = new HashMap<UpdateEntry, Integer>();
+    for (int i = 0; i < entries.size(); i++) {
+      indexes.put(entries.get(i), i);
+    }
+    final PriorityQueue<UpdateEntry> queue = new PriorityQueue<UpdateEntry>(Math.max(1, entries.size()), new Comparator<UpdateEntry>() {
+      @Override
+      public int compare(final UpdateEntry o1, final UpdateEntry o2)
+      {
+        return indexes.get(o1).compareTo(indexes.get(o2));
+      }
+    });
+    for (final UpdateEntry entry : entries) {
+      if (remaining.get(entry) == 0) {
+        queue.add(entry);
+      }
+    }
+    while (queue.isEmpty() == false) {
+      final UpdateEntry entry = queue.poll();
+      orderedEntries.add(entry);
+      for (final UpdateEntry successor : successors.get(entry)) {
+        final int number = remaining.get(successor) - 1;
+        remaining.put(successor, number);
+        if (number == 0) {
+          queue.add(successor);
+        }
+      }
+    }
+    if (orderedEntries.size() < entries.size()) {
+      final List<UpdateEntry> cyclic = new ArrayList<UpdateEntry>();
+      for (final UpdateEntry entry : entries) {
+        if (remaining.get(entry) > 0) {
+          cyclic.add(entry);
+        }
+      }
+      throw new IllegalStateException("Cyclic prerequisites of update entries: " + cyclic);
+    }
+  }
+}
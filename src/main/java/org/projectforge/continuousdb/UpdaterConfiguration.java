@@ -35,6 +35,12 @@ import org.projectforge.continuousdb.jdbc.DatabaseExecutorImpl;
  */
 public class UpdaterConfiguration
 {
+  /**
+   * Minimum lease of the cluster update lock.
+   * @see #setClusterLockLeaseMillis(long)
+   */
+  public static final long MIN_CLUSTER_LOCK_LEASE_MILLIS = 1000;
+
   private DatabaseExecutor databaseExecutor;
 
   private DatabaseSupport databaseSupport;
@@ -47,6 +53,24 @@ public class UpdaterConfiguration
   
   private DataSource dataSource;
 
+  private int batchSize = 1000;
+
+  private boolean commitPerBatch = true;
+
+  private MigrationThrottle migrationThrottle = new MigrationThrottle();
+
+  private int preCheckParallelism = 1;
+
+  private int updateParallelism = 1;
+
+  private boolean clusterLockEnabled;
+
+  private long clusterLockWaitMillis = 30 * 60 * 1000;
+
+  private long clusterLockLeaseMillis = 60 * 1000;
+
+  private long preCheckTimeoutMillis = 60000;
+
   public void setDatabaseExecutor(DatabaseExecutor databaseExecutor)
   {
     this.databaseExecutor = databaseExecutor;
@@ -89,6 +113,209 @@ public class UpdaterConfiguration
     return this;
   }
 
+  /**
+   * @param fetchSize The number of rows fetched per database round trip by streaming queries (ignored by plain database executors).
+   * @return this for chaining.
+   * @see ExtendedDatabaseExecutor#query(String, DatabaseResultRowHandler, Object...)
+   */
+  public UpdaterConfiguration setFetchSize(final int fetchSize)
+  {
+    if (getDatabaseExecutor() instanceof ExtendedDatabaseExecutor) {
+      ((ExtendedDatabaseExecutor) getDatabaseExecutor()).setFetchSize(fetchSize);
+    }
+    return this;
+  }
+
+  /**
+   * @return The number of statements per jdbc batch (default is 1,000).
+   */
+  public int getBatchSize()
+  {
+    return batchSize;
+  }
+
+  /**
+   * @param batchSize
+   * @return this for chaining.
+   * @see DatabaseUpdateDao#updateBatch(String, Iterable)
+   */
+  public UpdaterConfiguration setBatchSize(final int batchSize)
+  {
+    this.batchSize = batchSize;
+    return this;
+  }
+
+  /**
+   * @return true (default) if each jdbc batch should be committed, false if all batches of one call should be executed within one
+   *         transaction.
+   */
+  public boolean isCommitPerBatch()
+  {
+    return commitPerBatch;
+  }
+
+  /**
+   * @param commitPerBatch
+   * @return this for chaining.
+   * @see DatabaseUpdateDao#updateBatch(String, Iterable)
+   */
+  public UpdaterConfiguration setCommitPerBatch(final boolean commitPerBatch)
+  {
+    this.commitPerBatch = commitPerBatch;
+    return this;
+  }
+
+  /**
+   * @return The number of threads running the pre-checks of the update entries concurrently (default is 1: sequential).
+   */
+  public int getPreCheckParallelism()
+  {
+    return preCheckParallelism;
+  }
+
+  /**
+   * @param preCheckParallelism
+   * @return this for chaining.
+   * @see SystemUpdater#runAllPreChecks()
+   */
+  public UpdaterConfiguration setPreCheckParallelism(final int preCheckParallelism)
+  {
+    this.preCheckParallelism = preCheckParallelism;
+    return this;
+  }
+
+  /**
+   * @return The maximum number of update entries applied concurrently by {@link SystemUpdater#applyPending()} (default is 1: sequential).
+   * @see UpdateScheduler
+   */
+  public int getUpdateParallelism()
+  {
+    return updateParallelism;
+  }
+
+  /**
+   * @param updateParallelism
+   * @return this for chaining.
+   */
+  public UpdaterConfiguration setUpdateParallelism(final int updateParallelism)
+  {
+    this.updateParallelism = updateParallelism;
+    return this;
+  }
+
+  /**
+   * @return true if the update checks and updates of the {@link SystemUpdater} are serialized over all nodes using the same database
+   *         (default is false).
+   * @see ClusterUpdateLock
+   */
+  public boolean isClusterLockEnabled()
+  {
+    return clusterLockEnabled;
+  }
+
+  /**
+   * @param clusterLockEnabled
+   * @return this for chaining.
+   */
+  public UpdaterConfiguration setClusterLockEnabled(final boolean clusterLockEnabled)
+  {
+    this.clusterLockEnabled = clusterLockEnabled;
+    return this;
+  }
+
+  /**
+   * @return The maximum time to wait for the cluster update lock held by another node (default is 30 minutes).
+   */
+  public long getClusterLockWaitMillis()
+  {
+    return clusterLockWaitMillis;
+  }
+
+  /**
+   * @param clusterLockWaitMillis
+   * @return this for chaining.
+   */
+  public UpdaterConfiguration setClusterLockWaitMillis(final long clusterLockWaitMillis)
+  {
+    this.clusterLockWaitMillis = clusterLockWaitMillis;
+    return this;
+  }
+
+  /**
+   * @return The lease time of the lock row (default is 60s), renewed by a heartbeat every third of the lease. Not used for PostgreSQL.
+   */
+  public long getClusterLockLeaseMillis()
+  {
+    return clusterLockLeaseMillis;
+  }
+
+  /**
+   * @param clusterLockLeaseMillis At least {@link #MIN_CLUSTER_LOCK_LEASE_MILLIS} (the precision of timestamps of some databases is one
+   *          second).
+   * @return this for chaining.
+   * @throws IllegalArgumentException if the lease is too short.
+   */
+  public UpdaterConfiguration setClusterLockLeaseMillis(final long clusterLockLeaseMillis)
+  {
+    if (clusterLockLeaseMillis < MIN_CLUSTER_LOCK_LEASE_MILLIS) {
+      throw new IllegalArgumentException("Lease of the cluster update lock must be at least " + MIN_CLUSTER_LOCK_LEASE_MILLIS + "ms: "
+          + clusterLockLeaseMillis);
+    }
+    this.clusterLockLeaseMillis = clusterLockLeaseMillis;
+    return this;
+  }
+
+  /**
+   * @return The maximum duration of one pre-check (measured from its start) if run concurrently (default is 60,000ms). A pre-check
+   *         exceeding the timeout gets the status {@link UpdatePreCheckStatus#UNKNOWN}.
+   */
+  public long getPreCheckTimeoutMillis()
+  {
+    return preCheckTimeoutMillis;
+  }
+
+  /**
+   * @param preCheckTimeoutMillis
+   * @return this for chaining.
+   */
+  public UpdaterConfiguration setPreCheckTimeoutMillis(final long preCheckTimeoutMillis)
+  {
+    this.preCheckTimeoutMillis = preCheckTimeoutMillis;
+    return this;
+  }
+
+  /**
+   * @return The throttle used by all batch updates and column migrations (inactive at default).
+   */
+  public MigrationThrottle getMigrationThrottle()
+  {
+    return migrationThrottle;
+  }
+
+  /**
+   * @param migrationThrottle
+   * @return this for chaining.
+   */
+  public UpdaterConfiguration setMigrationThrottle(final MigrationThrottle migrationThrottle)
+  {
+    this.migrationThrottle = migrationThrottle;
+    return this;
+  }
+
+  /**
+   * @param statementCacheSize The maximum number of prepared statements cached per session (default is 50, 0 disables caching, ignored by plain
+   *          database executors).
+   * @return this for chaining.
+   * @see ExtendedDatabaseExecutor#openSession()
+   */
+  public UpdaterConfiguration setStatementCacheSize(final int statementCacheSize)
+  {
+    if (getDatabaseExecutor() instanceof ExtendedDatabaseExecutor) {
+      ((ExtendedDatabaseExecutor) getDatabaseExecutor()).setStatementCacheSize(statementCacheSize);
+    }
+    return this;
+  }
+
   public DatabaseExecutor getDatabaseExecutor()
   {
     if (databaseExecutor == null) {
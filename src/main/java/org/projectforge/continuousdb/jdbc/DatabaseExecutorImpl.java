@@ -23,17 +23,23 @@
 
 package org.projectforge.continuousdb.jdbc;
 
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
-import java.util.LinkedList;
+import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.List;
 
 import javax.sql.DataSource;
 
-import org.projectforge.continuousdb.DatabaseExecutor;
+import org.projectforge.continuousdb.DatabaseBatchListener;
 import org.projectforge.continuousdb.DatabaseResultRow;
+import org.projectforge.continuousdb.DatabaseResultRowHandler;
+import org.projectforge.continuousdb.DatabaseSession;
+import org.projectforge.continuousdb.ExtendedDatabaseExecutor;
+import org.projectforge.continuousdb.RowMapper;
+import org.projectforge.continuousdb.RowMappers;
 
 /**
  * Using plain jdbc for executing jdbc commands. DON'T USE THIS CLASS FOR PRODUCTION! This class is only for demonstration purposes, because
@@ -41,10 +47,14 @@ import org.projectforge.continuousdb.DatabaseResultRow;
  * @author Kai Reinhard (k.reinhard@micromata.de)
  * 
  */
-public class DatabaseExecutorImpl implements DatabaseExecutor
+public class DatabaseExecutorImpl implements ExtendedDatabaseExecutor
 {
   private DataSource dataSource;
 
+  private int fetchSize = 1000;
+
+  private int statementCacheSize = 50;
+
   @Override
   public DataSource getDataSource()
   {
@@ -57,10 +67,64 @@ public class DatabaseExecutorImpl implements DatabaseExecutor
     this.dataSource = datasource;
   }
 
+  /**
+   * @return null (a new connection is used for every statement). Overridden by sessions.
+   * @see DatabaseSessionImpl
+   */
+  protected Connection getPinnedConnection()
+  {
+    return null;
+  }
+
+  /**
+   * @return null (statements are closed after execution). Overridden by sessions.
+   * @see DatabaseSessionImpl
+   */
+  protected PreparedStatementCache getStatementCache()
+  {
+    return null;
+  }
+
+  @Override
+  public DatabaseSession openSession()
+  {
+    final DatabaseSessionImpl session = new DatabaseSessionImpl(dataSource, statementCacheSize);
+    session.setFetchSize(fetchSize);
+    return session;
+  }
+
+  @Override
+  public int getStatementCacheSize()
+  {
+    return statementCacheSize;
+  }
+
+  @Override
+  public void setStatementCacheSize(final int statementCacheSize)
+  {
+    this.statementCacheSize = statementCacheSize;
+  }
+
+  @Override
+  public int getFetchSize()
+  {
+    return fetchSize;
+  }
+
+  @Override
+  public void setFetchSize(final int fetchSize)
+  {
+    this.fetchSize = fetchSize;
+  }
+
+  /**
+   * The statement (usually DDL) isn't cached and the statement cache of the session is cleared afterwards, because the cached statements
+   * may refer to a modified schema.
+   */
   @Override
   public void execute(final String sql, final boolean ignoreErrors)
   {
-    final JdbcExecutor jdbc = new JdbcExecutor(dataSource) {
+    final JdbcExecutor jdbc = new JdbcExecutor(dataSource, getPinnedConnection()) {
       @Override
       protected Object execute(final PreparedStatement stmt) throws SQLException
       {
@@ -68,32 +132,38 @@ public class DatabaseExecutorImpl implements DatabaseExecutor
         return null;
       }
     };
-    jdbc.execute(sql, ignoreErrors);
+    try {
+      jdbc.execute(sql, ignoreErrors);
+    } finally {
+      final PreparedStatementCache statementCache = getStatementCache();
+      if (statementCache != null) {
+        statementCache.clear();
+      }
+    }
   }
 
-  @SuppressWarnings("unchecked")
   @Override
   public List<DatabaseResultRow> query(final String sql, final Object... args)
   {
-    final JdbcExecutor jdbc = new JdbcExecutor(dataSource) {
+    return query(sql, RowMappers.databaseResultRow(), args);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public <T> List<T> query(final String sql, final RowMapper<T> mapper, final Object... args)
+  {
+    final JdbcExecutor jdbc = new JdbcExecutor(dataSource, getPinnedConnection(), getStatementCache()) {
       @Override
       protected Object execute(final PreparedStatement stmt) throws SQLException
       {
-        final List<DatabaseResultRow> list = new LinkedList<DatabaseResultRow>();
+        final List<T> list = new ArrayList<T>();
         ResultSet rs = null;
         try {
           rs = stmt.executeQuery();
+          mapper.init(rs.getMetaData());
+          int rowNum = 0;
           while (rs.next() == true) {
-            final DatabaseResultRow row = new DatabaseResultRowImpl();
-            list.add(row);
-            final ResultSetMetaData metaData = rs.getMetaData();
-            for (int i = 1; i <= metaData.getColumnCount(); i++) {
-              final int type = metaData.getColumnType(i);
-              final String name = metaData.getColumnName(i);
-              final Object value = rs.getObject(i);
-              final DatabaseResultRowEntryImpl entry = new DatabaseResultRowEntryImpl(type, name, value);
-              row.add(entry);
-            }
+            list.add(mapper.mapRow(rs, rowNum++));
           }
           return list;
         } finally {
@@ -104,13 +174,42 @@ public class DatabaseExecutorImpl implements DatabaseExecutor
       }
     };
     final Object obj = jdbc.execute(sql, false, args);
-    return (List<DatabaseResultRow>) obj;
+    return (List<T>) obj;
+  }
+
+  @Override
+  public int query(final String sql, final DatabaseResultRowHandler handler, final Object... args)
+  {
+    final JdbcExecutor jdbc = new JdbcExecutor(dataSource, getPinnedConnection(), getStatementCache()) {
+      @Override
+      protected Object execute(final PreparedStatement stmt) throws SQLException
+      {
+        int counter = 0;
+        ResultSet rs = null;
+        try {
+          rs = stmt.executeQuery();
+          final RowMapper<DatabaseResultRow> mapper = RowMappers.databaseResultRow();
+          mapper.init(rs.getMetaData());
+          while (rs.next() == true) {
+            handler.handleRow(mapper.mapRow(rs, counter++));
+          }
+          return counter;
+        } finally {
+          if (rs != null) {
+            rs.close();
+          }
+        }
+      }
+    };
+    jdbc.setFetchSize(fetchSize);
+    final Object obj = jdbc.execute(sql, false, args);
+    return (Integer) obj;
   }
 
   @Override
   public int queryForInt(final String sql, final Object... args)
   {
-    final JdbcExecutor jdbc = new JdbcExecutor(dataSource) {
+    final JdbcExecutor jdbc = new JdbcExecutor(dataSource, getPinnedConnection(), getStatementCache()) {
       @Override
       protected Object execute(final PreparedStatement stmt) throws SQLException
       {
@@ -135,7 +234,7 @@ public class DatabaseExecutorImpl implements DatabaseExecutor
   @Override
   public int update(final String sql, final Object... args)
   {
-    final JdbcExecutor jdbc = new JdbcExecutor(dataSource) {
+    final JdbcExecutor jdbc = new JdbcExecutor(dataSource, getPinnedConnection(), getStatementCache()) {
       @Override
       protected Object execute(final PreparedStatement stmt) throws SQLException
       {
@@ -145,4 +244,55 @@ public class DatabaseExecutorImpl implements DatabaseExecutor
     final Object obj = jdbc.execute(sql, false, args);
     return (Integer) obj;
   }
+
+  @Override
+  public int updateBatch(final String sql, final Iterable<Object[]> args, final int batchSize, final boolean commitPerBatch,
+      final DatabaseBatchListener listener)
+  {
+    final JdbcExecutor jdbc = new JdbcExecutor(dataSource, getPinnedConnection(), getStatementCache()) {
+      @Override
+      protected Object execute(final PreparedStatement stmt) throws SQLException
+      {
+        int updatedRows = 0;
+        int batchNumber = 0;
+        int statements = 0;
+        long start = System.currentTimeMillis();
+        for (final Object[] values : args) {
+          for (int i = 0; i < values.length; i++) {
+            stmt.setObject(i + 1, values[i]);
+          }
+          stmt.addBatch();
+          if (++statements >= batchSize) {
+            updatedRows += executeBatch(stmt, ++batchNumber, statements, start);
+            statements = 0;
+            start = System.currentTimeMillis();
+          }
+        }
+        if (statements > 0) {
+          updatedRows += executeBatch(stmt, ++batchNumber, statements, start);
+        }
+        return updatedRows;
+      }
+
+      private int executeBatch(final PreparedStatement stmt, final int batchNumber, final int statements, final long start)
+          throws SQLException
+      {
+        int updatedRows = 0;
+        for (final int count : stmt.executeBatch()) {
+          // Statement.SUCCESS_NO_INFO is counted as one row.
+          updatedRows += count >= 0 ? count : (count == Statement.SUCCESS_NO_INFO ? 1 : 0);
+        }
+        if (commitPerBatch == true) {
+          stmt.getConnection().commit();
+        }
+        if (listener != null) {
+          listener.afterBatch(batchNumber, statements, updatedRows, System.currentTimeMillis() - start);
+        }
+        return updatedRows;
+      }
+    };
+    jdbc.setTransactional(true);
+    final Object obj = jdbc.execute(sql, false);
+    return (Integer) obj;
+  }
 }
@@ -0,0 +1,159 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2014 Kai Reinhard (k.reinhard@micromata.de)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+package org.projectforge.continuousdb.jdbc;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.projectforge.continuousdb.DatabaseResultRow;
+import org.projectforge.continuousdb.DatabaseResultRowEntry;
+
+/**
+ * Stores only the values of a row, the column names and types are shared by all rows of the result set. The entries are created on
+ * demand, please prefer {@link #getValue(String)} and {@link #getValue(int)}. Entries added by {@link #add(DatabaseResultRowEntry)} are
+ * held by the row itself and follow the columns of the header.
+ * @author Kai Reinhard (k.reinhard@micromata.de)
+ * 
+ */
+public class DatabaseResultCompactRowImpl implements DatabaseResultRow
+{
+  private final DatabaseResultHeader header;
+
+  private final Object[] values;
+
+  private DatabaseResultRowEntry[] entries;
+
+  private List<DatabaseResultRowEntry> addedEntries;
+
+  public DatabaseResultCompactRowImpl(final DatabaseResultHeader header, final Object[] values)
+  {
+    this.header = header;
+    this.values = values;
+  }
+
+  /**
+   * @return A view of the entries. Entries may be appended.
+   */
+  @Override
+  public List<DatabaseResultRowEntry> getEntries()
+  {
+    return new AbstractList<DatabaseResultRowEntry>() {
+      @Override
+      public DatabaseResultRowEntry get(final int index)
+      {
+        return getEntry(index);
+      }
+
+      @Override
+      public void add(final int index, final DatabaseResultRowEntry entry)
+      {
+        if (index != size()) {
+          throw new UnsupportedOperationException("Entries can only be appended to a compact row.");
+        }
+        DatabaseResultCompactRowImpl.this.add(entry);
+      }
+
+      @Override
+      public int size()
+      {
+        return values.length + (addedEntries != null ? addedEntries.size() : 0);
+      }
+    };
+  }
+
+  @Override
+  public DatabaseResultRowEntry getEntry(final int index)
+  {
+    if (index >= values.length && addedEntries != null) {
+      return addedEntries.get(index - values.length);
+    }
+    if (entries == null) {
+      entries = new DatabaseResultRowEntry[values.length];
+    }
+    if (entries[index] == null) {
+      entries[index] = new DatabaseResultRowEntryImpl(header.getType(index), header.getName(index), values[index]);
+    }
+    return entries[index];
+  }
+
+  @Override
+  public DatabaseResultRowEntry getEntry(final String name)
+  {
+    final int index = header.getIndex(name);
+    return index >= 0 ? getEntry(index) : getAddedEntry(name);
+  }
+
+  /**
+   * @param index Starts with 0.
+   * @return The value of the column without creating an entry object.
+   */
+  public Object getValue(final int index)
+  {
+    if (index >= values.length && addedEntries != null) {
+      return addedEntries.get(index - values.length).getValue();
+    }
+    return values[index];
+  }
+
+  /**
+   * @param name The column name (case insensitive).
+   * @return The value of the column without creating an entry object or null if no such column exists.
+   */
+  public Object getValue(final String name)
+  {
+    final int index = header.getIndex(name);
+    if (index >= 0) {
+      return values[index];
+    }
+    final DatabaseResultRowEntry entry = getAddedEntry(name);
+    return entry != null ? entry.getValue() : null;
+  }
+
+  /**
+   * The entry is only added to this row, not to the header shared with the other rows.
+   * @see org.projectforge.continuousdb.DatabaseResultRow#add(org.projectforge.continuousdb.DatabaseResultRowEntry)
+   */
+  @Override
+  public void add(final DatabaseResultRowEntry entry)
+  {
+    if (addedEntries == null) {
+      addedEntries = new ArrayList<DatabaseResultRowEntry>(2);
+    }
+    addedEntries.add(entry);
+  }
+
+  private DatabaseResultRowEntry getAddedEntry(final String name)
+  {
+    if (addedEntries == null) {
+      return null;
+    }
+    for (final DatabaseResultRowEntry entry : addedEntries) {
+      if (entry.getName() != null && entry.getName().equalsIgnoreCase(name) == true) {
+        return entry;
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,107 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2014 Kai Reinhard (k.reinhard@micromata.de)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+package org.projectforge.continuousdb.jdbc;
+
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The column names and types of a result set, determined once per result set and shared by all rows.
+ * @author Kai Reinhard (k.reinhard@micromata.de)
+ * @see DatabaseResultCompactRowImpl
+ */
+public class DatabaseResultHeader
+{
+  private final String[] names;
+
+  private final int[] types;
+
+  private final Map<String, Integer> indexMap;
+
+  public static DatabaseResultHeader create(final ResultSetMetaData metaData) throws SQLException
+  {
+    final int columnCount = metaData.getColumnCount();
+    final String[] names = new String[columnCount];
+    final int[] types = new int[columnCount];
+    for (int i = 0; i < columnCount; i++) {
+      names[i] = metaData.getColumnName(i + 1);
+      types[i] = metaData.getColumnType(i + 1);
+    }
+    return new DatabaseResultHeader(names, types);
+  }
+
+  public DatabaseResultHeader(final String[] names, final int[] types)
+  {
+    this.names = names;
+    this.types = types;
+    this.indexMap = new HashMap<String, Integer>();
+    // Iterate backwards, so the first of several columns with equal names wins:
+    for (int i = names.length - 1; i >= 0; i--) {
+      if (names[i] == null) {
+        continue;
+      }
+      indexMap.put(names[i], i);
+      indexMap.put(names[i].toLowerCase(), i);
+    }
+  }
+
+  public int getColumnCount()
+  {
+    return names.length;
+  }
+
+  /**
+   * @param index Starts with 0.
+   */
+  public String getName(final int index)
+  {
+    return names[index];
+  }
+
+  /**
+   * @param index Starts with 0.
+   * @return The sql type.
+   * @see java.sql.Types
+   */
+  public int getType(final int index)
+  {
+    return types[index];
+  }
+
+  /**
+   * The given name is case insensitive. No object is allocated if the name is given in the case returned by the database or in lower case.
+   * @param name
+   * @return The index (starting with 0) or -1 if no such column exists.
+   */
+  public int getIndex(final String name)
+  {
+    Integer index = indexMap.get(name);
+    if (index == null) {
+      index = indexMap.get(name.toLowerCase());
+    }
+    return index != null ? index : -1;
+  }
+}
@@ -0,0 +1,232 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2014 Kai Reinhard (k.reinhard@micromata.de)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+package org.projectforge.continuousdb.jdbc;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+
+import javax.sql.DataSource;
+
+import org.projectforge.continuousdb.DatabaseBatchListener;
+import org.projectforge.continuousdb.DatabaseSession;
+
+/**
+ * Uses one connection of the data source for all statements until the session is closed.
+ * @author Kai Reinhard (k.reinhard@micromata.de)
+ * 
+ */
+public class DatabaseSessionImpl extends DatabaseExecutorImpl implements DatabaseSession
+{
+  private static final org.projectforge.common.Logger log = org.projectforge.common.Logger.getLogger(DatabaseSessionImpl.class);
+
+  private Connection connection;
+
+  private final PreparedStatementCache statementCache;
+
+  private boolean transactionActive;
+
+  /**
+   * @param dataSource
+   * @param statementCacheSize The maximum number of cached prepared statements. 0 disables the cache.
+   */
+  public DatabaseSessionImpl(final DataSource dataSource, final int statementCacheSize)
+  {
+    super.setDataSource(dataSource);
+    super.setStatementCacheSize(statementCacheSize);
+    this.statementCache = statementCacheSize > 0 ? new PreparedStatementCache(statementCacheSize) : null;
+    try {
+      this.connection = dataSource.getConnection();
+    } catch (final SQLException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  @Override
+  protected Connection getPinnedConnection()
+  {
+    if (connection == null) {
+      throw new IllegalStateException("Session is already closed.");
+    }
+    return connection;
+  }
+
+  @Override
+  protected PreparedStatementCache getStatementCache()
+  {
+    return statementCache;
+  }
+
+  @Override
+  public long getStatementCacheHits()
+  {
+    return statementCache != null ? statementCache.getHits() : 0;
+  }
+
+  @Override
+  public long getStatementCacheMisses()
+  {
+    return statementCache != null ? statementCache.getMisses() : 0;
+  }
+
+  @Override
+  public void setDataSource(final DataSource datasource)
+  {
+    throw new UnsupportedOperationException("The data source of a session can't be changed.");
+  }
+
+  @Override
+  public DatabaseSession openSession()
+  {
+    throw new UnsupportedOperationException("Nested sessions are not supported.");
+  }
+
+  /**
+   * Within an active transaction the batches aren't committed (the transaction is committed by the caller).
+   * @see org.projectforge.continuousdb.jdbc.DatabaseExecutorImpl#updateBatch(java.lang.String, java.lang.Iterable, int, boolean,
+   *      org.projectforge.continuousdb.DatabaseBatchListener)
+   */
+  @Override
+  public int updateBatch(final String sql, final Iterable<Object[]> args, final int batchSize, final boolean commitPerBatch,
+      final DatabaseBatchListener listener)
+  {
+    return super.updateBatch(sql, args, batchSize, commitPerBatch == true && transactionActive == false, listener);
+  }
+
+  @Override
+  public void beginTransaction()
+  {
+    if (transactionActive == true) {
+      throw new IllegalStateException("Transaction is already active.");
+    }
+    try {
+      getPinnedConnection().setAutoCommit(false);
+      transactionActive = true;
+    } catch (final SQLException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  @Override
+  public void commit()
+  {
+    endTransaction(true);
+  }
+
+  @Override
+  public void rollback()
+  {
+    endTransaction(false);
+  }
+
+  private void endTransaction(final boolean commit)
+  {
+    if (transactionActive == false) {
+      throw new IllegalStateException("No active transaction.");
+    }
+    transactionActive = false;
+    final Connection con = getPinnedConnection();
+    try {
+      if (commit == true) {
+        con.commit();
+      } else {
+        con.rollback();
+      }
+    } catch (final SQLException ex) {
+      throw new RuntimeException(ex);
+    } finally {
+      try {
+        con.setAutoCommit(true);
+      } catch (final SQLException ex) {
+        log.error("Exception encountered " + ex, ex);
+      }
+    }
+  }
+
+  @Override
+  public boolean isTransactionActive()
+  {
+    return transactionActive;
+  }
+
+  @Override
+  public Savepoint setSavepoint(final String name)
+  {
+    if (transactionActive == false) {
+      throw new IllegalStateException("Savepoints are only supported within an active transaction.");
+    }
+    try {
+      return getPinnedConnection().setSavepoint(name);
+    } catch (final SQLException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  @Override
+  public void rollback(final Savepoint savepoint)
+  {
+    try {
+      getPinnedConnection().rollback(savepoint);
+    } catch (final SQLException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  @Override
+  public void releaseSavepoint(final Savepoint savepoint)
+  {
+    try {
+      getPinnedConnection().releaseSavepoint(savepoint);
+    } catch (final SQLException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  @Override
+  public void close()
+  {
+    if (connection == null) {
+      return;
+    }
+    try {
+      if (transactionActive == true) {
+        log.warn("Session closed with active transaction, rolling back.");
+        rollback();
+      }
+    } finally {
+      if (statementCache != null) {
+        if (log.isDebugEnabled() == true) {
+          log.debug("Prepared statement cache of closed session: " + statementCache.getHits() + " hits, " + statementCache.getMisses() + " misses.");
+        }
+        statementCache.close();
+      }
+      try {
+        connection.close();
+      } catch (final SQLException ex) {
+        log.error("Exception encountered " + ex, ex);
+      }
+      connection = null;
+    }
+  }
+}
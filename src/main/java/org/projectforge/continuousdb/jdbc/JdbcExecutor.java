@@ -41,9 +41,66 @@ public abstract class JdbcExecutor
 
   private final DataSource dataSource;
 
+  private final Connection connection;
+
+  private final PreparedStatementCache statementCache;
+
+  private int fetchSize;
+
+  private boolean transactional;
+
   public JdbcExecutor(final DataSource dataSource)
+  {
+    this(dataSource, null);
+  }
+
+  /**
+   * @param dataSource
+   * @param connection If given, this connection is used and not closed after the execution (e. g. the connection of a session).
+   */
+  public JdbcExecutor(final DataSource dataSource, final Connection connection)
+  {
+    this(dataSource, connection, null);
+  }
+
+  /**
+   * @param dataSource
+   * @param connection If given, this connection is used and not closed after the execution (e. g. the connection of a session).
+   * @param statementCache If given, the prepared statements are taken from this cache and not closed after the execution. Only usable in
+   *          combination with the connection the cache belongs to.
+   */
+  public JdbcExecutor(final DataSource dataSource, final Connection connection, final PreparedStatementCache statementCache)
   {
     this.dataSource = dataSource;
+    this.connection = connection;
+    this.statementCache = statementCache;
+    if (statementCache != null && connection == null) {
+      throw new IllegalArgumentException("A statement cache is only supported for a given connection.");
+    }
+  }
+
+  /**
+   * If a fetch size is given, the statement is executed within a transaction (PostgreSQL uses server side cursors only if auto commit is
+   * switched off).
+   * @param fetchSize
+   * @return this for chaining.
+   */
+  public JdbcExecutor setFetchSize(final int fetchSize)
+  {
+    this.fetchSize = fetchSize;
+    return this;
+  }
+
+  /**
+   * @param transactional If true, auto commit is switched off and the statement is executed within a transaction. The transaction is
+   *          committed after the successful execution and rolled back on any error. The implementation may commit the transaction itself
+   *          (e. g. per batch) via the connection of the statement.
+   * @return this for chaining.
+   */
+  public JdbcExecutor setTransactional(final boolean transactional)
+  {
+    this.transactional = transactional;
+    return this;
   }
 
   public Object execute(final String sql, final boolean ignoreErrors, final Object... args)
@@ -51,18 +108,36 @@ public abstract class JdbcExecutor
     Connection con = null;
     PreparedStatement stmt = null;
     Object result = null;
+    boolean autoCommitSwitchedOff = false;
+    boolean committed = false;
     try {
       try {
-        con = dataSource.getConnection();
-        stmt = con.prepareStatement(sql);
+        con = connection != null ? connection : dataSource.getConnection();
+        stmt = statementCache != null ? statementCache.getStatement(con, sql) : con.prepareStatement(sql);
+        if ((fetchSize > 0 || transactional == true) && con.getAutoCommit() == true) {
+          con.setAutoCommit(false);
+          autoCommitSwitchedOff = true;
+        }
+        if (fetchSize > 0) {
+          stmt.setFetchSize(fetchSize);
+        }
         if (args != null && args.length > 0) {
           for (int i = 0; i < args.length; i++) {
             stmt.setObject(i + 1, args[i]);
           }
         }
         result = execute(stmt);
+        if (autoCommitSwitchedOff == true) {
+          con.commit();
+          committed = true;
+        }
         return result;
       } catch (final SQLException e) {
+        if (statementCache != null && stmt != null) {
+          // The statement may be in an undefined state:
+          statementCache.discard(sql, stmt);
+          stmt = null;
+        }
         if (ignoreErrors == false) {
           throw new RuntimeException(e);
         }
@@ -71,7 +146,20 @@ public abstract class JdbcExecutor
       }
     } finally {
       boolean hasErrors = false;
-      if (stmt != null) {
+      if (autoCommitSwitchedOff == true) {
+        try {
+          if (committed == false) {
+            con.rollback();
+          }
+          con.setAutoCommit(true);
+        } catch (final Exception e) {
+          hasErrors = true;
+          log.error("Exception encountered " + e, e);
+        }
+      }
+      if (stmt != null && statementCache != null) {
+        statementCache.release(sql, stmt);
+      } else if (stmt != null) {
         try {
           stmt.close();
         } catch (final Exception e) {
@@ -79,7 +167,7 @@ public abstract class JdbcExecutor
           log.error("Exception encountered " + e, e);
         }
       }
-      if (con != null) {
+      if (con != null && connection == null) {
         try {
           con.close();
         } catch (final Exception e) {
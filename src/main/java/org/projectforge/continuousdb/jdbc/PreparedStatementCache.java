@@ -0,0 +1,179 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2014 Kai Reinhard (k.reinhard@micromata.de)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+package org.projectforge.continuousdb.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * LRU cache of prepared statements of one connection keyed by the sql string. The cached statements are closed if they're evicted or the
+ * cache is closed. Not thread safe (as the connection it belongs to).
+ * @author Kai Reinhard (k.reinhard@micromata.de)
+ * 
+ */
+public class PreparedStatementCache
+{
+  private static final org.projectforge.common.Logger log = org.projectforge.common.Logger.getLogger(PreparedStatementCache.class);
+
+  private final Map<String, PreparedStatement> statements;
+
+  private final Set<PreparedStatement> statementsInUse = new HashSet<PreparedStatement>();
+
+  private long hits;
+
+  private long misses;
+
+  /**
+   * @param maxSize The maximum number of cached statements. The least recently used statement is closed if the cache exceeds this size.
+   */
+  public PreparedStatementCache(final int maxSize)
+  {
+    this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+      private static final long serialVersionUID = 3913627385621406727L;
+
+      @Override
+      protected boolean removeEldestEntry(final Map.Entry<String, PreparedStatement> eldest)
+      {
+        if (size() <= maxSize) {
+          return false;
+        }
+        if (statementsInUse.remove(eldest.getValue()) == false) {
+          close(eldest.getValue());
+        } // else: The statement is closed on release.
+        return true;
+      }
+    };
+  }
+
+  /**
+   * The returned statement has to be released after usage.
+   * @param con The connection of this cache.
+   * @param sql
+   * @return The cached statement (with cleared parameters and batch) or a new prepared statement which is put into the cache. If the cached
+   *         statement is still in use (e. g. by an outer streaming query), a new uncached statement is returned.
+   * @throws SQLException
+   * @see #release(String, PreparedStatement)
+   */
+  public PreparedStatement getStatement(final Connection con, final String sql) throws SQLException
+  {
+    PreparedStatement stmt = statements.get(sql);
+    ++misses;
+    if (stmt != null) {
+      if (statementsInUse.contains(stmt) == true) {
+        return con.prepareStatement(sql);
+      }
+      --misses;
+      ++hits;
+      stmt.clearParameters();
+      stmt.clearBatch();
+    } else {
+      stmt = con.prepareStatement(sql);
+      statements.put(sql, stmt);
+    }
+    statementsInUse.add(stmt);
+    return stmt;
+  }
+
+  /**
+   * Marks the given statement as unused. Statements not held by this cache are closed.
+   * @param sql
+   * @param stmt
+   */
+  public void release(final String sql, final PreparedStatement stmt)
+  {
+    if (statementsInUse.remove(stmt) == false) {
+      close(stmt);
+    }
+  }
+
+  /**
+   * Closes the given statement and removes it from the cache if cached (e. g. after an error, because the statement may be in an undefined
+   * state).
+   * @param sql
+   * @param stmt
+   */
+  public void discard(final String sql, final PreparedStatement stmt)
+  {
+    statementsInUse.remove(stmt);
+    if (statements.get(sql) == stmt) {
+      statements.remove(sql);
+    }
+    close(stmt);
+  }
+
+  /**
+   * Closes and removes all cached statements, e. g. after schema modifications (prepared statements may refer to the previous schema).
+   * Statements in use are closed on release.
+   */
+  public void clear()
+  {
+    for (final PreparedStatement stmt : statements.values()) {
+      if (statementsInUse.remove(stmt) == false) {
+        close(stmt);
+      }
+    }
+    statements.clear();
+  }
+
+  /**
+   * Closes all cached statements.
+   */
+  public void close()
+  {
+    for (final PreparedStatement stmt : statements.values()) {
+      close(stmt);
+    }
+    statements.clear();
+    statementsInUse.clear();
+  }
+
+  public long getHits()
+  {
+    return hits;
+  }
+
+  public long getMisses()
+  {
+    return misses;
+  }
+
+  public int size()
+  {
+    return statements.size();
+  }
+
+  private void close(final PreparedStatement stmt)
+  {
+    try {
+      stmt.close();
+    } catch (final SQLException ex) {
+      log.error("Exception encountered " + ex, ex);
+    }
+  }
+}
@@ -0,0 +1,227 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2014 Kai Reinhard (k.reinhard@micromata.de)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+package org.projectforge.continuousdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.projectforge.common.DatabaseDialect;
+
+public class ClusterUpdateLockTest
+{
+  private static final long LEASE = 60000;
+
+  @Test
+  public void leaseBasedOnDatabaseTime()
+  {
+    final LockDatabase db = new LockDatabase();
+    // Clock of the database is one hour ahead of the clock of this node:
+    db.time = System.currentTimeMillis() + 3600000;
+    final ClusterUpdateLock node1 = createLock(db);
+    final ClusterUpdateLock node2 = createLock(db);
+    node1.acquire(100);
+    assertEquals(node1.getOwner(), db.owner);
+    assertEquals(db.time + LEASE, db.leaseUntil.getTime());
+    try {
+      node2.acquire(100);
+      Assert.fail("IllegalStateException expected (lease of node 1 isn't expired).");
+    } catch (final IllegalStateException ex) {
+      // OK.
+    }
+    // Node 1 crashed, lease expired:
+    db.time += LEASE + 1;
+    node2.acquire(100);
+    assertEquals(node2.getOwner(), db.owner);
+    node2.release();
+    assertEquals(null, db.owner);
+  }
+
+  @Test
+  public void threadsOfOneNode() throws InterruptedException
+  {
+    final LockDatabase db = new LockDatabase();
+    final ClusterUpdateLock lock = createLock(db);
+    final AtomicInteger holders = new AtomicInteger();
+    final List<Throwable> errors = new ArrayList<Throwable>();
+    final List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < 4; i++) {
+      threads.add(new Thread() {
+        @Override
+        public void run()
+        {
+          try {
+            for (int j = 0; j < 5; j++) {
+              lock.acquire(10000);
+              lock.acquire(10000); // Reentrant.
+              try {
+                assertEquals("Lock held by more than one thread.", 1, holders.incrementAndGet());
+                Thread.sleep(2);
+                holders.decrementAndGet();
+              } finally {
+                lock.release();
+                lock.release();
+              }
+            }
+          } catch (final Throwable ex) {
+            synchronized (errors) {
+              errors.add(ex);
+            }
+          }
+        }
+      });
+    }
+    for (final Thread thread : threads) {
+      thread.start();
+    }
+    for (final Thread thread : threads) {
+      thread.join();
+    }
+    assertTrue(errors.toString(), errors.isEmpty());
+    assertFalse(lock.isHeldByCurrentThread());
+    assertEquals(null, db.owner);
+  }
+
+  @Test
+  public void databaseAccessOutsideOfMonitor() throws InterruptedException
+  {
+    final CountDownLatch updating = new CountDownLatch(1);
+    final CountDownLatch proceed = new CountDownLatch(1);
+    final LockDatabase db = new LockDatabase() {
+      @Override
+      protected int onUpdate(final String sql, final Object... args)
+      {
+        if (sql.contains("set owner=?") == true) {
+          updating.countDown();
+          try {
+            proceed.await();
+          } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+          }
+        }
+        return super.onUpdate(sql, args);
+      }
+    };
+    final ClusterUpdateLock lock = createLock(db);
+    final Thread thread = new Thread() {
+      @Override
+      public void run()
+      {
+        lock.acquire(10000);
+        lock.release();
+      }
+    };
+    thread.start();
+    assertTrue(updating.await(10, TimeUnit.SECONDS));
+    // Doesn't block while the other thread is accessing the database:
+    assertFalse(lock.isHeldByCurrentThread());
+    proceed.countDown();
+    thread.join();
+    assertEquals(null, db.owner);
+  }
+
+  @Test
+  public void minimumLease()
+  {
+    try {
+      new UpdaterConfiguration().setClusterLockLeaseMillis(2);
+      Assert.fail("IllegalArgumentException expected (lease too short).");
+    } catch (final IllegalArgumentException ex) {
+      // OK.
+    }
+    new UpdaterConfiguration().setClusterLockLeaseMillis(UpdaterConfiguration.MIN_CLUSTER_LOCK_LEASE_MILLIS);
+  }
+
+  private ClusterUpdateLock createLock(final LockDatabase db)
+  {
+    final UpdaterConfiguration configuration = new UpdaterConfiguration().setDialect(DatabaseDialect.HSQL).setClusterLockLeaseMillis(LEASE);
+    return new ClusterUpdateLock(new TestDatabaseUpdateDao(configuration, db), configuration);
+  }
+
+  /**
+   * The lock row with a clock of the database independent of the clock of this node.
+   */
+  private static class LockDatabase extends TestDatabaseSession
+  {
+    long time = System.currentTimeMillis();
+
+    String owner;
+
+    Timestamp leaseUntil;
+
+    LockDatabase()
+    {
+      addTable(DatabaseUpdateDao.UPDATE_LOCK_TABLE);
+    }
+
+    @Override
+    protected synchronized List<Object[]> onQuery(final String sql, final Object... args)
+    {
+      final List<Object[]> rows = new ArrayList<Object[]>();
+      if (sql.startsWith("select count(*)") == true) {
+        rows.add(new Object[] { 1});
+      } else if (sql.startsWith("select current_timestamp") == true) {
+        rows.add(new Object[] { new Timestamp(time)});
+      }
+      return rows;
+    }
+
+    @Override
+    protected synchronized int onUpdate(final String sql, final Object... args)
+    {
+      if (sql.contains("set owner=?, lease_until=?") == true) {
+        if (owner != null && leaseUntil.getTime() >= time) {
+          return 0;
+        }
+        owner = (String) args[0];
+        leaseUntil = (Timestamp) args[1];
+        return 1;
+      }
+      if (sql.contains("set lease_until=?") == true) {
+        if (args[2].equals(owner) == false) {
+          return 0;
+        }
+        leaseUntil = (Timestamp) args[0];
+        return 1;
+      }
+      if (sql.contains("set owner=null") == true) {
+        if (args[1].equals(owner) == false) {
+          return 0;
+        }
+        owner = null;
+        leaseUntil = null;
+        return 1;
+      }
+      return 0;
+    }
+  }
+}
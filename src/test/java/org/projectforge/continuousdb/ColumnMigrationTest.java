@@ -0,0 +1,320 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2014 Kai Reinhard (k.reinhard@micromata.de)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+package org.projectforge.continuousdb;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import org.junit.Test;
+
+public class ColumnMigrationTest
+{
+  @Test
+  public void interruptAndResume()
+  {
+    final AddressDatabase db = new AddressDatabase(10);
+    final DatabaseUpdateDao dao = new TestDatabaseUpdateDao(db);
+
+    // First run is interrupted at the row with pk 7 (third chunk):
+    ColumnMigration migration = createMigration(dao, 7);
+    assertEquals(UpdateRunningStatus.FAILED, migration.run());
+    assertEquals(6, migration.getProcessedRows());
+    final Map<String, Object> checkpoint = db.checkpoints.get(0);
+    assertEquals("6", checkpoint.get("last_key"));
+    assertEquals("Type of the keys must be stored by the first chunk.", Integer.class.getName(), checkpoint.get("key_type"));
+
+    // Second run resumes after the last committed chunk:
+    migration = createMigration(dao, -1);
+    assertEquals(UpdateRunningStatus.DONE, migration.run());
+    assertEquals(4, migration.getProcessedRows());
+    for (int pk = 1; pk <= 10; pk++) {
+      assertEquals("Row " + pk + " converted once.", Integer.valueOf(1), db.updates.get(pk));
+      assertEquals(new BigDecimal(pk + ".5"), db.rows.get(pk)[1]);
+    }
+    assertEquals(Boolean.TRUE, checkpoint.get("done"));
+  }
+
+  @Test
+  public void retries()
+  {
+    // Errors of the converter aren't retried:
+    AddressDatabase db = new AddressDatabase(10);
+    ColumnMigration migration = createMigration(new TestDatabaseUpdateDao(db), 7).setMaxRetries(2);
+    assertEquals(UpdateRunningStatus.FAILED, migration.run());
+    assertEquals("Chunks read by one attempt.", 3, countChunkQueries(db));
+
+    // Database errors are retried after the last committed chunk:
+    db = new AddressDatabase(10);
+    db.failingUpdatePk = 4;
+    migration = createMigration(new TestDatabaseUpdateDao(db), -1).setMaxRetries(2);
+    assertEquals(UpdateRunningStatus.DONE, migration.run());
+    assertEquals(10, migration.getProcessedRows());
+    assertEquals("Chunks of both attempts.", 2 + 3, countChunkQueries(db));
+    for (int pk = 1; pk <= 10; pk++) {
+      assertEquals("Row " + pk + " converted once.", Integer.valueOf(1), db.updates.get(pk));
+    }
+
+    // Database errors which would occur again (e. g. constraint violations) aren't retried:
+    db = new AddressDatabase(10);
+    db.violatingUpdatePk = 4;
+    migration = createMigration(new TestDatabaseUpdateDao(db), -1).setMaxRetries(2);
+    assertEquals(UpdateRunningStatus.FAILED, migration.run());
+    assertEquals("Chunks read by one attempt.", 2, countChunkQueries(db));
+  }
+
+  /**
+   * Several ranges processed concurrently against a real database.
+   */
+  @Test
+  public void multipleRanges()
+  {
+    final int numberOfRows = 1000;
+    final DatabaseUpdateDao dao = HsqlTestDatabase.createConfiguration().getDatabaseUpdateDao();
+    try {
+      dao.createTable(new Table("t_address").addAttribute(new TableAttribute("pk", TableAttributeType.INT).setPrimaryKey(true))
+          .addAttribute(new TableAttribute("amount", TableAttributeType.VARCHAR, 20)));
+      final List<Object[]> values = new ArrayList<Object[]>();
+      for (int pk = 1; pk <= numberOfRows; pk++) {
+        values.add(new Object[] { pk, pk + ".5"});
+      }
+      dao.insertIntoBatch("t_address", new String[] { "pk", "amount"}, values);
+      final Map<Object, Integer> conversions = new HashMap<Object, Integer>();
+      final ColumnConverter converter = new ColumnConverter() {
+        @Override
+        public Object convert(final Object value)
+        {
+          synchronized (conversions) {
+            final Integer counter = conversions.get(value);
+            conversions.put(value, counter == null ? 1 : counter + 1);
+          }
+          return new BigDecimal((String) value);
+        }
+      };
+      final ColumnMigration migration = new ColumnMigration(dao, "t_address", "pk", "amount", new TableAttribute("amount_new",
+          TableAttributeType.DECIMAL, 10, 2), converter).setChunkSize(50).setParallelism(2).setMigrationId("t_address.amount");
+      assertEquals(UpdateRunningStatus.DONE, migration.run());
+      assertEquals(numberOfRows, migration.getProcessedRows());
+      assertEquals(2 * ColumnMigration.RANGES_PER_WORKER, migration.getRanges().size());
+      assertEquals(numberOfRows, conversions.size());
+      for (final Map.Entry<Object, Integer> entry : conversions.entrySet()) {
+        assertEquals("Row " + entry.getKey() + " converted once.", Integer.valueOf(1), entry.getValue());
+      }
+      assertEquals(numberOfRows, dao.queryForInt("select count(*) from t_address where amount_new = pk + 0.5"));
+      final List<MigrationRange> checkpoints = dao.loadMigrationCheckpoints("t_address.amount");
+      assertEquals(migration.getRanges().size(), checkpoints.size());
+      long processedRows = 0;
+      for (final MigrationRange checkpoint : checkpoints) {
+        assertEquals("Checkpoint of range " + checkpoint, UpdateRunningStatus.DONE, checkpoint.getStatus());
+        processedRows += checkpoint.getProcessedRows();
+      }
+      assertEquals(numberOfRows, processedRows);
+    } finally {
+      dao.shutdownDatabase();
+    }
+  }
+
+  /**
+   * The keys are restored with their original type after a restart.
+   */
+  @Test
+  public void checkpointKeyTypes()
+  {
+    final DatabaseUpdateDao dao = HsqlTestDatabase.createConfiguration().getDatabaseUpdateDao();
+    try {
+      final UUID uuid = UUID.randomUUID();
+      final Timestamp timestamp = Timestamp.valueOf("2011-02-03 04:05:06.789");
+      dao.saveMigrationCheckpoints("keys", Arrays.asList(new MigrationRange(0, null, new BigDecimal("10.5")), new MigrationRange(1,
+          new BigDecimal("10.5"), null), new MigrationRange(2, null, null), new MigrationRange(3, null, null)));
+      dao.updateMigrationCheckpoint("keys", 0, new BigDecimal("2.25"), 1, false);
+      dao.updateMigrationCheckpoint("keys", 2, uuid, 1, false);
+      dao.updateMigrationCheckpoint("keys", 3, timestamp, 1, true);
+      final List<MigrationRange> ranges = dao.loadMigrationCheckpoints("keys");
+      assertEquals(new BigDecimal("10.5"), ranges.get(0).getUpperKey());
+      assertEquals(new BigDecimal("2.25"), ranges.get(0).getLastKey());
+      assertEquals(new BigDecimal("10.5"), ranges.get(1).getLowerKey());
+      assertEquals(null, ranges.get(1).getLastKey());
+      assertEquals(uuid, ranges.get(2).getLastKey());
+      assertEquals(timestamp, ranges.get(3).getLastKey());
+      assertEquals(UpdateRunningStatus.DONE, ranges.get(3).getStatus());
+    } finally {
+      dao.shutdownDatabase();
+    }
+  }
+
+  private int countChunkQueries(final TestDatabaseSession db)
+  {
+    int counter = 0;
+    for (final String statement : db.statements) {
+      if (statement.startsWith("select pk, amount from t_address") == true) {
+        ++counter;
+      }
+    }
+    return counter;
+  }
+
+  private ColumnMigration createMigration(final DatabaseUpdateDao dao, final int failingPk)
+  {
+    final ColumnConverter converter = new ColumnConverter() {
+      @Override
+      public Object convert(final Object value)
+      {
+        if ((failingPk + ".5").equals(value) == true) {
+          throw new IllegalArgumentException("Conversion failed: " + value);
+        }
+        return new BigDecimal((String) value);
+      }
+    };
+    return new ColumnMigration(dao, "t_address", "pk", "amount", new TableAttribute("amount_new", TableAttributeType.DECIMAL, 10, 2),
+        converter).setChunkSize(3).setMaxRetries(0).setMigrationId("t_address.amount");
+  }
+
+  /**
+   * Table t_address (pk, amount, amount_new) and the checkpoint table. Keys of other types than integer are rejected like PostgreSQL does.
+   */
+  private static class AddressDatabase extends TestDatabaseSession
+  {
+    private static final String[] CHECKPOINT_COLUMNS = { "migration_id", "range_index", "key_type", "lower_key", "upper_key",
+      "last_key", "processed_rows", "done", "last_update"};
+
+    final TreeMap<Integer, Object[]> rows = new TreeMap<Integer, Object[]>();
+
+    final Map<Integer, Integer> updates = new HashMap<Integer, Integer>();
+
+    final List<Map<String, Object>> checkpoints = new ArrayList<Map<String, Object>>();
+
+    /**
+     * The update of this row fails once as by a dead lock.
+     */
+    int failingUpdatePk = -1;
+
+    /**
+     * The update of this row always fails as by a constraint violation.
+     */
+    int violatingUpdatePk = -1;
+
+    AddressDatabase(final int numberOfRows)
+    {
+      addTable("t_address", "pk", "INT4", "amount", "VARCHAR", "amount_new", "NUMERIC");
+      for (int pk = 1; pk <= numberOfRows; pk++) {
+        rows.put(pk, new Object[] { pk + ".5", null});
+      }
+    }
+
+    @Override
+    protected List<Object[]> onQuery(final String sql, final Object... args)
+    {
+      final List<Object[]> result = new ArrayList<Object[]>();
+      if (sql.contains(DatabaseUpdateDao.MIGRATION_CHECKPOINT_TABLE) == true) {
+        for (final Map<String, Object> checkpoint : checkpoints) {
+          if (checkpoint.get("migration_id").equals(args[0]) == true) {
+            result.add(new Object[] { checkpoint.get("range_index"), checkpoint.get("key_type"), checkpoint.get("lower_key"),
+                checkpoint.get("upper_key"), checkpoint.get("last_key"), checkpoint.get("processed_rows"), checkpoint.get("done")});
+          }
+        }
+        return result;
+      }
+      if (sql.startsWith("select pk, amount from t_address") == true) {
+        int pos = 0;
+        final long lowerKey = sql.contains("pk > ?") == true ? toInt(args[pos++]) : Long.MIN_VALUE;
+        final long upperKey = sql.contains("pk <= ?") == true ? toInt(args[pos++]) : Long.MAX_VALUE;
+        final int limit = Integer.parseInt(sql.substring(sql.indexOf("LIMIT ") + 6).trim());
+        for (final Map.Entry<Integer, Object[]> entry : rows.entrySet()) {
+          if (entry.getKey() > lowerKey && entry.getKey() <= upperKey && result.size() < limit) {
+            result.add(new Object[] { entry.getKey(), entry.getValue()[0]});
+          }
+        }
+        return result;
+      }
+      throw new UnsupportedOperationException(sql);
+    }
+
+    @Override
+    protected int onUpdate(final String sql, final Object... args)
+    {
+      if (sql.startsWith("insert into " + DatabaseUpdateDao.MIGRATION_CHECKPOINT_TABLE) == true) {
+        final Map<String, Object> checkpoint = new HashMap<String, Object>();
+        for (int i = 0; i < CHECKPOINT_COLUMNS.length; i++) {
+          checkpoint.put(CHECKPOINT_COLUMNS[i], args[i]);
+        }
+        checkpoints.add(checkpoint);
+        return 1;
+      }
+      if (sql.startsWith("update " + DatabaseUpdateDao.MIGRATION_CHECKPOINT_TABLE) == true) {
+        final String[] columns = sql.substring(sql.indexOf(" set ") + 5, sql.indexOf(" where ")).split(",");
+        for (final Map<String, Object> checkpoint : checkpoints) {
+          if (checkpoint.get("migration_id").equals(args[args.length - 2]) == true
+              && checkpoint.get("range_index").equals(args[args.length - 1]) == true) {
+            for (int i = 0; i < columns.length; i++) {
+              checkpoint.put(columns[i].replace("=?", "").trim(), args[i]);
+            }
+            return 1;
+          }
+        }
+        return 0;
+      }
+      if (sql.startsWith("delete from " + DatabaseUpdateDao.MIGRATION_CHECKPOINT_TABLE) == true) {
+        int counter = 0;
+        for (int i = checkpoints.size() - 1; i >= 0; i--) {
+          if (checkpoints.get(i).get("migration_id").equals(args[0]) == true) {
+            checkpoints.remove(i);
+            ++counter;
+          }
+        }
+        return counter;
+      }
+      if (sql.startsWith("update t_address set amount_new=? where pk=?") == true) {
+        final int pk = toInt(args[1]);
+        if (pk == failingUpdatePk) {
+          failingUpdatePk = -1;
+          throw new RuntimeException(new SQLException("ERROR: deadlock detected", "40P01"));
+        }
+        if (pk == violatingUpdatePk) {
+          throw new RuntimeException(new SQLException("ERROR: duplicate key value violates unique constraint", "23505"));
+        }
+        rows.get(pk)[1] = args[0];
+        final Integer counter = updates.get(pk);
+        updates.put(pk, counter == null ? 1 : counter + 1);
+        return 1;
+      }
+      throw new UnsupportedOperationException(sql);
+    }
+
+    private int toInt(final Object key)
+    {
+      if (key instanceof Number == false) {
+        throw new RuntimeException("ERROR: operator does not exist: integer > character varying (key: '" + key + "')");
+      }
+      return ((Number) key).intValue();
+    }
+  }
+}
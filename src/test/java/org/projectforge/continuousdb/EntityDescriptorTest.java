@@ -0,0 +1,55 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2014 Kai Reinhard (k.reinhard@micromata.de)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+package org.projectforge.continuousdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class EntityDescriptorTest
+{
+  @Test
+  public void read() throws IOException
+  {
+    final EntityDescriptor descriptor = EntityDescriptor.read(new StringReader("# Generated, don't edit.\n" //
+        + "version=1\n" //
+        + "entity=org.projectforge.continuousdb.demo.entities.TaskDO\n" //
+        + "field=title\n" //
+        + "getter=parentTask\n" //
+        + "inheritedField=created\n" //
+        + "inheritedGetter=id\n" //
+        + "getter=duration\n"));
+    assertEquals("org.projectforge.continuousdb.demo.entities.TaskDO", descriptor.getEntity());
+    assertEquals(Arrays.asList("title"), descriptor.getFields(true));
+    assertEquals(Arrays.asList("title", "created"), descriptor.getFields(false));
+    assertEquals(Arrays.asList("parentTask", "duration"), descriptor.getGetters(true));
+    assertEquals(Arrays.asList("parentTask", "duration", "id"), descriptor.getGetters(false));
+    assertNull("Unsupported version.", EntityDescriptor.read(new StringReader("version=2\nentity=TaskDO\n")));
+    assertNull("Version missing.", EntityDescriptor.read(new StringReader("entity=TaskDO\n")));
+  }
+}
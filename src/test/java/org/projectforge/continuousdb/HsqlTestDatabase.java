@@ -0,0 +1,49 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2014 Kai Reinhard (k.reinhard@micromata.de)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+package org.projectforge.continuousdb;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.dbcp.BasicDataSource;
+import org.projectforge.common.DatabaseDialect;
+
+/**
+ * In-memory HSQLDB for tests against a real database. Every call of {@link #createConfiguration()} creates a new empty database.
+ */
+public class HsqlTestDatabase
+{
+  private static final AtomicInteger counter = new AtomicInteger();
+
+  /**
+   * @return A configuration of a new in-memory database. Please call {@link DatabaseUpdateDao#shutdownDatabase()} after usage.
+   */
+  public static UpdaterConfiguration createConfiguration()
+  {
+    final BasicDataSource dataSource = new BasicDataSource();
+    dataSource.setDriverClassName("org.hsqldb.jdbcDriver");
+    dataSource.setUsername("sa");
+    dataSource.setUrl("jdbc:hsqldb:mem:continuousdb" + counter.incrementAndGet());
+    return new UpdaterConfiguration().setDialect(DatabaseDialect.HSQL).setDataSource(dataSource);
+  }
+}
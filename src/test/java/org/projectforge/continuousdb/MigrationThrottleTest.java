@@ -0,0 +1,85 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2014 Kai Reinhard (k.reinhard@micromata.de)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+package org.projectforge.continuousdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class MigrationThrottleTest
+{
+  @Test
+  public void backoff()
+  {
+    final MigrationThrottle throttle = new MigrationThrottle().setMaxBatchMillis(100).setMaxBackoffMillis(30);
+    throttle.afterBatch(10, 50);
+    assertEquals(0, throttle.getBackoffMillis());
+    throttle.afterBatch(10, 200);
+    assertEquals(10, throttle.getBackoffMillis());
+    throttle.afterBatch(10, 200);
+    assertEquals(20, throttle.getBackoffMillis());
+    throttle.afterBatch(10, 200);
+    assertEquals(30, throttle.getBackoffMillis()); // Limited by max backoff.
+    throttle.afterBatch(10, 50);
+    assertEquals(15, throttle.getBackoffMillis());
+    throttle.afterBatch(10, 50);
+    assertEquals(0, throttle.getBackoffMillis());
+  }
+
+  @Test
+  public void rateLimit()
+  {
+    final MigrationThrottle throttle = new MigrationThrottle().setMaxRowsPerSecond(1000);
+    final long start = System.currentTimeMillis();
+    for (int i = 0; i < 4; i++) {
+      throttle.afterBatch(50, 0);
+    }
+    // The first three batches have to wait for the time slots of their predecessors (3 * 50ms):
+    assertTrue(System.currentTimeMillis() - start >= 140);
+  }
+
+  @Test
+  public void pauseAndResume() throws InterruptedException
+  {
+    final MigrationThrottle throttle = new MigrationThrottle();
+    throttle.pause();
+    assertTrue(throttle.isPaused());
+    final Thread worker = new Thread() {
+      @Override
+      public void run()
+      {
+        throttle.afterBatch(10, 10);
+      }
+    };
+    worker.start();
+    worker.join(100);
+    assertTrue(worker.isAlive());
+    throttle.resume();
+    worker.join(1000);
+    assertFalse(worker.isAlive());
+    assertFalse(throttle.isPaused());
+  }
+}
@@ -0,0 +1,120 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2014 Kai Reinhard (k.reinhard@micromata.de)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+package org.projectforge.continuousdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+import org.junit.Test;
+
+public class RowMappersTest
+{
+  public static class Person
+  {
+    private int id;
+
+    private String lastName;
+
+    public void setId(final int id)
+    {
+      this.id = id;
+    }
+
+    public void setLastName(final String lastName)
+    {
+      this.lastName = lastName;
+    }
+  }
+
+  @Test
+  public void bean() throws SQLException
+  {
+    final RowMapper<Person> mapper = RowMappers.bean(Person.class);
+    final Object[] row = new Object[] { 42L, "Reinhard", "ignored"};
+    mapper.init(createMetaData("ID", "LAST_NAME", "unknown"));
+    final Person person = mapper.mapRow(createResultSet(row), 0);
+    assertEquals(42, person.id);
+    assertEquals("Reinhard", person.lastName);
+    row[0] = null;
+    assertEquals(0, mapper.mapRow(createResultSet(row), 1).id);
+  }
+
+  @Test
+  public void singleColumnAndArray() throws SQLException
+  {
+    final RowMapper<Integer> mapper = RowMappers.singleColumn(Integer.class);
+    mapper.init(createMetaData("count"));
+    assertEquals(Integer.valueOf(5), mapper.mapRow(createResultSet(new Object[] { 5L}), 0));
+    assertNull(mapper.mapRow(createResultSet(new Object[] { null}), 1));
+    final RowMapper<Object[]> arrayMapper = RowMappers.objectArray();
+    arrayMapper.init(createMetaData("a", "b"));
+    assertEquals("b", arrayMapper.mapRow(createResultSet(new Object[] { "a", "b"}), 0)[1]);
+    final RowMapper<DatabaseResultRow> rowMapper = RowMappers.databaseResultRow();
+    rowMapper.init(createMetaData("a", "b"));
+    assertEquals("b", rowMapper.mapRow(createResultSet(new Object[] { "a", "b"}), 0).getEntry("B").getValue());
+  }
+
+  private ResultSetMetaData createMetaData(final String... names)
+  {
+    return (ResultSetMetaData) Proxy.newProxyInstance(getClass().getClassLoader(), new Class< ? >[] { ResultSetMetaData.class},
+        new InvocationHandler() {
+          @Override
+          public Object invoke(final Object proxy, final Method method, final Object[] args)
+          {
+            if ("getColumnCount".equals(method.getName()) == true) {
+              return names.length;
+            } else if ("getColumnName".equals(method.getName()) == true) {
+              return names[(Integer) args[0] - 1];
+            } else if ("getColumnType".equals(method.getName()) == true) {
+              return java.sql.Types.OTHER;
+            }
+            throw new UnsupportedOperationException(method.getName());
+          }
+        });
+  }
+
+  private ResultSet createResultSet(final Object[] values)
+  {
+    return (ResultSet) Proxy.newProxyInstance(getClass().getClassLoader(), new Class< ? >[] { ResultSet.class}, new InvocationHandler() {
+      @Override
+      public Object invoke(final Object proxy, final Method method, final Object[] args)
+      {
+        final Object value = values[(Integer) args[0] - 1];
+        if ("getObject".equals(method.getName()) == true) {
+          return value;
+        } else if ("getString".equals(method.getName()) == true) {
+          return value != null ? String.valueOf(value) : null;
+        }
+        throw new UnsupportedOperationException(method.getName());
+      }
+    });
+  }
+}
@@ -0,0 +1,108 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2014 Kai Reinhard (k.reinhard@micromata.de)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+package org.projectforge.continuousdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SchemaFingerprintTest
+{
+  @Test
+  public void compute()
+  {
+    final String fingerprint = SchemaFingerprint.compute(Arrays.asList(createUserTable(100), createTaskTable()));
+    assertEquals(40, fingerprint.length());
+    assertEquals("Order of tables doesn't matter.", fingerprint,
+        SchemaFingerprint.compute(Arrays.asList(createTaskTable(), createUserTable(100))));
+    assertFalse(fingerprint.equals(SchemaFingerprint.compute(Arrays.asList(createUserTable(255), createTaskTable()))));
+  }
+
+  @SuppressWarnings("serial")
+  @Test
+  public void computeVersions()
+  {
+    final UpdateEntry[] entries = new UpdateEntry[3];
+    final String[][] values = { { "core", "1.0", "2011-01-01"}, { "core", "1.1", "2011-02-01"}, { "plugin", "0.1", "2011-01-15"}};
+    for (int i = 0; i < values.length; i++) {
+      entries[i] = new UpdateEntryImpl(values[i][0], values[i][1], values[i][2], "...") {
+        @Override
+        public UpdateRunningStatus runUpdate()
+        {
+          return null;
+        }
+
+        @Override
+        public UpdatePreCheckStatus runPreCheck()
+        {
+          return null;
+        }
+      };
+    }
+    assertEquals("core:" + entries[1].getVersion() + ";plugin:" + entries[2].getVersion(),
+        SchemaFingerprint.computeVersions(Arrays.asList(entries)));
+  }
+
+  @Test
+  public void readSchemaFingerprint()
+  {
+    final TestDatabaseSession db = new TestDatabaseSession() {
+      @Override
+      protected List<Object[]> onQuery(final String sql, final Object... args)
+      {
+        throw new IllegalStateException("Connection lost.");
+      }
+    };
+    final TestDatabaseUpdateDao dao = new TestDatabaseUpdateDao(db);
+    assertNull("Table doesn't exist.", dao.readSchemaFingerprint());
+    assertEquals("Row is selected directly.",
+        Arrays.asList("select fingerprint, versions from " + DatabaseUpdateDao.SCHEMA_FINGERPRINT_TABLE), db.statements);
+    assertEquals("Catalog is read only after the failed select.", 1, dao.tableQueries);
+    db.addTable(DatabaseUpdateDao.SCHEMA_FINGERPRINT_TABLE);
+    try {
+      dao.readSchemaFingerprint();
+      Assert.fail("Errors other than a missing table shouldn't be ignored.");
+    } catch (final IllegalStateException ex) {
+      // OK.
+    }
+  }
+
+  private Table createUserTable(final int nameLength)
+  {
+    return new Table("T_USER").addAttribute(new TableAttribute("pk", TableAttributeType.INT).setPrimaryKey(true))
+        .addAttribute(new TableAttribute("name", TableAttributeType.VARCHAR, nameLength));
+  }
+
+  private Table createTaskTable()
+  {
+    return new Table("t_task").addAttribute(new TableAttribute("user_id", TableAttributeType.INT).setForeignTable("t_user")
+        .setForeignAttribute("pk")).addAttribute(new TableAttribute("pk", TableAttributeType.INT).setPrimaryKey(true));
+  }
+}
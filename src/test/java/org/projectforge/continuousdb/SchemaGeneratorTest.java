@@ -0,0 +1,197 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2014 Kai Reinhard (k.reinhard@micromata.de)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+package org.projectforge.continuousdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.projectforge.common.DatabaseDialect;
+import org.projectforge.continuousdb.demo.entities.AccessEntryDO;
+import org.projectforge.continuousdb.demo.entities.GroupDO;
+import org.projectforge.continuousdb.demo.entities.GroupTaskAccessDO;
+import org.projectforge.continuousdb.demo.entities.TaskDO;
+import org.projectforge.continuousdb.demo.entities.UserDO;
+import org.projectforge.continuousdb.demo.entities.UserRightDO;
+
+public class SchemaGeneratorTest
+{
+  @Test
+  public void sortByForeignKeys()
+  {
+    final Table user = createTable("t_user", "t_group", "t_user");
+    final Table task = createTable("t_task", "T_USER", "t_task");
+    final Table group = createTable("t_group", "t_existing");
+    final Table access = createTable("t_access", "t_task", "t_group");
+    assertOrder(SchemaGenerator.sortByForeignKeys(Arrays.asList(access, task, user, group), true), "t_group", "t_user", "t_task",
+        "t_access");
+    assertOrder(SchemaGenerator.sortByForeignKeys(Arrays.asList(group, user, task, access), true), "t_group", "t_user", "t_task",
+        "t_access");
+
+    final Table a = createTable("t_a", "t_b");
+    final Table b = createTable("t_b", "t_a");
+    try {
+      SchemaGenerator.sortByForeignKeys(Arrays.asList(a, group, b), true);
+      Assert.fail("IllegalStateException expected (cyclic foreign keys).");
+    } catch (final IllegalStateException ex) {
+      // OK.
+    }
+    assertOrder(SchemaGenerator.sortByForeignKeys(Arrays.asList(a, group, b), false), "t_group", "t_a", "t_b");
+  }
+
+  @Test
+  public void exportSchemaForEmptyDatabase()
+  {
+    final UpdaterConfiguration configuration = new UpdaterConfiguration().setDialect(DatabaseDialect.PostgreSQL);
+    // No data source: the script of an empty database is built without database access.
+    final SchemaGenerator schemaGenerator = new SchemaGenerator(new DatabaseUpdateDao(configuration)).add(
+        createTable("t_task", "t_user"), createTable("t_user")).setCreateForeignKeyIndices(true);
+    final StringWriter writer = new StringWriter();
+    schemaGenerator.exportSchema(writer, true);
+    final String script = writer.toString();
+    final int createUser = script.indexOf("CREATE TABLE t_user");
+    final int createTask = script.indexOf("CREATE TABLE t_task");
+    final int foreignKey = script.indexOf("ALTER TABLE t_task ADD CONSTRAINT t_task_t_user_fk FOREIGN KEY (t_user_fk) REFERENCES t_user(pk);");
+    final int index = script.indexOf("CREATE INDEX idx_fk_t_task_t_user_fk ON t_task(t_user_fk);");
+    assertTrue(script, createUser >= 0 && createUser < createTask && createTask < foreignKey && foreignKey < index);
+    assertEquals("No foreign keys inside of create table statements.", -1, script.substring(0, foreignKey).indexOf("REFERENCES"));
+  }
+
+  @Test
+  public void createSchemaInParallel()
+  {
+    // The first foreign key of t_access fails once (e. g. dead lock), the retry adds only the missing one:
+    SchemaDatabase db = new SchemaDatabase("ALTER TABLE t_access ADD CONSTRAINT t_access_t_group_fk");
+    new SchemaGenerator(createDao(db)).setParallelism(4)
+    .add(createTable("t_user"), createTable("t_group"), createTable("t_access", "t_user", "t_group")).createSchema();
+    assertEquals(1, count(db.statements, "ALTER TABLE t_access ADD CONSTRAINT t_access_t_user_fk"));
+    assertEquals(2, count(db.statements, "ALTER TABLE t_access ADD CONSTRAINT t_access_t_group_fk"));
+    assertTrue(db.foreignKeys.contains("t_access_t_group_fk"));
+
+    // Failed create table statement is logged as in the sequential mode:
+    db = new SchemaDatabase("CREATE TABLE t_group");
+    new SchemaGenerator(createDao(db)).setParallelism(4)
+    .add(createTable("t_user"), createTable("t_group", "t_user"), createTable("t_task", "t_user")).createSchema();
+    assertEquals(1, count(db.statements, "ALTER TABLE t_task ADD CONSTRAINT t_task_t_user_fk"));
+    assertEquals("No foreign keys of tables not created.", 0, count(db.statements, "ALTER TABLE t_group"));
+  }
+
+  /**
+   * The sequential and the parallel mode create the same schema of the demo entities.
+   */
+  @Test
+  public void createSchemaOfEntities()
+  {
+    final Class< ? >[] entities = new Class< ? >[] { AccessEntryDO.class, GroupTaskAccessDO.class, GroupDO.class, TaskDO.class,
+        UserRightDO.class, UserDO.class};
+    final List<List<Integer>> results = new ArrayList<List<Integer>>();
+    for (final int parallelism : new int[] { 1, 4}) {
+      final DatabaseUpdateDao dao = HsqlTestDatabase.createConfiguration().getDatabaseUpdateDao();
+      try {
+        new SchemaGenerator(dao).add(entities).setParallelism(parallelism).setCreateForeignKeyIndices(true).createSchema();
+        dao.invalidateSchemaSnapshot();
+        assertTrue("Schema incomplete (parallelism " + parallelism + ").", dao.doEntitiesExist(entities));
+        results.add(Arrays.asList(countConstraints(dao, "FOREIGN KEY"), countConstraints(dao, "UNIQUE"),
+            dao.queryForInt("SELECT COUNT(*) FROM INFORMATION_SCHEMA.SYSTEM_INDEXINFO WHERE LOWER(INDEX_NAME) LIKE 'idx_fk_%'")));
+      } finally {
+        dao.shutdownDatabase();
+      }
+    }
+    assertTrue("Foreign keys and indices expected: " + results.get(0), results.get(0).get(0) > 0 && results.get(0).get(2) > 0);
+    assertEquals("Foreign keys, unique constraints and indices of both modes.", results.get(0), results.get(1));
+  }
+
+  private int countConstraints(final DatabaseUpdateDao dao, final String type)
+  {
+    return dao.queryForInt("SELECT COUNT(*) FROM INFORMATION_SCHEMA.SYSTEM_TABLE_CONSTRAINTS WHERE CONSTRAINT_TYPE='" + type + "'");
+  }
+
+  private DatabaseUpdateDao createDao(final SchemaDatabase db)
+  {
+    return new TestDatabaseUpdateDao(db);
+  }
+
+  private int count(final List<String> statements, final String prefix)
+  {
+    int counter = 0;
+    synchronized (statements) {
+      for (final String statement : statements) {
+        if (statement.startsWith(prefix) == true) {
+          ++counter;
+        }
+      }
+    }
+    return counter;
+  }
+
+  /**
+   * Fails the first statement starting with the given prefix and records the added foreign key constraints.
+   */
+  private static class SchemaDatabase extends TestDatabaseSession
+  {
+    private String failingStatement;
+
+    SchemaDatabase(final String failingStatement)
+    {
+      this.failingStatement = failingStatement;
+    }
+
+    @Override
+    protected synchronized void onExecute(final String sql)
+    {
+      if (failingStatement != null && sql.startsWith(failingStatement) == true) {
+        failingStatement = null;
+        throw new RuntimeException("Failed: " + sql);
+      }
+      if (sql.startsWith("ALTER TABLE") == true) {
+        foreignKeys.add(sql.split(" ")[5]);
+      }
+    }
+  }
+
+  private Table createTable(final String name, final String... foreignTables)
+  {
+    final Table table = new Table(name);
+    table.addAttribute(new TableAttribute("pk", TableAttributeType.INT).setPrimaryKey(true));
+    for (final String foreignTable : foreignTables) {
+      table.addAttribute(new TableAttribute(foreignTable + "_fk", TableAttributeType.INT).setForeignTable(foreignTable).setForeignAttribute(
+          "pk"));
+    }
+    return table;
+  }
+
+  private void assertOrder(final List<Table> tables, final String... names)
+  {
+    final List<String> result = new ArrayList<String>();
+    for (final Table table : tables) {
+      result.add(table.getName());
+    }
+    assertEquals(Arrays.asList(names), result);
+  }
+}
@@ -0,0 +1,122 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2014 Kai Reinhard (k.reinhard@micromata.de)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+package org.projectforge.continuousdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SchemaSnapshotTest
+{
+  @Test
+  public void lazyLoadingAndPatching()
+  {
+    final TestDatabaseUpdateDao dao = new TestDatabaseUpdateDao(createDatabase());
+    final SchemaSnapshot snapshot = dao.getSchemaSnapshot();
+    assertTrue(snapshot.doesTableExist("T_USER"));
+    assertFalse(snapshot.doesTableExist("t_address"));
+    assertEquals("Table names should be read only once.", 1, dao.tableQueries);
+    assertTrue(snapshot.doesColumnExist("t_user", "USERNAME"));
+    assertFalse(snapshot.doesColumnExist("t_user", "birthday"));
+    assertEquals("VARCHAR", snapshot.getColumnType("t_user", "username"));
+    assertEquals("Columns should be read only once per table.", 1, dao.columnQueries);
+
+    snapshot.tableCreated("t_address");
+    assertTrue(snapshot.doesTableExist("t_address"));
+    assertEquals(1, dao.tableQueries);
+
+    snapshot.columnsModified("t_user");
+    assertTrue(snapshot.doesColumnExist("t_user", "username"));
+    assertEquals("Columns should be reloaded after the failed statement.", 2, dao.columnQueries);
+
+    assertTrue(snapshot.doesIndexExist("t_user", "idx_user_name"));
+    snapshot.indexCreated("t_user", "IDX_FK_T_USER_TENANT");
+    assertTrue(snapshot.doesIndexExist("t_user", "idx_fk_t_user_tenant"));
+    snapshot.indexDropped("idx_user_name");
+    assertFalse(snapshot.doesIndexExist("t_user", "idx_user_name"));
+    assertEquals(1, dao.indexQueries);
+
+    snapshot.invalidate();
+    assertTrue(snapshot.doesTableExist("t_user"));
+    assertFalse(snapshot.doesTableExist("t_address"));
+    assertEquals(2, dao.tableQueries);
+  }
+
+  @Test
+  public void failedStatements()
+  {
+    final TestDatabaseSession db = new TestDatabaseSession() {
+      @Override
+      protected void onExecute(final String sql)
+      {
+        if (sql.startsWith("CREATE TABLE t_address") == true || sql.startsWith("ALTER TABLE t_user") == true) {
+          throw new RuntimeException("Failed: " + sql);
+        }
+      }
+    };
+    final TestDatabaseUpdateDao dao = new TestDatabaseUpdateDao(createDatabase(db));
+    final SchemaSnapshot snapshot = dao.getSchemaSnapshot();
+    final Table address = new Table("t_address").addAttribute(new TableAttribute("pk", TableAttributeType.INT).setPrimaryKey(true));
+    assertFalse(dao.createTable(address));
+    assertFalse("Failed table mustn't be registered as existing.", snapshot.doesTableExist("t_address"));
+    assertEquals("Snapshot should be invalidated by the failed statement.", 2, dao.tableQueries);
+
+    assertTrue(snapshot.doesColumnExist("t_user", "username"));
+    assertFalse(dao.dropTableAttribute("t_user", "username"));
+    assertTrue(snapshot.doesColumnExist("t_user", "username"));
+    assertEquals("Columns should be reloaded after the failed statement.", 2, dao.columnQueries);
+
+    final Table group = new Table("t_group").addAttribute(new TableAttribute("pk", TableAttributeType.INT).setPrimaryKey(true));
+    assertTrue(dao.createTable(group));
+    assertTrue(snapshot.doesTableExist("t_group"));
+    assertEquals("Created table should be patched into the reloaded snapshot.", 3, dao.tableQueries);
+  }
+
+  @Test
+  public void executedStatements()
+  {
+    final TestDatabaseUpdateDao dao = new TestDatabaseUpdateDao(createDatabase());
+    final SchemaSnapshot snapshot = dao.getSchemaSnapshot();
+    assertTrue(snapshot.doesTableExist("t_user"));
+    dao.execute("update t_user set username='kai' where pk=1");
+    dao.execute("  DELETE FROM t_user where pk=2");
+    assertTrue(snapshot.doesTableExist("t_user"));
+    assertEquals("Data manipulations shouldn't invalidate the snapshot.", 1, dao.tableQueries);
+    dao.execute("ALTER TABLE t_user ADD COLUMN birthday DATE");
+    assertTrue(snapshot.doesTableExist("t_user"));
+    assertEquals("Other statements may modify the schema.", 2, dao.tableQueries);
+  }
+
+  private TestDatabaseSession createDatabase()
+  {
+    return createDatabase(new TestDatabaseSession());
+  }
+
+  private TestDatabaseSession createDatabase(final TestDatabaseSession db)
+  {
+    return db.addTable("t_user", "pk", "INTEGER", "username", "VARCHAR").addIndex("t_user", "idx_user_name");
+  }
+}
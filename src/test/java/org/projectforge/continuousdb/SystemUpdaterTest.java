@@ -23,9 +23,17 @@
 
 package org.projectforge.continuousdb;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 import org.junit.Test;
 
 public class SystemUpdaterTest
@@ -45,6 +53,290 @@ public class SystemUpdaterTest
     assertFalse("b 1.1.0 should be detected as ready for update.", updater.isUpdated());
   }
 
+  @Test
+  public void applyPendingTest()
+  {
+    final int[] preChecks = new int[1];
+    final LedgerDatabase db = new LedgerDatabase();
+    SystemUpdater updater = new SystemUpdater(createConfiguration(db));
+    updater.testRegister(createEntry("a", "1.0.0", "2011-01-01", preChecks).setWrittenTables("T_A"));
+    updater.testRegister(createEntry("a", "1.1.0", "2011-01-02", preChecks).setReadTables("t_a"));
+    updater.testRegister(createEntry("c", "1.0.0", "2011-01-03", preChecks).setWrittenTables("t_c"));
+    assertEquals(UpdateRunningStatus.DONE, updater.applyPending());
+    // 3 initial pre-checks, a 1.0.0 + affected a 1.1.0, a 1.1.0, c 1.0.0:
+    assertEquals(7, preChecks[0]);
+    for (final UpdateEntry entry : updater.getUpdateEntries()) {
+      assertEquals(UpdatePreCheckStatus.ALREADY_UPDATED, entry.getPreCheckStatus());
+    }
+    assertEquals("Updates should be written to the ledger in chronological order.", Arrays.asList("a:1.0.0", "a:1.1.0", "c:1.0.0"),
+        db.ledger);
+
+    // Entries of the ledger aren't pre-checked again:
+    preChecks[0] = 0;
+    updater = new SystemUpdater(createConfiguration(db));
+    updater.testRegister(createEntry("a", "1.1.0", "2011-01-02", preChecks).setReadTables("t_a"));
+    updater.testRegister(createEntry("c", "1.0.0", "2011-01-03", preChecks).setWrittenTables("t_c"));
+    updater.testRegister(createEntry("d", "1.0.0", "2011-01-04", preChecks).setWrittenTables("t_d"));
+    assertEquals(UpdateRunningStatus.DONE, updater.applyPending());
+    // d 1.0.0 before and after the update:
+    assertEquals(2, preChecks[0]);
+    assertEquals(4, db.ledger.size());
+
+    preChecks[0] = 0;
+    updater = new SystemUpdater(createConfiguration(new LedgerDatabase())).setFullPreCheckAfterUpdate(true);
+    updater.testRegister(createEntry("a", "1.0.0", "2011-01-01", preChecks));
+    updater.testRegister(createEntry("a", "1.1.0", "2011-01-02", preChecks));
+    updater.testRegister(createEntry("c", "1.0.0", "2011-01-03", preChecks));
+    updater.applyPending();
+    assertEquals(3 + 3 * 3, preChecks[0]);
+  }
+
+  @SuppressWarnings("serial")
+  @Test
+  public void updateWithoutDeclaredTables()
+  {
+    final boolean[] flagSet = new boolean[1];
+    final SystemUpdater updater = new SystemUpdater(createConfiguration(new LedgerDatabase()));
+    final UpdateEntry first = new UpdateEntryImpl("a", "1.0.0", "2011-01-01", "...") {
+      @Override
+      public UpdateRunningStatus runUpdate()
+      {
+        flagSet[0] = true;
+        return UpdateRunningStatus.DONE;
+      }
+
+      @Override
+      public UpdatePreCheckStatus runPreCheck()
+      {
+        return flagSet[0] == true ? UpdatePreCheckStatus.ALREADY_UPDATED : UpdatePreCheckStatus.READY_FOR_UPDATE;
+      }
+    };
+    // The second entry is done by the update of the first one, but neither entry declares its tables:
+    final UpdateEntry second = new UpdateEntryImpl("b", "1.0.0", "2011-01-02", "...") {
+      @Override
+      public UpdateRunningStatus runUpdate()
+      {
+        return UpdateRunningStatus.DONE;
+      }
+
+      @Override
+      public UpdatePreCheckStatus runPreCheck()
+      {
+        return flagSet[0] == true ? UpdatePreCheckStatus.ALREADY_UPDATED : UpdatePreCheckStatus.READY_FOR_UPDATE;
+      }
+    };
+    updater.testRegister(first);
+    updater.testRegister(second);
+    updater.runAllPreChecks();
+    assertEquals(UpdatePreCheckStatus.READY_FOR_UPDATE, second.getPreCheckStatus());
+    updater.update(first);
+    assertEquals(UpdatePreCheckStatus.ALREADY_UPDATED, first.getPreCheckStatus());
+    assertEquals("Entries without declared tables are affected by every update.", UpdatePreCheckStatus.ALREADY_UPDATED,
+        second.getPreCheckStatus());
+  }
+
+  @SuppressWarnings("serial")
+  @Test
+  public void parallelPreChecksTest()
+  {
+    final SystemUpdater updater = new SystemUpdater(new UpdaterConfiguration().setPreCheckParallelism(4).setPreCheckTimeoutMillis(200));
+    final UpdateEntry slow = new UpdateEntryImpl("a", "1.0.0", "2011-01-01", "...") {
+      @Override
+      public UpdateRunningStatus runUpdate()
+      {
+        return null;
+      }
+
+      @Override
+      public UpdatePreCheckStatus runPreCheck()
+      {
+        try {
+          Thread.sleep(5000);
+        } catch (final InterruptedException ex) {
+          // Cancelled after timeout.
+        }
+        return UpdatePreCheckStatus.ALREADY_UPDATED;
+      }
+    };
+    final UpdateEntry failing = new UpdateEntryImpl("b", "1.0.0", "2011-01-01", "...") {
+      @Override
+      public UpdateRunningStatus runUpdate()
+      {
+        return null;
+      }
+
+      @Override
+      public UpdatePreCheckStatus runPreCheck()
+      {
+        throw new IllegalStateException("Test");
+      }
+    };
+    updater.testRegister(slow);
+    updater.testRegister(failing);
+    updater.testRegister(createEntry("c", "1.0.0", "2011-01-01", UpdatePreCheckStatus.ALREADY_UPDATED));
+    updater.testRegister(createEntry("d", "1.0.0", "2011-01-01", UpdatePreCheckStatus.READY_FOR_UPDATE));
+    final long start = System.currentTimeMillis();
+    updater.runAllPreChecks();
+    assertTrue(System.currentTimeMillis() - start < 5000);
+    assertEquals(UpdatePreCheckStatus.UNKNOWN, slow.getPreCheckStatus());
+    assertEquals(UpdatePreCheckStatus.FAILED, failing.getPreCheckStatus());
+    int readyForUpdate = 0;
+    for (final UpdateEntry entry : updater.getUpdateEntries()) {
+      if (entry.getPreCheckStatus() == UpdatePreCheckStatus.READY_FOR_UPDATE) {
+        ++readyForUpdate;
+      }
+    }
+    assertEquals(1, readyForUpdate);
+    assertFalse(updater.isUpdated());
+  }
+
+  @Test
+  public void preCheckTimeoutPerEntry()
+  {
+    // All pre-checks run concurrently (each one waits for the start of all others) and time out:
+    SystemUpdater updater = new SystemUpdater(new UpdaterConfiguration().setPreCheckParallelism(4).setPreCheckTimeoutMillis(300));
+    final CountDownLatch started = new CountDownLatch(4);
+    final List<String> allStarted = Collections.synchronizedList(new ArrayList<String>());
+    for (final String region : new String[] { "a", "b", "c", "d"}) {
+      updater.testRegister(createBlockingEntry(region, started, allStarted));
+    }
+    updater.runAllPreChecks();
+    assertEquals("Pre-checks should run concurrently.", 4, allStarted.size());
+    for (final UpdateEntry entry : updater.getUpdateEntries()) {
+      assertEquals(UpdatePreCheckStatus.UNKNOWN, entry.getPreCheckStatus());
+    }
+
+    // Queued pre-checks get the full timeout after their start (a common deadline would leave them 400ms only):
+    updater = new SystemUpdater(new UpdaterConfiguration().setPreCheckParallelism(2).setPreCheckTimeoutMillis(1000));
+    for (final String region : new String[] { "a", "b", "c", "d"}) {
+      updater.testRegister(createSlowEntry(region, 600));
+    }
+    updater.runAllPreChecks();
+    for (final UpdateEntry entry : updater.getUpdateEntries()) {
+      assertEquals(UpdatePreCheckStatus.ALREADY_UPDATED, entry.getPreCheckStatus());
+    }
+  }
+
+  /**
+   * The pre-check waits for the start of all other pre-checks sharing the given latch and blocks afterwards until it's cancelled.
+   * @param allStarted The regions of the pre-checks which have seen all others started.
+   */
+  @SuppressWarnings("serial")
+  private UpdateEntry createBlockingEntry(final String region, final CountDownLatch started, final List<String> allStarted)
+  {
+    return new UpdateEntryImpl(region, "1.0.0", "2011-01-01", "...") {
+      @Override
+      public UpdateRunningStatus runUpdate()
+      {
+        return null;
+      }
+
+      @Override
+      public UpdatePreCheckStatus runPreCheck()
+      {
+        started.countDown();
+        try {
+          if (started.await(10, TimeUnit.SECONDS) == true) {
+            allStarted.add(region);
+          }
+          new CountDownLatch(1).await(10, TimeUnit.SECONDS);
+        } catch (final InterruptedException ex) {
+          // Cancelled after timeout.
+        }
+        return UpdatePreCheckStatus.ALREADY_UPDATED;
+      }
+    };
+  }
+
+  @SuppressWarnings("serial")
+  private UpdateEntry createSlowEntry(final String region, final long millis)
+  {
+    return new UpdateEntryImpl(region, "1.0.0", "2011-01-01", "...") {
+      @Override
+      public UpdateRunningStatus runUpdate()
+      {
+        return null;
+      }
+
+      @Override
+      public UpdatePreCheckStatus runPreCheck()
+      {
+        try {
+          Thread.sleep(millis);
+        } catch (final InterruptedException ex) {
+          // Cancelled after timeout.
+        }
+        return UpdatePreCheckStatus.ALREADY_UPDATED;
+      }
+    };
+  }
+
+  private UpdaterConfiguration createConfiguration(final LedgerDatabase db)
+  {
+    return new TestDatabaseUpdateDao(db).getConfiguration();
+  }
+
+  /**
+   * The update ledger (region:version) without database.
+   */
+  private static class LedgerDatabase extends TestDatabaseSession
+  {
+    final List<String> ledger = new ArrayList<String>();
+
+    @Override
+    protected void onExecute(final String sql)
+    {
+      if (sql.startsWith("CREATE TABLE " + DatabaseUpdateDao.UPDATE_LEDGER_TABLE) == true) {
+        addTable(DatabaseUpdateDao.UPDATE_LEDGER_TABLE);
+      }
+    }
+
+    @Override
+    protected List<Object[]> onQuery(final String sql, final Object... args)
+    {
+      final List<Object[]> rows = new ArrayList<Object[]>();
+      if (sql.startsWith("select region_id, version from " + DatabaseUpdateDao.UPDATE_LEDGER_TABLE) == true) {
+        for (final String entry : ledger) {
+          rows.add(entry.split(":"));
+        }
+      }
+      return rows;
+    }
+
+    @Override
+    protected int onUpdate(final String sql, final Object... args)
+    {
+      if (sql.startsWith("insert into " + DatabaseUpdateDao.UPDATE_LEDGER_TABLE) == true) {
+        // update_date, region_id, version, ...
+        ledger.add(args[1] + ":" + args[2]);
+        return 1;
+      }
+      return 0;
+    }
+  }
+
+  @SuppressWarnings("serial")
+  private UpdateEntry createEntry(final String region, final String version, final String isoDate, final int[] preChecks)
+  {
+    return new UpdateEntryImpl(region, version, isoDate, "...") {
+      private boolean updated;
+
+      @Override
+      public UpdateRunningStatus runUpdate()
+      {
+        updated = true;
+        return UpdateRunningStatus.DONE;
+      }
+
+      @Override
+      public UpdatePreCheckStatus runPreCheck()
+      {
+        preChecks[0]++;
+        return updated == true ? UpdatePreCheckStatus.ALREADY_UPDATED : UpdatePreCheckStatus.READY_FOR_UPDATE;
+      }
+    };
+  }
+
   @SuppressWarnings("serial")
   private UpdateEntry createEntry(final String region, final String version, final String isoDate, final UpdatePreCheckStatus status)
   {
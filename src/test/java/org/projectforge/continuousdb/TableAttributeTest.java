@@ -66,6 +66,19 @@ public class TableAttributeTest
     attr = assertAttribute(GroupTaskAccessDO.class, "recursive", "recursive", TableAttributeType.BOOLEAN, false, false);
   }
 
+  @Test
+  public void cachedMetadata()
+  {
+    final TableAttribute attr1 = new TableAttribute(TaskDO.class, "parentTask");
+    final TableAttribute attr2 = new TableAttribute(TaskDO.class, "parentTask");
+    assertFalse("Each call should return an own copy.", attr1 == attr2);
+    attr1.setName("other_task_id");
+    assertEquals("parent_task_id", attr2.getName());
+    assertEquals("T_TASK", attr2.getForeignTable());
+    assertEquals("id", JPAHelper.getIdProperty(TaskDO.class));
+    assertTrue(EntityMetadata.getInstance(TaskDO.class) == EntityMetadata.getInstance(TaskDO.class));
+  }
+
   private TableAttribute assertAttribute(final Class< ? > cls, final String property, final String name, final TableAttributeType type,
       final boolean primaryKey, final boolean nullable)
   {
@@ -24,6 +24,7 @@
 package org.projectforge.continuousdb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import junit.framework.Assert;
 
 import org.junit.Test;
@@ -63,6 +64,49 @@ public class TableTest
     assertAttribute(table, "right_id");
   }
 
+  @Test
+  public void attributeIndexes()
+  {
+    final Table table = new Table("t_test");
+    table.addAttribute(new TableAttribute("pk", TableAttributeType.INT).setPrimaryKey(true));
+    table.addAttribute(new TableAttribute("Title", TableAttributeType.VARCHAR, 100));
+    assertAttribute(table.getAttributeByName("TITLE"), "Title");
+    assertAttribute(table.getAttributeByProperty("Title"), "Title");
+    assertNull(table.getAttributeByName("description"));
+    assertAttribute(table.getPrimaryKey(), "pk");
+    // Attributes added to the list directly:
+    table.getAttributes().add(new TableAttribute("description", TableAttributeType.VARCHAR, 1000));
+    assertAttribute(table.getAttributeByName("Description"), "description");
+    try {
+      table.addAttribute(new TableAttribute("TITLE", TableAttributeType.VARCHAR, 100));
+      Assert.fail("IllegalArgumentException expected (attribute added twice).");
+    } catch (final IllegalArgumentException ex) {
+      // OK.
+    }
+    // Attributes modified after adding:
+    table.getAttributeByName("title").setName("subject");
+    assertNull(table.getAttributeByName("title"));
+    assertAttribute(table.getAttributeByName("Subject"), "subject");
+    table.getPrimaryKey().setPrimaryKey(false);
+    assertNull(table.getPrimaryKey());
+    table.getAttributeByName("description").setPrimaryKey(true);
+    assertAttribute(table.getPrimaryKey(), "description");
+  }
+
+  @Test
+  public void primaryKeyFlaggedAfterAdding()
+  {
+    final Table table = new Table("t_test");
+    final TableAttribute pk = new TableAttribute("pk", TableAttributeType.INT);
+    table.addAttribute(pk);
+    table.addAttribute(new TableAttribute("title", TableAttributeType.VARCHAR, 100));
+    assertNull(table.getPrimaryKey());
+    pk.setPrimaryKey(true);
+    assertAttribute(table.getPrimaryKey(), "pk");
+    // Cached primary key:
+    assertEquals(pk, table.getPrimaryKey());
+  }
+
   private void assertAttribute(final Table table, final String name)
   {
     for (final TableAttribute attr : table.getAttributes()) {
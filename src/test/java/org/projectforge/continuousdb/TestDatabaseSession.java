@@ -0,0 +1,318 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2014 Kai Reinhard (k.reinhard@micromata.de)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+package org.projectforge.continuousdb;
+
+import java.sql.Savepoint;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.sql.DataSource;
+
+import org.projectforge.continuousdb.jdbc.DatabaseResultRowEntryImpl;
+import org.projectforge.continuousdb.jdbc.DatabaseResultRowImpl;
+
+/**
+ * Database executor and session for tests without database. All executed statements are recorded, queries and updates are delegated to
+ * overridable methods. The session returned by {@link #openSession()} is this instance, the transaction state is held per thread. The
+ * catalog (tables, columns, indices and foreign keys) is held in memory and read by the {@link TestDatabaseUpdateDao}.
+ */
+public class TestDatabaseSession implements DatabaseSession
+{
+  final List<String> statements = Collections.synchronizedList(new ArrayList<String>());
+
+  /**
+   * Lower case table names mapped to their columns (lower case column names mapped to the type names).
+   */
+  final Map<String, Map<String, String>> tables = new ConcurrentHashMap<String, Map<String, String>>();
+
+  /**
+   * Lower case table names mapped to the lower case names of their indices.
+   */
+  final Map<String, Set<String>> indices = new ConcurrentHashMap<String, Set<String>>();
+
+  /**
+   * Names of the foreign key constraints. A constraint belongs to the table its name starts with (as of
+   * {@link DatabaseUpdateDao#getForeignKeyConstraintName(String, TableAttribute)}).
+   */
+  final Set<String> foreignKeys = Collections.synchronizedSet(new HashSet<String>());
+
+  private final ThreadLocal<Boolean> transactionActive = new ThreadLocal<Boolean>();
+
+  /**
+   * Adds the table to the catalog.
+   * @param table
+   * @param columnsAndTypes Pairs of column name and type name, e. g. "pk", "INT4", "name", "VARCHAR".
+   * @return this for chaining.
+   */
+  public TestDatabaseSession addTable(final String table, final String... columnsAndTypes)
+  {
+    final Map<String, String> columns = new ConcurrentHashMap<String, String>();
+    for (int i = 0; i < columnsAndTypes.length; i += 2) {
+      columns.put(columnsAndTypes[i].toLowerCase(), columnsAndTypes[i + 1]);
+    }
+    tables.put(table.toLowerCase(), columns);
+    return this;
+  }
+
+  /**
+   * Adds the index to the catalog.
+   * @return this for chaining.
+   */
+  public TestDatabaseSession addIndex(final String table, final String index)
+  {
+    Set<String> names = indices.get(table.toLowerCase());
+    if (names == null) {
+      names = Collections.synchronizedSet(new HashSet<String>());
+      indices.put(table.toLowerCase(), names);
+    }
+    names.add(index.toLowerCase());
+    return this;
+  }
+
+  /**
+   * Called by {@link #execute(String, boolean)}. Exceptions are ignored if the statement is executed with ignoreErrors.
+   * @param sql
+   */
+  protected void onExecute(final String sql)
+  {
+  }
+
+  /**
+   * @return The result rows of the given query (default is an empty list).
+   */
+  protected List<Object[]> onQuery(final String sql, final Object... args)
+  {
+    return new ArrayList<Object[]>();
+  }
+
+  /**
+   * Called by {@link #update(String, Object...)} and for every argument list of {@link #updateBatch(String, Iterable, int, boolean,
+   * DatabaseBatchListener)}.
+   * @return The number of updated rows (default is 0).
+   */
+  protected int onUpdate(final String sql, final Object... args)
+  {
+    return 0;
+  }
+
+  protected void onBeginTransaction()
+  {
+  }
+
+  protected void onRollback()
+  {
+  }
+
+  @Override
+  public void setDataSource(final DataSource dataSource)
+  {
+  }
+
+  @Override
+  public DataSource getDataSource()
+  {
+    return null;
+  }
+
+  @Override
+  public DatabaseSession openSession()
+  {
+    return this;
+  }
+
+  @Override
+  public void execute(final String sql, final boolean ignoreErrors)
+  {
+    statements.add(sql);
+    try {
+      onExecute(sql);
+    } catch (final RuntimeException ex) {
+      if (ignoreErrors == false) {
+        throw ex;
+      }
+    }
+  }
+
+  @Override
+  public int queryForInt(final String sql, final Object... args)
+  {
+    statements.add(sql);
+    final List<Object[]> rows = onQuery(sql, args);
+    return rows.isEmpty() == true ? 0 : ((Number) rows.get(0)[0]).intValue();
+  }
+
+  /**
+   * The rows of {@link #onQuery(String, Object...)} are returned with unnamed columns of unknown type.
+   */
+  @Override
+  public List<DatabaseResultRow> query(final String sql, final Object... args)
+  {
+    statements.add(sql);
+    final List<DatabaseResultRow> result = new ArrayList<DatabaseResultRow>();
+    for (final Object[] values : onQuery(sql, args)) {
+      final DatabaseResultRow row = new DatabaseResultRowImpl();
+      for (final Object value : values) {
+        row.add(new DatabaseResultRowEntryImpl(Types.OTHER, null, value));
+      }
+      result.add(row);
+    }
+    return result;
+  }
+
+  /**
+   * The rows of {@link #onQuery(String, Object...)} are returned as they are for {@link RowMappers#objectArray()}, otherwise the first
+   * column of each row is returned (as of {@link RowMappers#singleColumn(Class)}).
+   */
+  @SuppressWarnings("unchecked")
+  @Override
+  public <T> List<T> query(final String sql, final RowMapper<T> mapper, final Object... args)
+  {
+    statements.add(sql);
+    final List<Object[]> rows = onQuery(sql, args);
+    if (mapper.getClass() == RowMappers.objectArray().getClass()) {
+      return (List<T>) rows;
+    }
+    final List<T> result = new ArrayList<T>();
+    for (final Object[] row : rows) {
+      result.add((T) row[0]);
+    }
+    return result;
+  }
+
+  @Override
+  public int query(final String sql, final DatabaseResultRowHandler handler, final Object... args)
+  {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void setFetchSize(final int fetchSize)
+  {
+  }
+
+  @Override
+  public int getFetchSize()
+  {
+    return 0;
+  }
+
+  @Override
+  public void setStatementCacheSize(final int statementCacheSize)
+  {
+  }
+
+  @Override
+  public int getStatementCacheSize()
+  {
+    return 0;
+  }
+
+  @Override
+  public int update(final String sql, final Object... args)
+  {
+    statements.add(sql);
+    return onUpdate(sql, args);
+  }
+
+  @Override
+  public int updateBatch(final String sql, final Iterable<Object[]> args, final int batchSize, final boolean commitPerBatch,
+      final DatabaseBatchListener listener)
+  {
+    statements.add(sql);
+    int counter = 0;
+    int updatedRows = 0;
+    for (final Object[] values : args) {
+      updatedRows += onUpdate(sql, values);
+      ++counter;
+    }
+    if (listener != null) {
+      listener.afterBatch(1, counter, updatedRows, 0);
+    }
+    return updatedRows;
+  }
+
+  @Override
+  public void beginTransaction()
+  {
+    transactionActive.set(Boolean.TRUE);
+    onBeginTransaction();
+  }
+
+  @Override
+  public void commit()
+  {
+    transactionActive.remove();
+  }
+
+  @Override
+  public void rollback()
+  {
+    transactionActive.remove();
+    onRollback();
+  }
+
+  @Override
+  public boolean isTransactionActive()
+  {
+    return Boolean.TRUE.equals(transactionActive.get());
+  }
+
+  @Override
+  public Savepoint setSavepoint(final String name)
+  {
+    return null;
+  }
+
+  @Override
+  public void rollback(final Savepoint savepoint)
+  {
+  }
+
+  @Override
+  public void releaseSavepoint(final Savepoint savepoint)
+  {
+  }
+
+  @Override
+  public long getStatementCacheHits()
+  {
+    return 0;
+  }
+
+  @Override
+  public long getStatementCacheMisses()
+  {
+    return 0;
+  }
+
+  @Override
+  public void close()
+  {
+  }
+}
@@ -0,0 +1,100 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2014 Kai Reinhard (k.reinhard@micromata.de)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+package org.projectforge.continuousdb;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.projectforge.common.DatabaseDialect;
+
+/**
+ * Dao for tests without database: the catalog is read from the in-memory catalog of the {@link TestDatabaseSession}, all other statements
+ * are executed by the session. The dao is registered at its configuration.
+ */
+public class TestDatabaseUpdateDao extends DatabaseUpdateDao
+{
+  private final TestDatabaseSession db;
+
+  int tableQueries, columnQueries, indexQueries;
+
+  /**
+   * Uses a new configuration with the PostgreSQL dialect.
+   * @param db
+   */
+  public TestDatabaseUpdateDao(final TestDatabaseSession db)
+  {
+    this(new UpdaterConfiguration().setDialect(DatabaseDialect.PostgreSQL), db);
+  }
+
+  public TestDatabaseUpdateDao(final UpdaterConfiguration configuration, final TestDatabaseSession db)
+  {
+    super(configuration);
+    this.db = db;
+    configuration.setDatabaseExecutor(db);
+    configuration.setDatabaseUpdateDao(this);
+  }
+
+  @Override
+  protected Set<String> loadTableNames()
+  {
+    ++tableQueries;
+    return new HashSet<String>(db.tables.keySet());
+  }
+
+  @Override
+  protected Map<String, String> loadColumns(final String table)
+  {
+    ++columnQueries;
+    final Map<String, String> columns = db.tables.get(table.toLowerCase());
+    return columns != null ? new HashMap<String, String>(columns) : new HashMap<String, String>();
+  }
+
+  @Override
+  protected Set<String> loadIndexNames(final String table)
+  {
+    ++indexQueries;
+    final Set<String> indices = db.indices.get(table.toLowerCase());
+    if (indices == null) {
+      return new HashSet<String>();
+    }
+    synchronized (indices) {
+      return new HashSet<String>(indices);
+    }
+  }
+
+  @Override
+  protected Set<String> loadForeignKeyNames(final String table)
+  {
+    final Set<String> result = new HashSet<String>();
+    synchronized (db.foreignKeys) {
+      for (final String name : db.foreignKeys) {
+        if (name.startsWith(table.toLowerCase() + "_") == true) {
+          result.add(name);
+        }
+      }
+    }
+    return result;
+  }
+}
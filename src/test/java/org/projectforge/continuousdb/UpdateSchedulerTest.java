@@ -0,0 +1,142 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2014 Kai Reinhard (k.reinhard@micromata.de)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+package org.projectforge.continuousdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class UpdateSchedulerTest
+{
+  @Test
+  public void graph()
+  {
+    final UpdateEntry core1 = createEntry("core", "1.0.0", null, null).setWrittenTables("t_user");
+    final UpdateEntry plugin1 = createEntry("plugin", "1.0.0", null, null).setWrittenTables("t_plugin").setReadTables("t_user");
+    final UpdateEntry other1 = createEntry("other", "1.0.0", null, null).setWrittenTables("t_other");
+    final UpdateEntry core2 = createEntry("core", "1.1.0", null, null).setWrittenTables("t_task");
+    final UpdateEntry unknown = createEntry("unknown", "1.0.0", null, null);
+    final UpdateScheduler scheduler = new UpdateScheduler(new SystemUpdater(new UpdaterConfiguration()), Arrays.asList(core1, plugin1,
+        other1, core2, unknown));
+    assertEquals(Arrays.asList(plugin1, core2, unknown), scheduler.getSuccessors(core1));
+    assertEquals(Arrays.asList(unknown), scheduler.getSuccessors(plugin1));
+    assertEquals(Arrays.asList(unknown), scheduler.getSuccessors(other1));
+  }
+
+  @Test
+  public void run()
+  {
+    final List<String> log = Collections.synchronizedList(new ArrayList<String>());
+    final UpdateEntry core1 = createEntry("core", "1.0.0", null, log).setWrittenTables("t_user");
+    final UpdateEntry plugin1 = createEntry("plugin", "1.0.0", UpdateRunningStatus.FAILED, log).setWrittenTables("t_plugin");
+    final UpdateEntry plugin2 = createEntry("plugin", "1.1.0", null, log).setWrittenTables("t_plugin");
+    final UpdateEntry other1 = createEntry("other", "1.0.0", null, log).setWrittenTables("t_other");
+    other1.addPrerequisites(core1);
+    final UpdateScheduler scheduler = new UpdateScheduler(new SystemUpdater(new UpdaterConfiguration()), Arrays.asList(core1, plugin1,
+        plugin2, other1));
+    assertEquals(UpdateRunningStatus.FAILED, scheduler.run(4));
+    assertEquals(3, log.size());
+    assertTrue(log.indexOf("core") < log.indexOf("other"));
+    assertNull(plugin2.getRunningStatus()); // Skipped.
+  }
+
+  @Test
+  public void cycle()
+  {
+    final UpdateEntry a = createEntry("a", "1.0.0", null, null).setWrittenTables("t_a");
+    final UpdateEntry b = createEntry("b", "1.0.0", null, null).setWrittenTables("t_b");
+    a.addPrerequisites(b);
+    b.addPrerequisites(a);
+    try {
+      new UpdateScheduler(new SystemUpdater(new UpdaterConfiguration()), Arrays.asList(a, b));
+      fail("IllegalStateException expected.");
+    } catch (final IllegalStateException ex) {
+      // OK
+    }
+  }
+
+  @Test
+  public void prerequisiteReplacesConflict()
+  {
+    final List<String> log = Collections.synchronizedList(new ArrayList<String>());
+    final UpdateEntry older = createEntry("older", "1.0.0", null, log).setWrittenTables("t_user");
+    final UpdateEntry newer = createEntry("newer", "1.0.0", null, log).setWrittenTables("t_user");
+    final UpdateEntry other = createEntry("other", "1.0.0", null, log).setWrittenTables("t_other");
+    older.addPrerequisites(newer);
+    final UpdateScheduler scheduler = new UpdateScheduler(new SystemUpdater(new UpdaterConfiguration()), Arrays.asList(older, other,
+        newer));
+    assertEquals(Arrays.asList(older), scheduler.getSuccessors(newer));
+    assertTrue(scheduler.getSuccessors(older).isEmpty());
+    assertEquals(Arrays.asList(other, newer, older), scheduler.getOrderedEntries());
+    scheduler.run(1);
+    assertTrue(log.indexOf("newer") < log.indexOf("older"));
+  }
+
+  /**
+   * The prerequisite of the oldest entry contradicts the chronological chain 1.0.0 -&gt; 1.1.0 -&gt; 1.2.0 transitively.
+   */
+  @Test
+  public void transitivePrerequisite()
+  {
+    final List<String> log = Collections.synchronizedList(new ArrayList<String>());
+    final UpdateEntry v100 = createEntry("core", "1.0.0", null, log);
+    final UpdateEntry v110 = createEntry("core", "1.1.0", null, log);
+    final UpdateEntry v120 = createEntry("core", "1.2.0", null, log);
+    v100.addPrerequisites(v120);
+    final UpdateScheduler scheduler = new UpdateScheduler(new SystemUpdater(new UpdaterConfiguration()), Arrays.asList(v100, v110,
+        v120));
+    assertEquals(Arrays.asList(v120, v100, v110), scheduler.getOrderedEntries());
+    assertEquals(Arrays.asList(v100), scheduler.getSuccessors(v120));
+    assertEquals(Arrays.asList(v110), scheduler.getSuccessors(v100));
+    assertEquals(UpdateRunningStatus.DONE, scheduler.run(2));
+    assertEquals(3, log.size());
+  }
+
+  @SuppressWarnings("serial")
+  private UpdateEntry createEntry(final String region, final String version, final UpdateRunningStatus status, final List<String> log)
+  {
+    return new UpdateEntryImpl(region, version, "2011-01-01", "...") {
+      @Override
+      public UpdateRunningStatus runUpdate()
+      {
+        log.add(region);
+        return status;
+      }
+
+      @Override
+      public UpdatePreCheckStatus runPreCheck()
+      {
+        return UpdatePreCheckStatus.READY_FOR_UPDATE;
+      }
+    };
+  }
+}
@@ -24,11 +24,11 @@
 package org.projectforge.continuousdb.demo;
 
 import java.math.BigDecimal;
-import java.util.List;
 
 import org.apache.commons.dbcp.BasicDataSource;
 import org.projectforge.common.DatabaseDialect;
-import org.projectforge.continuousdb.DatabaseResultRow;
+import org.projectforge.continuousdb.ColumnConverter;
+import org.projectforge.continuousdb.ColumnMigration;
 import org.projectforge.continuousdb.DatabaseUpdateDao;
 import org.projectforge.continuousdb.SchemaGenerator;
 import org.projectforge.continuousdb.Table;
@@ -97,7 +97,6 @@ public class DemoMain
   private void createInitialSchema()
   {
     final Class< ? >[] doClasses = new Class< ? >[] { //
-        // Please note, the order of the entities is the order of their creation!
         UserDO.class, //
         TaskDO.class, GroupDO.class, TaskDO.class, GroupTaskAccessDO.class, //
         AccessEntryDO.class, //
@@ -143,25 +142,20 @@ public class DemoMain
       // So, convert type of amount:
       // Rename column:
       databaseUpdateDao.renameTableAttribute("t_address", "amount", "old_amount");
-      // Create column of new type:
-      databaseUpdateDao.addTableAttributes(Address2DO.class, "amount");
-      // Convert types of any existing table entry:
-      final List<DatabaseResultRow> rows = databaseUpdateDao.query("select pk, old_amount from t_address");
-      if (rows != null) {
-        for (final DatabaseResultRow row : rows) {
-          final Integer pk = (Integer)row.getEntry("pk").getValue();
-          final String amountAsString = (String)row.getEntry("old_amount").getValue();
-          BigDecimal amount = null;
-          if (amountAsString != null && amountAsString.trim().length() > 0) {
-            // Do some conversion stuff:
-            amount = new BigDecimal(amountAsString);
-          }
-          // Now update the column.
-          databaseUpdateDao.update("update t_address set amount=? where pk=?", amount, pk);
-        }
-      }
-      // Drop the old column:
-      databaseUpdateDao.dropTableAttribute("t_address", "old_amount");
+      // Create column of new type, convert types of any existing table entry chunk by chunk and drop the old column:
+      new ColumnMigration(databaseUpdateDao, "t_address", "pk", "old_amount", new TableAttribute(Address2DO.class, "amount"),
+          new ColumnConverter() {
+            @Override
+            public Object convert(final Object value)
+            {
+              final String amountAsString = (String) value;
+              if (amountAsString != null && amountAsString.trim().length() > 0) {
+                // Do some conversion stuff:
+                return new BigDecimal(amountAsString);
+              }
+              return null;
+            }
+          }).setDropSourceColumn(true).run();
     }
 
     // Optional test for demo purposes:
@@ -121,7 +121,6 @@ public class UpdateEntryDemoMain
   private UpdateEntry getInitialUpdateEntry()
   {
     final Class< ? >[] doClasses = new Class< ? >[] { //
-        // Please note, the order of the entities is the order of their creation!
         UserDO.class, //
         TaskDO.class, GroupDO.class, TaskDO.class, GroupTaskAccessDO.class, //
         AccessEntryDO.class, //
@@ -0,0 +1,291 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2014 Kai Reinhard (k.reinhard@micromata.de)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+package org.projectforge.continuousdb.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.projectforge.continuousdb.DatabaseBatchListener;
+import org.projectforge.continuousdb.DatabaseExecutor;
+import org.projectforge.continuousdb.DatabaseResultRow;
+import org.projectforge.continuousdb.DatabaseResultRowHandler;
+import org.projectforge.continuousdb.DatabaseSession;
+import org.projectforge.continuousdb.DatabaseSessionCallback;
+import org.projectforge.continuousdb.DatabaseUpdateDao;
+import org.projectforge.continuousdb.HsqlTestDatabase;
+import org.projectforge.continuousdb.RowMappers;
+import org.projectforge.continuousdb.Table;
+import org.projectforge.continuousdb.TableAttribute;
+import org.projectforge.continuousdb.TableAttributeType;
+import org.projectforge.continuousdb.UpdaterConfiguration;
+
+/**
+ * Tests the jdbc implementation against an in-memory HSQLDB.
+ */
+public class DatabaseExecutorImplTest
+{
+  private static final int ROWS = 250;
+
+  private UpdaterConfiguration configuration;
+
+  private DatabaseUpdateDao dao;
+
+  @Before
+  public void setUp()
+  {
+    configuration = HsqlTestDatabase.createConfiguration().setBatchSize(100);
+    dao = configuration.getDatabaseUpdateDao();
+    dao.createTable(new Table("t_item").addAttribute(new TableAttribute("pk", TableAttributeType.INT).setPrimaryKey(true))
+        .addAttribute(new TableAttribute("name", TableAttributeType.VARCHAR, 20)));
+  }
+
+  @After
+  public void tearDown()
+  {
+    dao.shutdownDatabase();
+  }
+
+  @Test
+  public void updateBatch()
+  {
+    assertTrue(dao.isTableEmpty("t_item"));
+    insertItems();
+    assertFalse(dao.isTableEmpty("t_item"));
+    assertEquals(ROWS, dao.queryForInt("select count(*) from t_item"));
+    final List<Object[]> args = new ArrayList<Object[]>();
+    for (int i = 1; i <= ROWS; i++) {
+      args.add(new Object[] { "item #" + i, i});
+    }
+    final List<Integer> statements = new ArrayList<Integer>();
+    assertEquals(ROWS, dao.updateBatch("update t_item set name=? where pk=?", args, new DatabaseBatchListener() {
+      @Override
+      public void afterBatch(final int batchNumber, final int count, final int updatedRows, final long millis)
+      {
+        assertEquals(statements.size() + 1, batchNumber);
+        assertEquals(count, updatedRows);
+        statements.add(count);
+      }
+    }));
+    assertEquals("[100, 100, 50]", statements.toString());
+    assertEquals("item #42", dao.query("select name from t_item where pk=?", RowMappers.singleColumn(String.class), 42).get(0));
+  }
+
+  @Test
+  public void streamingQuery()
+  {
+    insertItems();
+    configuration.setFetchSize(10);
+    final long[] sum = new long[1];
+    assertEquals(ROWS, dao.query("select pk, name from t_item", new DatabaseResultRowHandler() {
+      @Override
+      public void handleRow(final DatabaseResultRow row)
+      {
+        sum[0] += ((Number) row.getEntry("PK").getValue()).intValue();
+      }
+    }));
+    assertEquals(ROWS * (ROWS + 1) / 2, sum[0]);
+  }
+
+  @Test
+  public void transactionAndSavepoint()
+  {
+    try {
+      dao.doInTransaction(new DatabaseSessionCallback<Object>() {
+        @Override
+        public Object doInSession(final DatabaseSession session)
+        {
+          session.update("insert into t_item (pk, name) values (?, ?)", 1, "one");
+          assertEquals(1, session.queryForInt("select count(*) from t_item"));
+          throw new IllegalStateException("Rollback expected.");
+        }
+      });
+      Assert.fail("IllegalStateException expected.");
+    } catch (final IllegalStateException ex) {
+      // Expected.
+    }
+    assertEquals("Rolled back.", 0, dao.queryForInt("select count(*) from t_item"));
+    dao.doInSession(new DatabaseSessionCallback<Object>() {
+      @Override
+      public Object doInSession(final DatabaseSession session)
+      {
+        session.beginTransaction();
+        session.update("insert into t_item (pk, name) values (?, ?)", 1, "one");
+        final Savepoint savepoint = session.setSavepoint("one");
+        session.update("insert into t_item (pk, name) values (?, ?)", 2, "two");
+        session.rollback(savepoint);
+        session.commit();
+        return null;
+      }
+    });
+    assertEquals("[1]", String.valueOf(dao.query("select pk from t_item", RowMappers.singleColumn(Integer.class))));
+  }
+
+  @Test
+  public void statementCache()
+  {
+    insertItems();
+    dao.doInSession(new DatabaseSessionCallback<Object>() {
+      @Override
+      public Object doInSession(final DatabaseSession session)
+      {
+        for (int i = 1; i <= 5; i++) {
+          assertEquals(1, session.queryForInt("select count(*) from t_item where pk=?", i));
+        }
+        assertEquals(1, session.getStatementCacheMisses());
+        assertEquals(4, session.getStatementCacheHits());
+        // DDL clears the cache, the statement has to be prepared again:
+        session.execute("CREATE INDEX idx_item_name ON t_item (name)", false);
+        assertEquals(1, session.queryForInt("select count(*) from t_item where pk=?", 1));
+        assertEquals(2, session.getStatementCacheMisses());
+        return null;
+      }
+    });
+  }
+
+  @Test
+  public void rowMappers()
+  {
+    insertItems();
+    final Object[] row = dao.query("select pk, name from t_item where pk=?", RowMappers.objectArray(), 7).get(0);
+    assertEquals(7, ((Number) row[0]).intValue());
+    assertEquals("7", row[1]);
+    assertEquals(ROWS, dao.query("select name from t_item", RowMappers.singleColumn(String.class)).size());
+    final List<Item> items = dao.query("select pk, name from t_item where pk <= ? order by pk", RowMappers.bean(Item.class), 3);
+    assertEquals(3, items.size());
+    assertEquals(3, items.get(2).getPk());
+    assertEquals("3", items.get(2).getName());
+  }
+
+  @Test
+  public void plainDatabaseExecutor()
+  {
+    final UpdaterConfiguration plainConfiguration = new UpdaterConfiguration();
+    plainConfiguration.setDatabaseExecutor(new PlainDatabaseExecutor());
+    plainConfiguration.setDialect(configuration.getDialect()).setDataSource(configuration.getDatabaseExecutor().getDataSource());
+    final DatabaseUpdateDao plainDao = plainConfiguration.getDatabaseUpdateDao();
+    insertItems();
+    assertTrue(plainDao.doesTableExist("t_item"));
+    assertTrue(plainDao.doesTableAttributeExist("t_item", "name"));
+    assertFalse(plainDao.isTableEmpty("t_item"));
+    // Error is ignored:
+    plainDao.execute("DROP TABLE t_unknown", true);
+    try {
+      plainDao.updateBatch("update t_item set name=? where pk=?", new ArrayList<Object[]>());
+      Assert.fail("UnsupportedOperationException expected.");
+    } catch (final UnsupportedOperationException ex) {
+      // Expected.
+    }
+  }
+
+  private void insertItems()
+  {
+    final List<Object[]> values = new ArrayList<Object[]>();
+    for (int i = 1; i <= ROWS; i++) {
+      values.add(new Object[] { i, String.valueOf(i)});
+    }
+    assertEquals(ROWS, dao.insertIntoBatch("t_item", new String[] { "pk", "name"}, values));
+  }
+
+  public static class Item
+  {
+    private int pk;
+
+    private String name;
+
+    public int getPk()
+    {
+      return pk;
+    }
+
+    public void setPk(final int pk)
+    {
+      this.pk = pk;
+    }
+
+    public String getName()
+    {
+      return name;
+    }
+
+    public void setName(final String name)
+    {
+      this.name = name;
+    }
+  }
+
+  /**
+   * Implements only the methods of {@link DatabaseExecutor}, such as executors of other projects.
+   */
+  private static class PlainDatabaseExecutor implements DatabaseExecutor
+  {
+    private final DatabaseExecutorImpl delegate = new DatabaseExecutorImpl();
+
+    @Override
+    public void setDataSource(final DataSource dataSource)
+    {
+      delegate.setDataSource(dataSource);
+    }
+
+    @Override
+    public DataSource getDataSource()
+    {
+      return delegate.getDataSource();
+    }
+
+    @Override
+    public void execute(final String sql, final boolean ignoreErrors)
+    {
+      delegate.execute(sql, ignoreErrors);
+    }
+
+    @Override
+    public int queryForInt(final String sql, final Object... args)
+    {
+      return delegate.queryForInt(sql, args);
+    }
+
+    @Override
+    public List<DatabaseResultRow> query(final String sql, final Object... args)
+    {
+      return delegate.query(sql, args);
+    }
+
+    @Override
+    public int update(final String sql, final Object... args)
+    {
+      return delegate.update(sql, args);
+    }
+  }
+}
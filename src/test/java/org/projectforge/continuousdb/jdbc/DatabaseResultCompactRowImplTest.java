@@ -0,0 +1,77 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2014 Kai Reinhard (k.reinhard@micromata.de)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+package org.projectforge.continuousdb.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.sql.Types;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DatabaseResultCompactRowImplTest
+{
+  @Test
+  public void lookup()
+  {
+    final DatabaseResultHeader header = new DatabaseResultHeader(new String[] { "ID", "Name"}, new int[] { Types.INTEGER, Types.VARCHAR});
+    assertEquals(0, header.getIndex("id"));
+    assertEquals(1, header.getIndex("NAME"));
+    assertEquals(-1, header.getIndex("unknown"));
+    final DatabaseResultCompactRowImpl row = new DatabaseResultCompactRowImpl(header, new Object[] { 42, "Kai"});
+    assertEquals(42, row.getValue(0));
+    assertEquals("Kai", row.getValue("name"));
+    assertNull(row.getValue("unknown"));
+    assertNull(row.getEntry("unknown"));
+    assertEquals(2, row.getEntries().size());
+    assertEquals("Name", row.getEntries().get(1).getName());
+    assertEquals(Types.INTEGER, row.getEntry("Id").getType());
+    assertSame(row.getEntry(1), row.getEntry("name"));
+  }
+
+  @Test
+  public void add()
+  {
+    final DatabaseResultHeader header = new DatabaseResultHeader(new String[] { "id"}, new int[] { Types.INTEGER});
+    final DatabaseResultCompactRowImpl row = new DatabaseResultCompactRowImpl(header, new Object[] { 1});
+    final DatabaseResultCompactRowImpl other = new DatabaseResultCompactRowImpl(header, new Object[] { 2});
+    row.add(new DatabaseResultRowEntryImpl(Types.VARCHAR, "Name", "Kai"));
+    row.getEntries().add(new DatabaseResultRowEntryImpl(Types.INTEGER, "age", 42));
+    assertEquals(3, row.getEntries().size());
+    assertEquals("Kai", row.getValue("name"));
+    assertEquals(42, row.getValue(2));
+    assertEquals("age", row.getEntries().get(2).getName());
+    assertEquals(1, row.getEntry("ID").getValue());
+    assertNull("Added entries are not shared by the rows.", other.getValue("name"));
+    assertEquals(1, other.getEntries().size());
+    try {
+      row.getEntries().add(0, new DatabaseResultRowEntryImpl(Types.INTEGER, "pk", 1));
+      Assert.fail("UnsupportedOperation excepted!");
+    } catch (final UnsupportedOperationException ex) {
+      // OK
+    }
+  }
+}
@@ -0,0 +1,138 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2014 Kai Reinhard (k.reinhard@micromata.de)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+package org.projectforge.continuousdb.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class PreparedStatementCacheTest
+{
+  private final Set<Object> closedStatements = new HashSet<Object>();
+
+  @Test
+  public void lruCache() throws Exception
+  {
+    final Connection con = createConnection();
+    final PreparedStatementCache cache = new PreparedStatementCache(2);
+    final PreparedStatement a = cache.getStatement(con, "a");
+    cache.release("a", a);
+    assertSame(a, cache.getStatement(con, "a"));
+    cache.release("a", a);
+    assertEquals(1, cache.getHits());
+    assertEquals(1, cache.getMisses());
+
+    final PreparedStatement b = cache.getStatement(con, "b");
+    cache.release("b", b);
+    cache.release("a", cache.getStatement(con, "a")); // a is now the most recently used statement.
+    final PreparedStatement c = cache.getStatement(con, "c");
+    cache.release("c", c);
+    assertEquals(2, cache.size());
+    assertTrue("Least recently used statement should be closed.", closedStatements.contains(b));
+    assertFalse(closedStatements.contains(a));
+
+    cache.close();
+    assertTrue(closedStatements.contains(a));
+    assertTrue(closedStatements.contains(c));
+  }
+
+  @Test
+  public void statementInUse() throws Exception
+  {
+    final Connection con = createConnection();
+    final PreparedStatementCache cache = new PreparedStatementCache(10);
+    final PreparedStatement outer = cache.getStatement(con, "a");
+    final PreparedStatement inner = cache.getStatement(con, "a");
+    assertFalse("Statement in use shouldn't be returned twice.", outer == inner);
+    cache.release("a", inner);
+    assertTrue("Uncached statement should be closed on release.", closedStatements.contains(inner));
+    cache.release("a", outer);
+    assertFalse(closedStatements.contains(outer));
+    assertSame(outer, cache.getStatement(con, "a"));
+    cache.discard("a", outer);
+    assertTrue(closedStatements.contains(outer));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void clear() throws Exception
+  {
+    final Connection con = createConnection();
+    final PreparedStatementCache cache = new PreparedStatementCache(10);
+    final PreparedStatement a = cache.getStatement(con, "a");
+    cache.release("a", a);
+    final PreparedStatement inUse = cache.getStatement(con, "b");
+    cache.clear();
+    assertEquals(0, cache.size());
+    assertTrue(closedStatements.contains(a));
+    assertFalse("Statement in use shouldn't be closed before release.", closedStatements.contains(inUse));
+    cache.release("b", inUse);
+    assertTrue(closedStatements.contains(inUse));
+    assertFalse("New statement expected after clear.", cache.getStatement(con, "a") == a);
+  }
+
+  private Connection createConnection()
+  {
+    return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class< ? >[] { Connection.class}, new InvocationHandler() {
+      @Override
+      public Object invoke(final Object proxy, final Method method, final Object[] args)
+      {
+        if ("prepareStatement".equals(method.getName()) == true) {
+          return createStatement();
+        }
+        return null;
+      }
+    });
+  }
+
+  private PreparedStatement createStatement()
+  {
+    return (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(), new Class< ? >[] { PreparedStatement.class},
+        new InvocationHandler() {
+          @Override
+          public Object invoke(final Object proxy, final Method method, final Object[] args)
+          {
+            if ("close".equals(method.getName()) == true) {
+              closedStatements.add(proxy);
+            } else if ("hashCode".equals(method.getName()) == true) {
+              return System.identityHashCode(proxy);
+            } else if ("equals".equals(method.getName()) == true) {
+              return proxy == args[0];
+            }
+            return null;
+          }
+        });
+  }
+}